@@ -0,0 +1,627 @@
+package org.lipeng.demo.collectioncomments;
+
+import java.util.*;
+
+/**
+ * NavigableMap接口的骨架实现，作用同AbstractMap7之于Map
+ * <p>
+ * 子类只需要实现：
+ * size, get, put, remove, comparator,
+ * 六个关系查找方法lowerEntry/floorEntry/ceilingEntry/higherEntry/firstEntry/lastEntry（返回快照entry，不支持setValue），
+ * 以及按范围迭代的{@link #entryIterator}
+ * <p>
+ * 其余的方法，包括entrySet/keySet/values视图，descendingMap，以及subMap/headMap/tailMap返回的范围视图，
+ * 都由这个类基于上面的方法实现。范围视图只是记录上下界，所有操作都转换为对原map的关系查找，
+ * 因此视图的性能与原map的关系查找和范围迭代的性能相同
+ * <p>
+ * 不可修改的map，put/remove抛出UnsupportedOperationException，迭代器不支持remove即可
+ *
+ * @param <K> key的类型
+ * @param <V> value的类型
+ * @see TreeMap7
+ */
+public abstract class AbstractNavigableMap7<K, V> extends AbstractMap7<K, V>
+        implements NavigableMap<K, V> {
+
+    protected AbstractNavigableMap7() {
+    }
+
+    /**
+     * 返回指定范围内的entry的迭代器，descending为true时从高到低迭代
+     * 上下界的表示方法同TreeMap7.NavigableSubMap：fromStart为true时没有下界，lo和loInclusive被忽略，上界同理
+     * 迭代器返回的entry的setValue应该写回到map中（或者抛出UnsupportedOperationException），
+     * 迭代器的remove应该删除map中对应的key（不可修改的map抛出UnsupportedOperationException）
+     */
+    abstract Iterator<Map.Entry<K, V>> entryIterator(boolean fromStart, K lo, boolean loInclusive,
+                                                    boolean toEnd, K hi, boolean hiInclusive,
+                                                    boolean descending);
+
+    /**
+     * 返回指定范围内的entry个数，默认实现遍历整个范围，子类可以重写为更快的实现
+     */
+    int countRange(boolean fromStart, K lo, boolean loInclusive,
+                   boolean toEnd, K hi, boolean hiInclusive) {
+        if (fromStart && toEnd)
+            return size();
+        int count = 0;
+        for (Iterator<Map.Entry<K, V>> it = entryIterator(fromStart, lo, loInclusive,
+                toEnd, hi, hiInclusive, false); it.hasNext(); it.next())
+            count++;
+        return count;
+    }
+
+    /**
+     * 使用comparator或者key的自然顺序比较两个key
+     */
+    final int compare(Object k1, Object k2) {
+        Comparator<? super K> cpr = comparator();
+        return cpr == null ? ((Comparable<? super K>) k1).compareTo((K) k2)
+                : cpr.compare((K) k1, (K) k2);
+    }
+
+    public boolean containsKey(Object key) {
+        Map.Entry<K, V> e = floorEntry((K) key);
+        return e != null && compare(key, e.getKey()) == 0;
+    }
+
+    public K firstKey() {
+        return key(firstEntry());
+    }
+
+    public K lastKey() {
+        return key(lastEntry());
+    }
+
+    public K lowerKey(K key) {
+        return keyOrNull(lowerEntry(key));
+    }
+
+    public K floorKey(K key) {
+        return keyOrNull(floorEntry(key));
+    }
+
+    public K ceilingKey(K key) {
+        return keyOrNull(ceilingEntry(key));
+    }
+
+    public K higherKey(K key) {
+        return keyOrNull(higherEntry(key));
+    }
+
+    /**
+     * 删除快照entry e对应的映射，供pollFirstEntry/pollLastEntry使用
+     * 默认直接删除key；并发的子类应该重写为只在key仍然映射到e的value时才删除，返回false时poll会重新查找
+     */
+    boolean removeEntry(Map.Entry<K, V> e) {
+        remove(e.getKey());
+        return true;
+    }
+
+    public Map.Entry<K, V> pollFirstEntry() {
+        Map.Entry<K, V> e;
+        while ((e = firstEntry()) != null && !removeEntry(e))
+            ;
+        return e;
+    }
+
+    public Map.Entry<K, V> pollLastEntry() {
+        Map.Entry<K, V> e;
+        while ((e = lastEntry()) != null && !removeEntry(e))
+            ;
+        return e;
+    }
+
+    // Views
+
+    private transient Set<Map.Entry<K, V>> entrySet;
+    private transient NavigableSet<K> navigableKeySet;
+    private transient NavigableMap<K, V> descendingMap;
+
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> es = entrySet;
+        return (es != null) ? es : (entrySet = new EntrySet<>(this,
+                true, null, true, true, null, true, false));
+    }
+
+    public Set<K> keySet() {
+        return navigableKeySet();
+    }
+
+    public NavigableSet<K> navigableKeySet() {
+        NavigableSet<K> ks = navigableKeySet;
+        return (ks != null) ? ks : (navigableKeySet = new KeySet<>(this));
+    }
+
+    public NavigableSet<K> descendingKeySet() {
+        return descendingMap().navigableKeySet();
+    }
+
+    public NavigableMap<K, V> descendingMap() {
+        NavigableMap<K, V> dm = descendingMap;
+        return (dm != null) ? dm : (descendingMap = new SubMap<>(this,
+                true, null, true, true, null, true, true));
+    }
+
+    public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive,
+                                     K toKey, boolean toInclusive) {
+        return new SubMap<>(this, false, fromKey, fromInclusive,
+                false, toKey, toInclusive, false);
+    }
+
+    public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+        return new SubMap<>(this, true, null, true, false, toKey, inclusive, false);
+    }
+
+    public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+        return new SubMap<>(this, false, fromKey, inclusive, true, null, true, false);
+    }
+
+    public SortedMap<K, V> subMap(K fromKey, K toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    public SortedMap<K, V> headMap(K toKey) {
+        return headMap(toKey, false);
+    }
+
+    public SortedMap<K, V> tailMap(K fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    // Little utilities
+
+    static <K, V> K keyOrNull(Map.Entry<K, V> e) {
+        return (e == null) ? null : e.getKey();
+    }
+
+    static <K, V> K key(Map.Entry<K, V> e) {
+        if (e == null)
+            throw new NoSuchElementException();
+        return e.getKey();
+    }
+
+    static boolean valEquals(Object o1, Object o2) {
+        return (o1 == null ? o2 == null : o1.equals(o2));
+    }
+
+    /**
+     * 范围内的entry组成的Set视图，整个map的entrySet也是一个没有上下界的EntrySet
+     */
+    static final class EntrySet<K, V> extends AbstractSet<Map.Entry<K, V>> {
+        private final AbstractNavigableMap7<K, V> m;
+        private final K lo, hi;
+        private final boolean fromStart, toEnd, loInclusive, hiInclusive, descending;
+
+        EntrySet(AbstractNavigableMap7<K, V> m,
+                 boolean fromStart, K lo, boolean loInclusive,
+                 boolean toEnd, K hi, boolean hiInclusive, boolean descending) {
+            this.m = m;
+            this.fromStart = fromStart;
+            this.lo = lo;
+            this.loInclusive = loInclusive;
+            this.toEnd = toEnd;
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+            this.descending = descending;
+        }
+
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return m.entryIterator(fromStart, lo, loInclusive, toEnd, hi, hiInclusive, descending);
+        }
+
+        public int size() {
+            return m.countRange(fromStart, lo, loInclusive, toEnd, hi, hiInclusive);
+        }
+
+        public boolean isEmpty() {
+            return !iterator().hasNext();
+        }
+
+        private boolean inRange(Object key) {
+            if (!fromStart) {
+                int c = m.compare(key, lo);
+                if (c < 0 || (c == 0 && !loInclusive))
+                    return false;
+            }
+            if (!toEnd) {
+                int c = m.compare(key, hi);
+                if (c > 0 || (c == 0 && !hiInclusive))
+                    return false;
+            }
+            return true;
+        }
+
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<K, V> entry = (Map.Entry<K, V>) o;
+            K key = entry.getKey();
+            if (!inRange(key) || !m.containsKey(key))
+                return false;
+            return valEquals(m.get(key), entry.getValue());
+        }
+
+        public boolean remove(Object o) {
+            if (!contains(o))
+                return false;
+            m.remove(((Map.Entry<K, V>) o).getKey());
+            return true;
+        }
+    }
+
+    /**
+     * 任意NavigableMap的key组成的NavigableSet视图
+     */
+    static final class KeySet<E> extends AbstractSet<E> implements NavigableSet<E> {
+        private final NavigableMap<E, ?> m;
+
+        KeySet(NavigableMap<E, ?> map) {
+            m = map;
+        }
+
+        public Iterator<E> iterator() {
+            final Iterator<? extends Map.Entry<E, ?>> i = m.entrySet().iterator();
+            return new Iterator<E>() {
+                public boolean hasNext() {
+                    return i.hasNext();
+                }
+
+                public E next() {
+                    return i.next().getKey();
+                }
+
+                public void remove() {
+                    i.remove();
+                }
+            };
+        }
+
+        public Iterator<E> descendingIterator() {
+            return m.descendingMap().navigableKeySet().iterator();
+        }
+
+        public int size() { return m.size(); }
+        public boolean isEmpty() { return m.isEmpty(); }
+        public boolean contains(Object o) { return m.containsKey(o); }
+        public void clear() { m.clear(); }
+        public E lower(E e) { return m.lowerKey(e); }
+        public E floor(E e) { return m.floorKey(e); }
+        public E ceiling(E e) { return m.ceilingKey(e); }
+        public E higher(E e) { return m.higherKey(e); }
+        public E first() { return m.firstKey(); }
+        public E last() { return m.lastKey(); }
+        public Comparator<? super E> comparator() { return m.comparator(); }
+        public E pollFirst() {
+            Map.Entry<E, ?> e = m.pollFirstEntry();
+            return (e == null) ? null : e.getKey();
+        }
+        public E pollLast() {
+            Map.Entry<E, ?> e = m.pollLastEntry();
+            return (e == null) ? null : e.getKey();
+        }
+        public boolean remove(Object o) {
+            if (!m.containsKey(o))
+                return false;
+            m.remove(o);
+            return true;
+        }
+        public NavigableSet<E> subSet(E fromElement, boolean fromInclusive,
+                                      E toElement, boolean toInclusive) {
+            return new KeySet<>(m.subMap(fromElement, fromInclusive, toElement, toInclusive));
+        }
+        public NavigableSet<E> headSet(E toElement, boolean inclusive) {
+            return new KeySet<>(m.headMap(toElement, inclusive));
+        }
+        public NavigableSet<E> tailSet(E fromElement, boolean inclusive) {
+            return new KeySet<>(m.tailMap(fromElement, inclusive));
+        }
+        public SortedSet<E> subSet(E fromElement, E toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+        public SortedSet<E> headSet(E toElement) {
+            return headSet(toElement, false);
+        }
+        public SortedSet<E> tailSet(E fromElement) {
+            return tailSet(fromElement, true);
+        }
+        public NavigableSet<E> descendingSet() {
+            return new KeySet<>(m.descendingMap());
+        }
+    }
+
+    /**
+     * subMap/headMap/tailMap/descendingMap返回的范围视图
+     * 上下界始终是原map顺序下的绝对上下界（同TreeMap7.NavigableSubMap），
+     * descending为true时，"sub"版本的关系查找把方向反过来
+     */
+    static final class SubMap<K, V> extends AbstractMap7<K, V> implements NavigableMap<K, V> {
+        private final AbstractNavigableMap7<K, V> m;
+        private final K lo, hi;
+        private final boolean fromStart, toEnd, loInclusive, hiInclusive;
+        private final boolean descending;
+
+        private transient Set<Map.Entry<K, V>> entrySetView;
+        private transient NavigableSet<K> keySetView;
+        private transient NavigableMap<K, V> descendingMapView;
+
+        SubMap(AbstractNavigableMap7<K, V> m,
+               boolean fromStart, K lo, boolean loInclusive,
+               boolean toEnd, K hi, boolean hiInclusive, boolean descending) {
+            if (!fromStart && !toEnd) {
+                if (m.compare(lo, hi) > 0)
+                    throw new IllegalArgumentException("fromKey > toKey");
+            } else {
+                if (!fromStart) // type check
+                    m.compare(lo, lo);
+                if (!toEnd)
+                    m.compare(hi, hi);
+            }
+            this.m = m;
+            this.fromStart = fromStart;
+            this.lo = lo;
+            this.loInclusive = loInclusive;
+            this.toEnd = toEnd;
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+            this.descending = descending;
+        }
+
+        // internal utilities
+
+        private boolean tooLow(Object key) {
+            if (!fromStart) {
+                int c = m.compare(key, lo);
+                if (c < 0 || (c == 0 && !loInclusive))
+                    return true;
+            }
+            return false;
+        }
+
+        private boolean tooHigh(Object key) {
+            if (!toEnd) {
+                int c = m.compare(key, hi);
+                if (c > 0 || (c == 0 && !hiInclusive))
+                    return true;
+            }
+            return false;
+        }
+
+        private boolean inRange(Object key) {
+            return !tooLow(key) && !tooHigh(key);
+        }
+
+        private boolean inClosedRange(Object key) {
+            return (fromStart || m.compare(key, lo) >= 0)
+                    && (toEnd || m.compare(hi, key) >= 0);
+        }
+
+        private boolean inRange(Object key, boolean inclusive) {
+            return inclusive ? inRange(key) : inClosedRange(key);
+        }
+
+        private Map.Entry<K, V> absLowest() {
+            Map.Entry<K, V> e = (fromStart ? m.firstEntry() :
+                    (loInclusive ? m.ceilingEntry(lo) : m.higherEntry(lo)));
+            return (e == null || tooHigh(e.getKey())) ? null : e;
+        }
+
+        private Map.Entry<K, V> absHighest() {
+            Map.Entry<K, V> e = (toEnd ? m.lastEntry() :
+                    (hiInclusive ? m.floorEntry(hi) : m.lowerEntry(hi)));
+            return (e == null || tooLow(e.getKey())) ? null : e;
+        }
+
+        private Map.Entry<K, V> absCeiling(K key) {
+            if (tooLow(key))
+                return absLowest();
+            Map.Entry<K, V> e = m.ceilingEntry(key);
+            return (e == null || tooHigh(e.getKey())) ? null : e;
+        }
+
+        private Map.Entry<K, V> absHigher(K key) {
+            if (tooLow(key))
+                return absLowest();
+            Map.Entry<K, V> e = m.higherEntry(key);
+            return (e == null || tooHigh(e.getKey())) ? null : e;
+        }
+
+        private Map.Entry<K, V> absFloor(K key) {
+            if (tooHigh(key))
+                return absHighest();
+            Map.Entry<K, V> e = m.floorEntry(key);
+            return (e == null || tooLow(e.getKey())) ? null : e;
+        }
+
+        private Map.Entry<K, V> absLower(K key) {
+            if (tooHigh(key))
+                return absHighest();
+            Map.Entry<K, V> e = m.lowerEntry(key);
+            return (e == null || tooLow(e.getKey())) ? null : e;
+        }
+
+        private Map.Entry<K, V> subLowest() {
+            return descending ? absHighest() : absLowest();
+        }
+
+        private Map.Entry<K, V> subHighest() {
+            return descending ? absLowest() : absHighest();
+        }
+
+        // public methods
+
+        public Comparator<? super K> comparator() {
+            Comparator<? super K> cpr = m.comparator();
+            if (!descending)
+                return cpr;
+            return (cpr == null) ? (Comparator<? super K>) Collections.reverseOrder()
+                    : Collections.reverseOrder(cpr);
+        }
+
+        public int size() {
+            return m.countRange(fromStart, lo, loInclusive, toEnd, hi, hiInclusive);
+        }
+
+        public boolean isEmpty() {
+            return absLowest() == null;
+        }
+
+        public boolean containsKey(Object key) {
+            return inRange(key) && m.containsKey(key);
+        }
+
+        public V get(Object key) {
+            return !inRange(key) ? null : m.get(key);
+        }
+
+        public V put(K key, V value) {
+            if (!inRange(key))
+                throw new IllegalArgumentException("key out of range");
+            return m.put(key, value);
+        }
+
+        public V remove(Object key) {
+            return !inRange(key) ? null : m.remove(key);
+        }
+
+        public void clear() {
+            for (Iterator<Map.Entry<K, V>> it = entrySet().iterator(); it.hasNext(); ) {
+                it.next();
+                it.remove();
+            }
+        }
+
+        public Map.Entry<K, V> ceilingEntry(K key) {
+            return descending ? absFloor(key) : absCeiling(key);
+        }
+
+        public K ceilingKey(K key) {
+            return keyOrNull(ceilingEntry(key));
+        }
+
+        public Map.Entry<K, V> higherEntry(K key) {
+            return descending ? absLower(key) : absHigher(key);
+        }
+
+        public K higherKey(K key) {
+            return keyOrNull(higherEntry(key));
+        }
+
+        public Map.Entry<K, V> floorEntry(K key) {
+            return descending ? absCeiling(key) : absFloor(key);
+        }
+
+        public K floorKey(K key) {
+            return keyOrNull(floorEntry(key));
+        }
+
+        public Map.Entry<K, V> lowerEntry(K key) {
+            return descending ? absHigher(key) : absLower(key);
+        }
+
+        public K lowerKey(K key) {
+            return keyOrNull(lowerEntry(key));
+        }
+
+        public K firstKey() {
+            return key(subLowest());
+        }
+
+        public K lastKey() {
+            return key(subHighest());
+        }
+
+        public Map.Entry<K, V> firstEntry() {
+            return subLowest();
+        }
+
+        public Map.Entry<K, V> lastEntry() {
+            return subHighest();
+        }
+
+        public Map.Entry<K, V> pollFirstEntry() {
+            Map.Entry<K, V> e;
+            while ((e = subLowest()) != null && !m.removeEntry(e))
+                ;
+            return e;
+        }
+
+        public Map.Entry<K, V> pollLastEntry() {
+            Map.Entry<K, V> e;
+            while ((e = subHighest()) != null && !m.removeEntry(e))
+                ;
+            return e;
+        }
+
+        // Views
+
+        public Set<Map.Entry<K, V>> entrySet() {
+            Set<Map.Entry<K, V>> es = entrySetView;
+            return (es != null) ? es : (entrySetView = new EntrySet<>(m,
+                    fromStart, lo, loInclusive, toEnd, hi, hiInclusive, descending));
+        }
+
+        public Set<K> keySet() {
+            return navigableKeySet();
+        }
+
+        public NavigableSet<K> navigableKeySet() {
+            NavigableSet<K> ks = keySetView;
+            return (ks != null) ? ks : (keySetView = new KeySet<>(this));
+        }
+
+        public NavigableSet<K> descendingKeySet() {
+            return descendingMap().navigableKeySet();
+        }
+
+        public NavigableMap<K, V> descendingMap() {
+            NavigableMap<K, V> dm = descendingMapView;
+            return (dm != null) ? dm : (descendingMapView = new SubMap<>(m,
+                    fromStart, lo, loInclusive, toEnd, hi, hiInclusive, !descending));
+        }
+
+        public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive,
+                                         K toKey, boolean toInclusive) {
+            if (!inRange(fromKey, fromInclusive))
+                throw new IllegalArgumentException("fromKey out of range");
+            if (!inRange(toKey, toInclusive))
+                throw new IllegalArgumentException("toKey out of range");
+            if (descending)
+                return new SubMap<>(m, false, toKey, toInclusive,
+                        false, fromKey, fromInclusive, true);
+            return new SubMap<>(m, false, fromKey, fromInclusive,
+                    false, toKey, toInclusive, false);
+        }
+
+        public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+            if (!inRange(toKey, inclusive))
+                throw new IllegalArgumentException("toKey out of range");
+            if (descending)
+                return new SubMap<>(m, false, toKey, inclusive,
+                        toEnd, hi, hiInclusive, true);
+            return new SubMap<>(m, fromStart, lo, loInclusive,
+                    false, toKey, inclusive, false);
+        }
+
+        public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+            if (!inRange(fromKey, inclusive))
+                throw new IllegalArgumentException("fromKey out of range");
+            if (descending)
+                return new SubMap<>(m, fromStart, lo, loInclusive,
+                        false, fromKey, inclusive, true);
+            return new SubMap<>(m, false, fromKey, inclusive,
+                    toEnd, hi, hiInclusive, false);
+        }
+
+        public SortedMap<K, V> subMap(K fromKey, K toKey) {
+            return subMap(fromKey, true, toKey, false);
+        }
+
+        public SortedMap<K, V> headMap(K toKey) {
+            return headMap(toKey, false);
+        }
+
+        public SortedMap<K, V> tailMap(K fromKey) {
+            return tailMap(fromKey, true);
+        }
+    }
+}
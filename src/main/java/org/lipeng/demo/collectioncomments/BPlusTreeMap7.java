@@ -0,0 +1,696 @@
+package org.lipeng.demo.collectioncomments;
+
+import java.util.*;
+
+/**
+ * 基于B+树的NavigableMap实现，API同TreeMap7
+ * <p>
+ * TreeMap7的每个key都是一个单独的Entry对象（key,value,left,right,parent,color），
+ * 一次查找要沿着指针访问log2(n)个分散在堆中的对象，n很大时几乎每一层都是一次cache miss。
+ * B+树的每个节点用数组存放最多nodeCapacity个key，查找时每个节点内部是对连续数组的二分查找，
+ * 树的高度只有log(n)/log(nodeCapacity)，例如nodeCapacity为64时，一千万个key只有4层。
+ * <p>
+ * 所有的key和value都存放在叶子节点中，叶子节点之间通过next/prev双向链接，
+ * 因此范围查询（subMap/headMap/tailMap以及迭代）是对叶子节点数组的顺序遍历，不需要像TreeMap7那样调用successor。
+ * <p>
+ * 内部节点有n个key和n+1个孩子，children[i]中的key k满足 keys[i-1] <= k < keys[i]；
+ * 除根节点外，每个节点至少有nodeCapacity/2个key，删除导致不足时从兄弟节点借或者与兄弟节点合并。
+ * <p>
+ * 同TreeMap7，此实现不是同步的，迭代器是fail-fast的；
+ * 关系查找方法（ceilingEntry等）返回的entry是快照，不支持setValue，迭代器返回的entry的setValue会写回map，
+ * 但不会重新插入迭代之后被删除的key
+ *
+ * @param <K> key的类型
+ * @param <V> value的类型
+ * @see TreeMap7
+ */
+public class BPlusTreeMap7<K, V> extends AbstractNavigableMap7<K, V> implements Cloneable {
+
+    /**
+     * 默认的节点容量：每个节点最多存放的key的个数
+     */
+    static final int DEFAULT_NODE_CAPACITY = 64;
+
+    private final Comparator<? super K> comparator;
+
+    /**
+     * 每个节点最多存放的key的个数
+     */
+    private final int nodeCapacity;
+
+    /**
+     * 除根节点外每个节点最少存放的key的个数
+     */
+    private final int minKeys;
+
+    /**
+     * 根节点，map为空时是一个空的叶子节点
+     */
+    private transient Node root;
+
+    /**
+     * 内部节点的层数，root为叶子节点时为0
+     */
+    private transient int height;
+
+    private transient int size;
+    private transient int modCount;
+
+    public BPlusTreeMap7() {
+        this(null, DEFAULT_NODE_CAPACITY);
+    }
+
+    public BPlusTreeMap7(Comparator<? super K> comparator) {
+        this(comparator, DEFAULT_NODE_CAPACITY);
+    }
+
+    /**
+     * @param comparator   比较器，null时使用key的自然顺序
+     * @param nodeCapacity 每个节点最多存放的key的个数，必须>=4
+     */
+    public BPlusTreeMap7(Comparator<? super K> comparator, int nodeCapacity) {
+        if (nodeCapacity < 4)
+            throw new IllegalArgumentException("Illegal node capacity: " + nodeCapacity);
+        this.comparator = comparator;
+        this.nodeCapacity = nodeCapacity;
+        this.minKeys = nodeCapacity / 2;
+        this.root = new Leaf(nodeCapacity);
+    }
+
+    public BPlusTreeMap7(Map<? extends K, ? extends V> m) {
+        this((Comparator<? super K>) null);
+        putAll(m);
+    }
+
+    public BPlusTreeMap7(SortedMap<K, ? extends V> m) {
+        this(m.comparator());
+        putAll(m);
+    }
+
+    // 节点
+
+    abstract static class Node {
+        int n;
+        final Object[] keys;
+
+        Node(int capacity) {
+            // 多一个位置，插入时允许暂时溢出，然后再分裂
+            keys = new Object[capacity + 1];
+        }
+    }
+
+    static final class Leaf extends Node {
+        final Object[] values;
+        Leaf next, prev;
+
+        Leaf(int capacity) {
+            super(capacity);
+            values = new Object[capacity + 1];
+        }
+    }
+
+    static final class Inner extends Node {
+        final Node[] children;
+
+        Inner(int capacity) {
+            super(capacity);
+            children = new Node[capacity + 2];
+        }
+    }
+
+    /**
+     * 叶子节点中的一个位置，index可以等于leaf.n（表示该叶子节点最后一个key之后）
+     */
+    static final class Cursor {
+        Leaf leaf;
+        int index;
+
+        Cursor(Leaf leaf, int index) {
+            this.leaf = leaf;
+            this.index = index;
+        }
+    }
+
+    // 查找
+
+    /**
+     * 在keys[0, n)中二分查找key，找到时返回下标，否则返回-(插入位置+1)，同Arrays.binarySearch
+     * 同TreeMap7.getEntry，将comparator和Comparable两种情况分开
+     */
+    private int search(Object[] keys, int n, Object key) {
+        int low = 0, high = n - 1;
+        Comparator<? super K> cpr = comparator;
+        if (cpr != null) {
+            K k = (K) key;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = cpr.compare((K) keys[mid], k);
+                if (cmp < 0)
+                    low = mid + 1;
+                else if (cmp > 0)
+                    high = mid - 1;
+                else
+                    return mid;
+            }
+        } else {
+            if (key == null)
+                throw new NullPointerException();
+            Comparable<? super K> k = (Comparable<? super K>) key;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = -k.compareTo((K) keys[mid]);
+                if (cmp < 0)
+                    low = mid + 1;
+                else if (cmp > 0)
+                    high = mid - 1;
+                else
+                    return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * key所在（或应该插入）的孩子的下标
+     */
+    private int childIndex(Inner in, Object key) {
+        int r = search(in.keys, in.n, key);
+        return r >= 0 ? r + 1 : -r - 1;
+    }
+
+    /**
+     * 返回key所在（或应该插入）的叶子节点
+     */
+    private Leaf leafFor(Object key) {
+        Node x = root;
+        for (int level = 0; level < height; level++) {
+            Inner in = (Inner) x;
+            x = in.children[childIndex(in, key)];
+        }
+        return (Leaf) x;
+    }
+
+    private Leaf firstLeaf() {
+        Node x = root;
+        for (int level = 0; level < height; level++)
+            x = ((Inner) x).children[0];
+        return (Leaf) x;
+    }
+
+    private Leaf lastLeaf() {
+        Node x = root;
+        for (int level = 0; level < height; level++) {
+            Inner in = (Inner) x;
+            x = in.children[in.n];
+        }
+        return (Leaf) x;
+    }
+
+    /**
+     * 返回第一个>=key(inclusive)或>key的位置，没有时返回null
+     */
+    private Cursor ceilingCursor(Object key, boolean inclusive) {
+        Leaf leaf = leafFor(key);
+        int r = search(leaf.keys, leaf.n, key);
+        int i = r >= 0 ? (inclusive ? r : r + 1) : -r - 1;
+        if (i == leaf.n) {
+            leaf = leaf.next;
+            i = 0;
+        }
+        return leaf == null ? null : new Cursor(leaf, i);
+    }
+
+    /**
+     * 返回最后一个<=key(inclusive)或<key的位置，没有时返回null
+     */
+    private Cursor floorCursor(Object key, boolean inclusive) {
+        Leaf leaf = leafFor(key);
+        int r = search(leaf.keys, leaf.n, key);
+        int i = r >= 0 ? (inclusive ? r : r - 1) : -r - 2;
+        if (i < 0) {
+            leaf = leaf.prev;
+            if (leaf == null)
+                return null;
+            i = leaf.n - 1;
+        }
+        return new Cursor(leaf, i);
+    }
+
+    private Cursor firstCursor() {
+        Leaf leaf = firstLeaf();
+        return leaf.n == 0 ? null : new Cursor(leaf, 0);
+    }
+
+    private Cursor lastCursor() {
+        Leaf leaf = lastLeaf();
+        return leaf.n == 0 ? null : new Cursor(leaf, leaf.n - 1);
+    }
+
+    private Map.Entry<K, V> exportEntry(Cursor c) {
+        return (c == null) ? null : new AbstractMap7.SimpleImmutableEntry<>(
+                (K) c.leaf.keys[c.index], (V) c.leaf.values[c.index]);
+    }
+
+    // Map API
+
+    public int size() {
+        return size;
+    }
+
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+
+    public boolean containsKey(Object key) {
+        Leaf leaf = leafFor(key);
+        return search(leaf.keys, leaf.n, key) >= 0;
+    }
+
+    public V get(Object key) {
+        Leaf leaf = leafFor(key);
+        int r = search(leaf.keys, leaf.n, key);
+        return r >= 0 ? (V) leaf.values[r] : null;
+    }
+
+    public boolean containsValue(Object value) {
+        for (Leaf leaf = firstLeaf(); leaf != null; leaf = leaf.next)
+            for (int i = 0; i < leaf.n; i++)
+                if (valEquals(value, leaf.values[i]))
+                    return true;
+        return false;
+    }
+
+    /**
+     * 从根节点下降到叶子节点，记录经过的内部节点及孩子下标；
+     * 插入叶子节点后如果溢出则分裂，分裂出的右半部分的第一个key作为分隔key插入父节点，依次向上，根节点分裂时树长高一层
+     */
+    public V put(K key, V value) {
+        if (size == 0)
+            compare(key, key); // type (and possibly null) check
+        Inner[] path = new Inner[height];
+        int[] idx = new int[height];
+        Node x = root;
+        for (int level = 0; level < height; level++) {
+            Inner in = (Inner) x;
+            int i = childIndex(in, key);
+            path[level] = in;
+            idx[level] = i;
+            x = in.children[i];
+        }
+        Leaf leaf = (Leaf) x;
+        int r = search(leaf.keys, leaf.n, key);
+        if (r >= 0) {
+            V oldValue = (V) leaf.values[r];
+            leaf.values[r] = value;
+            return oldValue;
+        }
+        int ip = -r - 1;
+        System.arraycopy(leaf.keys, ip, leaf.keys, ip + 1, leaf.n - ip);
+        System.arraycopy(leaf.values, ip, leaf.values, ip + 1, leaf.n - ip);
+        leaf.keys[ip] = key;
+        leaf.values[ip] = value;
+        leaf.n++;
+        size++;
+        modCount++;
+        if (leaf.n <= nodeCapacity)
+            return null;
+
+        Leaf right = splitLeaf(leaf);
+        Object separator = right.keys[0];
+        Node newChild = right;
+        for (int level = height - 1; level >= 0; level--) {
+            Inner p = path[level];
+            int i = idx[level];
+            System.arraycopy(p.keys, i, p.keys, i + 1, p.n - i);
+            System.arraycopy(p.children, i + 1, p.children, i + 2, p.n - i);
+            p.keys[i] = separator;
+            p.children[i + 1] = newChild;
+            p.n++;
+            if (p.n <= nodeCapacity)
+                return null;
+            // 内部节点分裂：中间的key上移到父节点，不保留在任何一个孩子中
+            int mid = p.n / 2;
+            Inner q = new Inner(nodeCapacity);
+            separator = p.keys[mid];
+            q.n = p.n - mid - 1;
+            System.arraycopy(p.keys, mid + 1, q.keys, 0, q.n);
+            System.arraycopy(p.children, mid + 1, q.children, 0, q.n + 1);
+            Arrays.fill(p.keys, mid, p.n, null);
+            Arrays.fill(p.children, mid + 1, p.n + 1, null);
+            p.n = mid;
+            newChild = q;
+        }
+        // 根节点分裂
+        Inner newRoot = new Inner(nodeCapacity);
+        newRoot.n = 1;
+        newRoot.keys[0] = separator;
+        newRoot.children[0] = root;
+        newRoot.children[1] = newChild;
+        root = newRoot;
+        height++;
+        return null;
+    }
+
+    /**
+     * 将leaf的后一半移动到新的叶子节点并链接在leaf之后，返回新的叶子节点
+     */
+    private Leaf splitLeaf(Leaf leaf) {
+        int mid = leaf.n / 2;
+        Leaf right = new Leaf(nodeCapacity);
+        right.n = leaf.n - mid;
+        System.arraycopy(leaf.keys, mid, right.keys, 0, right.n);
+        System.arraycopy(leaf.values, mid, right.values, 0, right.n);
+        Arrays.fill(leaf.keys, mid, leaf.n, null);
+        Arrays.fill(leaf.values, mid, leaf.n, null);
+        leaf.n = mid;
+        right.next = leaf.next;
+        right.prev = leaf;
+        if (leaf.next != null)
+            leaf.next.prev = right;
+        leaf.next = right;
+        return right;
+    }
+
+    public V remove(Object key) {
+        Inner[] path = new Inner[height];
+        int[] idx = new int[height];
+        Node x = root;
+        for (int level = 0; level < height; level++) {
+            Inner in = (Inner) x;
+            int i = childIndex(in, key);
+            path[level] = in;
+            idx[level] = i;
+            x = in.children[i];
+        }
+        Leaf leaf = (Leaf) x;
+        int r = search(leaf.keys, leaf.n, key);
+        if (r < 0)
+            return null;
+        V oldValue = (V) leaf.values[r];
+        int moved = leaf.n - r - 1;
+        System.arraycopy(leaf.keys, r + 1, leaf.keys, r, moved);
+        System.arraycopy(leaf.values, r + 1, leaf.values, r, moved);
+        leaf.n--;
+        leaf.keys[leaf.n] = null;
+        leaf.values[leaf.n] = null;
+        size--;
+        modCount++;
+        rebalance(leaf, path, idx);
+        return oldValue;
+    }
+
+    /**
+     * 删除之后自底向上修复key个数不足的节点：优先从左右兄弟借一个key，兄弟也不富余时与兄弟合并，
+     * 合并使父节点少一个key，继续检查父节点；最后如果根节点是没有key的内部节点，树降低一层
+     */
+    private void rebalance(Node x, Inner[] path, int[] idx) {
+        for (int level = height - 1; level >= 0 && x.n < minKeys; level--) {
+            Inner p = path[level];
+            int i = idx[level];
+            if (i > 0 && p.children[i - 1].n > minKeys) {
+                borrowFromLeft(p, i);
+                return;
+            }
+            if (i < p.n && p.children[i + 1].n > minKeys) {
+                borrowFromRight(p, i);
+                return;
+            }
+            if (i > 0)
+                merge(p, i - 1);
+            else
+                merge(p, i);
+            x = p;
+        }
+        if (height > 0 && root.n == 0) {
+            root = ((Inner) root).children[0];
+            height--;
+        }
+    }
+
+    private void borrowFromLeft(Inner p, int i) {
+        Node x = p.children[i];
+        Node left = p.children[i - 1];
+        System.arraycopy(x.keys, 0, x.keys, 1, x.n);
+        if (x instanceof Leaf) {
+            Leaf lx = (Leaf) x, ll = (Leaf) left;
+            System.arraycopy(lx.values, 0, lx.values, 1, lx.n);
+            lx.keys[0] = ll.keys[ll.n - 1];
+            lx.values[0] = ll.values[ll.n - 1];
+            ll.keys[ll.n - 1] = null;
+            ll.values[ll.n - 1] = null;
+            p.keys[i - 1] = lx.keys[0];
+        } else {
+            Inner ix = (Inner) x, il = (Inner) left;
+            System.arraycopy(ix.children, 0, ix.children, 1, ix.n + 1);
+            ix.keys[0] = p.keys[i - 1];
+            ix.children[0] = il.children[il.n];
+            p.keys[i - 1] = il.keys[il.n - 1];
+            il.keys[il.n - 1] = null;
+            il.children[il.n] = null;
+        }
+        left.n--;
+        x.n++;
+    }
+
+    private void borrowFromRight(Inner p, int i) {
+        Node x = p.children[i];
+        Node right = p.children[i + 1];
+        if (x instanceof Leaf) {
+            Leaf lx = (Leaf) x, lr = (Leaf) right;
+            lx.keys[lx.n] = lr.keys[0];
+            lx.values[lx.n] = lr.values[0];
+            System.arraycopy(lr.keys, 1, lr.keys, 0, lr.n - 1);
+            System.arraycopy(lr.values, 1, lr.values, 0, lr.n - 1);
+            lr.keys[lr.n - 1] = null;
+            lr.values[lr.n - 1] = null;
+            p.keys[i] = lr.keys[0];
+        } else {
+            Inner ix = (Inner) x, ir = (Inner) right;
+            ix.keys[ix.n] = p.keys[i];
+            ix.children[ix.n + 1] = ir.children[0];
+            p.keys[i] = ir.keys[0];
+            System.arraycopy(ir.keys, 1, ir.keys, 0, ir.n - 1);
+            System.arraycopy(ir.children, 1, ir.children, 0, ir.n);
+            ir.keys[ir.n - 1] = null;
+            ir.children[ir.n] = null;
+        }
+        right.n--;
+        x.n++;
+    }
+
+    /**
+     * 将p的第j+1个孩子合并到第j个孩子中，并从p中删除它们之间的分隔key
+     */
+    private void merge(Inner p, int j) {
+        Node left = p.children[j];
+        Node right = p.children[j + 1];
+        if (left instanceof Leaf) {
+            Leaf ll = (Leaf) left, lr = (Leaf) right;
+            System.arraycopy(lr.keys, 0, ll.keys, ll.n, lr.n);
+            System.arraycopy(lr.values, 0, ll.values, ll.n, lr.n);
+            ll.n += lr.n;
+            ll.next = lr.next;
+            if (lr.next != null)
+                lr.next.prev = ll;
+        } else {
+            Inner il = (Inner) left, ir = (Inner) right;
+            il.keys[il.n] = p.keys[j];
+            System.arraycopy(ir.keys, 0, il.keys, il.n + 1, ir.n);
+            System.arraycopy(ir.children, 0, il.children, il.n + 1, ir.n + 1);
+            il.n += ir.n + 1;
+        }
+        System.arraycopy(p.keys, j + 1, p.keys, j, p.n - j - 1);
+        System.arraycopy(p.children, j + 2, p.children, j + 1, p.n - j - 1);
+        p.n--;
+        p.keys[p.n] = null;
+        p.children[p.n + 1] = null;
+    }
+
+    public void clear() {
+        modCount++;
+        size = 0;
+        height = 0;
+        root = new Leaf(nodeCapacity);
+    }
+
+    /**
+     * 返回浅拷贝，按顺序逐个put
+     */
+    public Object clone() {
+        BPlusTreeMap7<K, V> clone = new BPlusTreeMap7<>(comparator, nodeCapacity);
+        for (Leaf leaf = firstLeaf(); leaf != null; leaf = leaf.next)
+            for (int i = 0; i < leaf.n; i++)
+                clone.put((K) leaf.keys[i], (V) leaf.values[i]);
+        return clone;
+    }
+
+    // NavigableMap API methods
+
+    public Map.Entry<K, V> firstEntry() {
+        return exportEntry(firstCursor());
+    }
+
+    public Map.Entry<K, V> lastEntry() {
+        return exportEntry(lastCursor());
+    }
+
+    public Map.Entry<K, V> lowerEntry(K key) {
+        return exportEntry(floorCursor(key, false));
+    }
+
+    public Map.Entry<K, V> floorEntry(K key) {
+        return exportEntry(floorCursor(key, true));
+    }
+
+    public Map.Entry<K, V> ceilingEntry(K key) {
+        return exportEntry(ceilingCursor(key, true));
+    }
+
+    public Map.Entry<K, V> higherEntry(K key) {
+        return exportEntry(ceilingCursor(key, false));
+    }
+
+    /**
+     * 逐个叶子节点累加个数，只有范围两端的叶子节点需要逐个比较
+     */
+    int countRange(boolean fromStart, K lo, boolean loInclusive,
+                   boolean toEnd, K hi, boolean hiInclusive) {
+        if (fromStart && toEnd)
+            return size;
+        Cursor from = fromStart ? firstCursor() : ceilingCursor(lo, loInclusive);
+        Cursor to = toEnd ? lastCursor() : floorCursor(hi, hiInclusive);
+        if (from == null || to == null || compare(from.leaf.keys[from.index], to.leaf.keys[to.index]) > 0)
+            return 0;
+        int count = 0;
+        for (Leaf leaf = from.leaf; leaf != to.leaf; leaf = leaf.next)
+            count += leaf.n;
+        return count - from.index + to.index + 1;
+    }
+
+    Iterator<Map.Entry<K, V>> entryIterator(boolean fromStart, K lo, boolean loInclusive,
+                                           boolean toEnd, K hi, boolean hiInclusive,
+                                           boolean descending) {
+        return new EntryIterator(fromStart, lo, loInclusive, toEnd, hi, hiInclusive, descending);
+    }
+
+    /**
+     * 沿着叶子节点链表顺序（或倒序）遍历，每到一个位置就检查它的key是否已经越过范围的另一端，
+     * 越过时结束（起点本身已经越过时范围为空），同ConcurrentSkipListMap7的子map迭代器
+     */
+    final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private final boolean fromStart, toEnd, loInclusive, hiInclusive, descending;
+        private final K lo, hi;
+        private Leaf leaf;
+        private int index;
+        private K lastKey;
+        private boolean canRemove;
+        private int expectedModCount;
+
+        EntryIterator(boolean fromStart, K lo, boolean loInclusive,
+                      boolean toEnd, K hi, boolean hiInclusive, boolean descending) {
+            this.fromStart = fromStart;
+            this.lo = lo;
+            this.loInclusive = loInclusive;
+            this.toEnd = toEnd;
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+            this.descending = descending;
+            Cursor first = descending ?
+                    (toEnd ? lastCursor() : floorCursor(hi, hiInclusive)) :
+                    (fromStart ? firstCursor() : ceilingCursor(lo, loInclusive));
+            setNext(first);
+            expectedModCount = modCount;
+        }
+
+        private void setNext(Cursor c) {
+            leaf = (c == null) ? null : c.leaf;
+            index = (c == null) ? 0 : c.index;
+            if (leaf != null && beyondEnd(leaf.keys[index]))
+                leaf = null;
+        }
+
+        /**
+         * key是否已经越过迭代方向上的范围终点
+         */
+        private boolean beyondEnd(Object key) {
+            if (descending) {
+                if (fromStart)
+                    return false;
+                int c = compare(key, lo);
+                return c < 0 || (c == 0 && !loInclusive);
+            } else {
+                if (toEnd)
+                    return false;
+                int c = compare(key, hi);
+                return c > 0 || (c == 0 && !hiInclusive);
+            }
+        }
+
+        public boolean hasNext() {
+            return leaf != null;
+        }
+
+        public Map.Entry<K, V> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            K key = (K) leaf.keys[index];
+            V value = (V) leaf.values[index];
+            if (descending) {
+                if (--index < 0) {
+                    leaf = leaf.prev;
+                    index = (leaf == null) ? 0 : leaf.n - 1;
+                }
+            } else {
+                if (++index == leaf.n) {
+                    leaf = leaf.next;
+                    index = 0;
+                }
+            }
+            if (leaf != null && beyondEnd(leaf.keys[index]))
+                leaf = null;
+            lastKey = key;
+            canRemove = true;
+            return new IteratorEntry(key, value);
+        }
+
+        /**
+         * 删除可能导致节点借用或合并，位置全部失效，删除之后根据下一个key重新定位
+         */
+        public void remove() {
+            if (!canRemove)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            boolean more = hasNext();
+            Object nextKey = more ? leaf.keys[index] : null;
+            BPlusTreeMap7.this.remove(lastKey);
+            if (more)
+                setNext(descending ? floorCursor(nextKey, true) : ceilingCursor(nextKey, true));
+            else
+                leaf = null;
+            canRemove = false;
+            expectedModCount = modCount;
+        }
+    }
+
+    /**
+     * 迭代器返回的entry，setValue直接替换叶子节点中的value（不是结构修改），返回这个entry原来的值
+     * 如果key已经从map中删除，抛出IllegalStateException，而不是把它重新插入
+     */
+    final class IteratorEntry extends AbstractMap7.SimpleEntry<K, V> {
+        IteratorEntry(K key, V value) {
+            super(key, value);
+        }
+
+        public V setValue(V value) {
+            Leaf leaf = leafFor(getKey());
+            int r = search(leaf.keys, leaf.n, getKey());
+            if (r < 0)
+                throw new IllegalStateException("Entry was removed from the map");
+            leaf.values[r] = value;
+            return super.setValue(value);
+        }
+    }
+}
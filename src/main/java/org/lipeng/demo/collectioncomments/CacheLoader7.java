@@ -0,0 +1,41 @@
+package org.lipeng.demo.collectioncomments;
+
+import java.util.Map;
+
+/**
+ * {@link LoadingCache7}未命中时用来加载值的加载器
+ * 只需要实现{@link #load(Object)}，批量加载和刷新默认都委托给load
+ *
+ * @param <K> key的类型
+ * @param <V> value的类型
+ */
+public abstract class CacheLoader7<K, V> {
+
+    /**
+     * 加载key对应的值，不能返回null
+     *
+     * @throws Exception 加载失败时抛出，会被包装成ExecutionException抛给调用LoadingCache7.get的所有线程
+     */
+    public abstract V load(K key) throws Exception;
+
+    /**
+     * 批量加载，由{@link LoadingCache7#getAll(Iterable)}调用，一次调用加载所有未命中的key
+     * 默认实现逐个调用load，可以重写为一次查询（例如一条SQL）加载全部
+     *
+     * @return 包含keys中每一个key的map，缺少的key会被当做加载失败
+     */
+    public Map<K, V> loadAll(Iterable<? extends K> keys) throws Exception {
+        Map<K, V> result = new LinkedHashMap7<>();
+        for (K key : keys)
+            result.put(key, load(key));
+        return result;
+    }
+
+    /**
+     * 刷新key对应的值，在LoadingCache7的后台线程中调用，刷新期间读到的仍然是旧值oldValue
+     * 默认实现调用load
+     */
+    public V reload(K key, V oldValue) throws Exception {
+        return load(key);
+    }
+}
@@ -0,0 +1,218 @@
+package org.lipeng.demo.collectioncomments;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LinkedHashMap7作为缓存使用时的统计信息快照，不可变
+ * 由{@link LinkedHashMap7#stats()}返回，统计的内容包括：
+ * 命中次数，未命中次数，加载成功/失败次数及总耗时，淘汰次数以及被淘汰的entry的总存活时间
+ * <p>
+ * 快照之间可以通过{@link #minus(CacheStats7)}相减，得到某一时间段内的统计值
+ *
+ * @see LinkedHashMap7#recordStats()
+ */
+public final class CacheStats7 {
+    private final long hitCount;
+    private final long missCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long totalLoadTime;
+    private final long evictionCount;
+    private final long totalEvictedAge;
+
+    /**
+     * 所有计数都必须>=0，时间单位为纳秒
+     */
+    public CacheStats7(long hitCount, long missCount, long loadSuccessCount,
+                       long loadFailureCount, long totalLoadTime,
+                       long evictionCount, long totalEvictedAge) {
+        if (hitCount < 0 || missCount < 0 || loadSuccessCount < 0 ||
+                loadFailureCount < 0 || totalLoadTime < 0 ||
+                evictionCount < 0 || totalEvictedAge < 0)
+            throw new IllegalArgumentException("counts must be non-negative");
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTime = totalLoadTime;
+        this.evictionCount = evictionCount;
+        this.totalEvictedAge = totalEvictedAge;
+    }
+
+    /**
+     * 请求总数 = 命中次数 + 未命中次数
+     */
+    public long requestCount() {
+        return hitCount + missCount;
+    }
+
+    public long hitCount() {
+        return hitCount;
+    }
+
+    /**
+     * 命中率，没有任何请求时返回1.0
+     */
+    public double hitRate() {
+        long requestCount = requestCount();
+        return (requestCount == 0) ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    public long missCount() {
+        return missCount;
+    }
+
+    /**
+     * 未命中率，没有任何请求时返回0.0
+     */
+    public double missRate() {
+        long requestCount = requestCount();
+        return (requestCount == 0) ? 0.0 : (double) missCount / requestCount;
+    }
+
+    public long loadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    public long loadFailureCount() {
+        return loadFailureCount;
+    }
+
+    /**
+     * 加载新值花费的总时间，单位纳秒
+     */
+    public long totalLoadTime() {
+        return totalLoadTime;
+    }
+
+    /**
+     * 平均每次加载花费的时间（纳秒），没有加载过时返回0.0
+     */
+    public double averageLoadPenalty() {
+        long loadCount = loadSuccessCount + loadFailureCount;
+        return (loadCount == 0) ? 0.0 : (double) totalLoadTime / loadCount;
+    }
+
+    /**
+     * 通过removeEldestEntry淘汰的entry的个数
+     */
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * 被淘汰的entry从创建到被淘汰的平均存活时间（纳秒），没有淘汰过时返回0.0
+     */
+    public double averageEvictedAge() {
+        return (evictionCount == 0) ? 0.0 : (double) totalEvictedAge / evictionCount;
+    }
+
+    /**
+     * 返回this - other，结果中的每一项最小为0
+     */
+    public CacheStats7 minus(CacheStats7 other) {
+        return new CacheStats7(
+                Math.max(0, hitCount - other.hitCount),
+                Math.max(0, missCount - other.missCount),
+                Math.max(0, loadSuccessCount - other.loadSuccessCount),
+                Math.max(0, loadFailureCount - other.loadFailureCount),
+                Math.max(0, totalLoadTime - other.totalLoadTime),
+                Math.max(0, evictionCount - other.evictionCount),
+                Math.max(0, totalEvictedAge - other.totalEvictedAge));
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof CacheStats7))
+            return false;
+        CacheStats7 s = (CacheStats7) o;
+        return hitCount == s.hitCount && missCount == s.missCount &&
+                loadSuccessCount == s.loadSuccessCount &&
+                loadFailureCount == s.loadFailureCount &&
+                totalLoadTime == s.totalLoadTime &&
+                evictionCount == s.evictionCount &&
+                totalEvictedAge == s.totalEvictedAge;
+    }
+
+    public int hashCode() {
+        long h = hitCount;
+        h = 31 * h + missCount;
+        h = 31 * h + loadSuccessCount;
+        h = 31 * h + loadFailureCount;
+        h = 31 * h + totalLoadTime;
+        h = 31 * h + evictionCount;
+        h = 31 * h + totalEvictedAge;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    public String toString() {
+        return "CacheStats7{hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", loadSuccessCount=" + loadSuccessCount +
+                ", loadFailureCount=" + loadFailureCount +
+                ", totalLoadTime=" + totalLoadTime +
+                ", evictionCount=" + evictionCount +
+                ", averageEvictedAgeMillis=" +
+                TimeUnit.NANOSECONDS.toMillis((long) averageEvictedAge()) + "}";
+    }
+
+    /**
+     * 统计信息的累加器，使用LongAdder计数，多个线程同时记录时竞争较小
+     * 由LinkedHashMap7在get和淘汰时调用，加载相关的计数由使用者（例如在miss之后回源加载的代码）调用
+     */
+    public static final class Recorder {
+        private final LongAdder hitCount = new LongAdder();
+        private final LongAdder missCount = new LongAdder();
+        private final LongAdder loadSuccessCount = new LongAdder();
+        private final LongAdder loadFailureCount = new LongAdder();
+        private final LongAdder totalLoadTime = new LongAdder();
+        private final LongAdder evictionCount = new LongAdder();
+        private final LongAdder totalEvictedAge = new LongAdder();
+
+        public void recordHits(int count) {
+            hitCount.add(count);
+        }
+
+        public void recordMisses(int count) {
+            missCount.add(count);
+        }
+
+        /**
+         * @param loadTime 加载耗时，单位纳秒
+         */
+        public void recordLoadSuccess(long loadTime) {
+            loadSuccessCount.increment();
+            totalLoadTime.add(loadTime);
+        }
+
+        /**
+         * @param loadTime 加载耗时，单位纳秒
+         */
+        public void recordLoadFailure(long loadTime) {
+            loadFailureCount.increment();
+            totalLoadTime.add(loadTime);
+        }
+
+        /**
+         * @param age 被淘汰的entry的存活时间，单位纳秒
+         */
+        public void recordEviction(long age) {
+            evictionCount.increment();
+            totalEvictedAge.add(Math.max(0, age));
+        }
+
+        /**
+         * 返回当前计数的快照，各计数并不是在同一时刻原子读取的
+         */
+        public CacheStats7 snapshot() {
+            return new CacheStats7(
+                    hitCount.sum(),
+                    missCount.sum(),
+                    loadSuccessCount.sum(),
+                    loadFailureCount.sum(),
+                    totalLoadTime.sum(),
+                    evictionCount.sum(),
+                    totalEvictedAge.sum());
+        }
+    }
+}
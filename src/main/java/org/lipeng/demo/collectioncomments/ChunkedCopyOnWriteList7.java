@@ -0,0 +1,912 @@
+package org.lipeng.demo.collectioncomments;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * 分块的写时复制List，语义同CopyOnWriteArrayList7：读操作和迭代不加锁，迭代器遍历创建时的快照，
+ * 不会抛出ConcurrentModificationException；写操作在lock下串行执行
+ * <p>
+ * CopyOnWriteArrayList7的每次写操作都复制整个数组，10万个元素的list每次add都要复制10万个引用。
+ * 这个类把元素保存在不可变的、最多{@link #MAX_SLOTS}个元素的块中，块再组织成一棵不可变的B树：
+ * 内部节点最多有MAX_SLOTS个孩子，并记录每个孩子及其之前所有孩子的元素个数之和（ends），用来按下标查找。
+ * 写操作只复制从根节点到修改位置的路径上的节点（path copying），每个节点最多MAX_SLOTS个引用，
+ * 所以每次写操作复制O(log n)个节点，其余的节点在新旧版本之间共享，最后通过volatile的root发布新的版本。
+ * <p>
+ * 插入使节点超过MAX_SLOTS时分裂成两半；删除使节点少于MAX_SLOTS / 2时与相邻的兄弟节点合并（合并后过大则重新平分），
+ * 因此在任意位置插入和删除（例如监听器列表中注销一个监听器）都是O(log n)的，而不仅仅是在末尾追加。
+ * get(index)需要从根节点下降，是O(log n)的，树的高度很低（10万个元素只有4层），但仍然比数组的随机访问慢，
+ * 迭代器缓存当前所在的块，遍历是均摊O(1)的
+ * <p>
+ * 批量插入（addAll）先把新元素构造成一棵子树，再在插入位置切开原来的树，把三部分连接起来；
+ * 范围删除（subList(from, to).clear()）在两端切开再连接。切开和连接都只复制切口和连接处路径上的节点，
+ * 所以批量修改只发布一次新的根节点，代价是O(k + log n)，而不是k次单个元素的修改
+ * <p>
+ * 迭代器和{@link #snapshot()}是只读的快照，修改操作抛出UnsupportedOperationException；
+ * {@link #subList}同CopyOnWriteArrayList7，是这个list的视图，list被视图之外的操作修改之后，视图的操作抛出ConcurrentModificationException
+ *
+ * @param <E> 元素的类型
+ * @see CopyOnWriteArrayList7
+ */
+public class ChunkedCopyOnWriteList7<E> extends AbstractList7<E> implements RandomAccess {
+
+    /**
+     * 每个块（叶子节点）的最大元素个数，也是内部节点的最大孩子个数
+     */
+    static final int MAX_SLOTS = 32;
+
+    /**
+     * 非根节点在删除之后的最小元素（孩子）个数，少于它时与相邻的兄弟节点合并
+     */
+    static final int MIN_SLOTS = MAX_SLOTS / 2;
+
+    private static final Node EMPTY = new Node(new Object[0], null);
+
+    /**
+     * 保护所有写操作的锁
+     */
+    final transient ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * 当前版本的根节点，只通过getRoot/setRoot访问
+     */
+    private volatile transient Node root;
+
+    /**
+     * 不可变的节点：叶子节点的slots是元素，ends为null；
+     * 内部节点的slots是孩子节点，ends[i]是第0到第i个孩子中的元素个数之和
+     */
+    static final class Node {
+        final Object[] slots;
+        final int[] ends;
+
+        Node(Object[] slots, int[] ends) {
+            this.slots = slots;
+            this.ends = ends;
+        }
+
+        int size() {
+            if (ends == null)
+                return slots.length;
+            return (ends.length == 0) ? 0 : ends[ends.length - 1];
+        }
+    }
+
+    final Node getRoot() {
+        return root;
+    }
+
+    final void setRoot(Node r) {
+        root = r;
+    }
+
+    public ChunkedCopyOnWriteList7() {
+        setRoot(EMPTY);
+    }
+
+    public ChunkedCopyOnWriteList7(Collection<? extends E> c) {
+        setRoot(build(c.toArray()));
+    }
+
+    public int size() {
+        return getRoot().size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public E get(int index) {
+        Node r = getRoot();
+        rangeCheck(index, r.size());
+        return (E) get(r, index);
+    }
+
+    public E set(int index, E element) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Node r = getRoot();
+            rangeCheck(index, r.size());
+            E oldValue = (E) get(r, index);
+            if (oldValue != element)
+                setRoot(set(r, index, element));
+            return oldValue;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean add(E e) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Node r = getRoot();
+            setRoot(insertAt(r, r.size(), e));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void add(int index, E element) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Node r = getRoot();
+            int size = r.size();
+            if (index > size || index < 0)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            setRoot(insertAt(r, index, element));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public E remove(int index) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Node r = getRoot();
+            rangeCheck(index, r.size());
+            E oldValue = (E) get(r, index);
+            setRoot(removeAt(r, index));
+            return oldValue;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean remove(Object o) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Node r = getRoot();
+            int index = indexOf(r, o, 0);
+            if (index < 0)
+                return false;
+            setRoot(removeAt(r, index));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 元素不存在时追加到末尾
+     *
+     * @return 是否添加了元素
+     */
+    public boolean addIfAbsent(E e) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Node r = getRoot();
+            if (indexOf(r, e, 0) >= 0)
+                return false;
+            setRoot(insertAt(r, r.size(), e));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean addAll(Collection<? extends E> c) {
+        Object[] cs = c.toArray();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Node r = getRoot();
+            return insertAll(r, r.size(), cs);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean addAll(int index, Collection<? extends E> c) {
+        Object[] cs = c.toArray();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Node r = getRoot();
+            int size = r.size();
+            if (index < 0 || index > size)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            return insertAll(r, index, cs);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 把cs构造成一棵子树，在r的index处切开并连接三部分，发布新的根，调用者必须持有lock并已检查过index
+     */
+    private boolean insertAll(Node r, int index, Object[] cs) {
+        if (cs.length == 0)
+            return false;
+        Node[] parts = splitAt(r, index);
+        setRoot(concat(concat(parts[0], build(cs)), parts[1]));
+        return true;
+    }
+
+    public boolean removeAll(final Collection<?> c) {
+        if (c == null) throw new NullPointerException();
+        return removeIf(new Predicate<E>() {
+            public boolean test(E e) {
+                return c.contains(e);
+            }
+        });
+    }
+
+    public boolean retainAll(final Collection<?> c) {
+        if (c == null) throw new NullPointerException();
+        return removeIf(new Predicate<E>() {
+            public boolean test(E e) {
+                return !c.contains(e);
+            }
+        });
+    }
+
+    /**
+     * 继承的实现通过迭代器逐个删除，而这里的迭代器是只读的。
+     * 改为在lock内过滤当前内容，一次性重建整棵树并发布，O(n)，中途抛出异常时list不变
+     */
+    @SuppressWarnings("unchecked")
+    public boolean removeIf(Predicate<? super E> filter) {
+        if (filter == null) throw new NullPointerException();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Node r = getRoot();
+            Object[] elements = new Object[r.size()];
+            copyTo(r, elements, 0);
+            int n = 0;
+            for (Object e : elements) {
+                if (!filter.test((E) e))
+                    elements[n++] = e;
+            }
+            if (n == elements.length)
+                return false;
+            setRoot(build(Arrays.copyOf(elements, n)));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            setRoot(EMPTY);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int indexOf(Object o) {
+        return indexOf(getRoot(), o, 0);
+    }
+
+    public int lastIndexOf(Object o) {
+        return snapshot().lastIndexOf(o);
+    }
+
+    public Object[] toArray() {
+        Node r = getRoot();
+        Object[] a = new Object[r.size()];
+        copyTo(r, a, 0);
+        return a;
+    }
+
+    public <T> T[] toArray(T[] a) {
+        return snapshot().toArray(a);
+    }
+
+    /**
+     * 返回当前版本的只读快照，O(1)，之后对这个list的修改不影响快照
+     */
+    public List<E> snapshot() {
+        return new Snapshot<>(getRoot());
+    }
+
+    /**
+     * 删除[fromIndex, toIndex)范围内的元素，是对树的一次范围删除
+     */
+    protected void removeRange(int fromIndex, int toIndex) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Node r = getRoot();
+            if (fromIndex < 0 || toIndex > r.size() || fromIndex > toIndex)
+                throw new IndexOutOfBoundsException("From: " + fromIndex + ", To: " + toIndex + ", Size: " + r.size());
+            if (fromIndex < toIndex)
+                setRoot(removeRange(r, fromIndex, toIndex));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 返回[fromIndex, toIndex)范围的视图，同CopyOnWriteArrayList7.subList：
+     * 通过视图的修改写回这个list，list被视图之外的操作修改之后，视图的操作抛出ConcurrentModificationException
+     */
+    public List<E> subList(int fromIndex, int toIndex) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            int size = getRoot().size();
+            if (fromIndex < 0 || toIndex > size || fromIndex > toIndex)
+                throw new IndexOutOfBoundsException("From: " + fromIndex + ", To: " + toIndex + ", Size: " + size);
+            return new COWSubList<>(this, fromIndex, toIndex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Iterator<E> iterator() {
+        return new COWIterator<>(getRoot(), 0);
+    }
+
+    public ListIterator<E> listIterator() {
+        return new COWIterator<>(getRoot(), 0);
+    }
+
+    public ListIterator<E> listIterator(int index) {
+        Node r = getRoot();
+        if (index < 0 || index > r.size())
+            throw new IndexOutOfBoundsException("Index: " + index);
+        return new COWIterator<>(r, index);
+    }
+
+    private static void rangeCheck(int index, int size) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    // 不可变的B树
+
+    /**
+     * 返回第一个ends[c]大于index的孩子c，即包含下标index的元素的孩子
+     */
+    private static int childFor(int[] ends, int index) {
+        int low = 0, high = ends.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ends[mid] > index)
+                high = mid;
+            else
+                low = mid + 1;
+        }
+        return low;
+    }
+
+    private static Object get(Node n, int index) {
+        while (n.ends != null) {
+            int c = childFor(n.ends, index);
+            if (c > 0)
+                index -= n.ends[c - 1];
+            n = (Node) n.slots[c];
+        }
+        return n.slots[index];
+    }
+
+    private static Node set(Node n, int index, Object e) {
+        Object[] slots = n.slots.clone();
+        if (n.ends == null) {
+            slots[index] = e;
+        } else {
+            int c = childFor(n.ends, index);
+            slots[c] = set((Node) slots[c], (c > 0) ? index - n.ends[c - 1] : index, e);
+        }
+        return new Node(slots, n.ends);
+    }
+
+    /**
+     * 由孩子节点构造内部节点
+     */
+    private static Node internal(Object[] children) {
+        int[] ends = new int[children.length];
+        int sum = 0;
+        for (int i = 0; i < children.length; i++) {
+            sum += ((Node) children[i]).size();
+            ends[i] = sum;
+        }
+        return new Node(children, ends);
+    }
+
+    /**
+     * 由slots构造一个节点，超过MAX_SLOTS时平分成两个节点
+     */
+    private static Node[] nodesOf(Object[] slots, boolean leaf) {
+        if (slots.length <= MAX_SLOTS)
+            return new Node[]{leaf ? new Node(slots, null) : internal(slots)};
+        int half = slots.length >>> 1;
+        Object[] left = Arrays.copyOfRange(slots, 0, half);
+        Object[] right = Arrays.copyOfRange(slots, half, slots.length);
+        return leaf ? new Node[]{new Node(left, null), new Node(right, null)}
+                : new Node[]{internal(left), internal(right)};
+    }
+
+    /**
+     * 用nodes替换slots中从index开始的count个元素
+     */
+    private static Object[] replace(Object[] slots, int index, int count, Node[] nodes) {
+        Object[] result = new Object[slots.length - count + nodes.length];
+        System.arraycopy(slots, 0, result, 0, index);
+        System.arraycopy(nodes, 0, result, index, nodes.length);
+        System.arraycopy(slots, index + count, result, index + nodes.length, slots.length - index - count);
+        return result;
+    }
+
+    /**
+     * 在子树n的下标index处插入e，返回替换n的一个节点，或者n分裂后的两个节点
+     */
+    private static Node[] insert(Node n, int index, Object e) {
+        if (n.ends == null) {
+            Object[] slots = new Object[n.slots.length + 1];
+            System.arraycopy(n.slots, 0, slots, 0, index);
+            slots[index] = e;
+            System.arraycopy(n.slots, index, slots, index + 1, n.slots.length - index);
+            return nodesOf(slots, true);
+        }
+        // 插入到末尾时在最后一个孩子中追加，因此取第一个ends[c]不小于index的孩子
+        int c = (index == 0) ? 0 : childFor(n.ends, index - 1);
+        int offset = (c > 0) ? n.ends[c - 1] : 0;
+        Node[] parts = insert((Node) n.slots[c], index - offset, e);
+        return nodesOf(replace(n.slots, c, 1, parts), false);
+    }
+
+    private static Node insertAt(Node root, int index, Object e) {
+        Node[] parts = insert(root, index, e);
+        return (parts.length == 1) ? parts[0] : internal(parts);
+    }
+
+    /**
+     * 删除子树n中下标index处的元素，返回替换n的节点，它可能少于MIN_SLOTS个元素（孩子），由父节点负责合并
+     */
+    private static Node remove(Node n, int index) {
+        if (n.ends == null) {
+            Object[] slots = new Object[n.slots.length - 1];
+            System.arraycopy(n.slots, 0, slots, 0, index);
+            System.arraycopy(n.slots, index + 1, slots, index, slots.length - index);
+            return new Node(slots, null);
+        }
+        int c = childFor(n.ends, index);
+        Node child = remove((Node) n.slots[c], (c > 0) ? index - n.ends[c - 1] : index);
+        Object[] slots;
+        if (child.slots.length < MIN_SLOTS && n.slots.length > 1) {
+            // 与右边（最后一个孩子时为左边）的兄弟合并，合并后过大则重新平分
+            int left = (c + 1 < n.slots.length) ? c : c - 1;
+            Node a = (left == c) ? child : (Node) n.slots[left];
+            Node b = (left == c) ? (Node) n.slots[c + 1] : child;
+            Object[] merged = new Object[a.slots.length + b.slots.length];
+            System.arraycopy(a.slots, 0, merged, 0, a.slots.length);
+            System.arraycopy(b.slots, 0, merged, a.slots.length, b.slots.length);
+            slots = replace(n.slots, left, 2, nodesOf(merged, a.ends == null));
+        } else if (child.slots.length == 0) {
+            slots = replace(n.slots, c, 1, new Node[0]);
+        } else {
+            slots = n.slots.clone();
+            slots[c] = child;
+        }
+        return internal(slots);
+    }
+
+    private static Node removeAt(Node root, int index) {
+        return collapse(remove(root, index));
+    }
+
+    /**
+     * 根节点只剩一个孩子时树的高度减一，没有元素时返回EMPTY
+     */
+    private static Node collapse(Node r) {
+        while (r.ends != null && r.slots.length == 1)
+            r = (Node) r.slots[0];
+        return (r.ends != null && r.slots.length == 0) ? EMPTY : r;
+    }
+
+    private static int height(Node n) {
+        int h = 0;
+        for (; n.ends != null; n = (Node) n.slots[0])
+            h++;
+        return h;
+    }
+
+    /**
+     * 在下标index处把子树n切成两部分，返回高度都与n相同的两个节点，没有元素的一边为null。
+     * 只复制从n到切口的路径上的节点，切口两侧的节点可能不满，由concat在连接时合并
+     */
+    private static Node[] split(Node n, int index) {
+        if (index == 0)
+            return new Node[]{null, n};
+        if (index == n.size())
+            return new Node[]{n, null};
+        if (n.ends == null)
+            return new Node[]{new Node(Arrays.copyOfRange(n.slots, 0, index), null),
+                    new Node(Arrays.copyOfRange(n.slots, index, n.slots.length), null)};
+        int c = childFor(n.ends, index);
+        Node[] parts = split((Node) n.slots[c], (c > 0) ? index - n.ends[c - 1] : index);
+        // 第c个孩子包含下标index，所以它切开后右边总是非空的，左边为空时它整个属于右边
+        Object[] left = Arrays.copyOf(n.slots, (parts[0] == null) ? c : c + 1);
+        if (parts[0] != null)
+            left[c] = parts[0];
+        Object[] right = replace(n.slots, 0, c + 1, new Node[]{parts[1]});
+        return new Node[]{internal(left), internal(right)};
+    }
+
+    /**
+     * 切开整棵树，没有元素的一边为EMPTY
+     */
+    private static Node[] splitAt(Node root, int index) {
+        Node[] parts = split(root, index);
+        return new Node[]{(parts[0] == null) ? EMPTY : collapse(parts[0]),
+                (parts[1] == null) ? EMPTY : collapse(parts[1])};
+    }
+
+    /**
+     * 连接高度分别为ha和hb的子树a和b（a的元素在前），返回高度为max(ha, hb)的一个节点，或者过大时平分成的两个节点。
+     * 较矮的一棵连接到较高的一棵的最右（最左）路径上同样高度的位置；高度相同时，a的最右路径和b的最左路径上
+     * 相邻的节点逐层合并（合并后过大则重新平分），因此split留下的不满的节点在这里被合并掉
+     */
+    private static Node[] concat(Node a, int ha, Node b, int hb) {
+        if (ha > hb) {
+            int last = a.slots.length - 1;
+            Node[] parts = concat((Node) a.slots[last], ha - 1, b, hb);
+            return nodesOf(replace(a.slots, last, 1, parts), false);
+        }
+        if (ha < hb) {
+            Node[] parts = concat(a, ha, (Node) b.slots[0], hb - 1);
+            return nodesOf(replace(b.slots, 0, 1, parts), false);
+        }
+        Object[] slots;
+        if (a.ends == null) {
+            slots = new Object[a.slots.length + b.slots.length];
+            System.arraycopy(a.slots, 0, slots, 0, a.slots.length);
+            System.arraycopy(b.slots, 0, slots, a.slots.length, b.slots.length);
+        } else {
+            int last = a.slots.length - 1;
+            Node[] seam = concat((Node) a.slots[last], ha - 1, (Node) b.slots[0], hb - 1);
+            slots = new Object[last + seam.length + b.slots.length - 1];
+            System.arraycopy(a.slots, 0, slots, 0, last);
+            System.arraycopy(seam, 0, slots, last, seam.length);
+            System.arraycopy(b.slots, 1, slots, last + seam.length, b.slots.length - 1);
+        }
+        return nodesOf(slots, a.ends == null);
+    }
+
+    /**
+     * 连接两棵树，a的元素在前，任意一棵可以为EMPTY
+     */
+    private static Node concat(Node a, Node b) {
+        if (a.size() == 0)
+            return b;
+        if (b.size() == 0)
+            return a;
+        Node[] parts = concat(a, height(a), b, height(b));
+        return collapse((parts.length == 1) ? parts[0] : internal(parts));
+    }
+
+    /**
+     * 删除[from, to)范围内的元素：在两端切开，再把两边连接起来
+     */
+    private static Node removeRange(Node root, int from, int to) {
+        Node[] right = splitAt(root, to);
+        Node[] left = splitAt(right[0], from);
+        return concat(left[0], right[1]);
+    }
+
+    /**
+     * 自底向上构造：先把元素切成满的块，再逐层把每MAX_SLOTS个节点作为一个内部节点的孩子，O(n)
+     */
+    private static Node build(Object[] elements) {
+        if (elements.length == 0)
+            return EMPTY;
+        int count = (elements.length + MAX_SLOTS - 1) / MAX_SLOTS;
+        Object[] level = new Object[count];
+        for (int i = 0; i < count; i++)
+            level[i] = new Node(Arrays.copyOfRange(elements, i * MAX_SLOTS,
+                    Math.min(elements.length, (i + 1) * MAX_SLOTS)), null);
+        while (level.length > 1) {
+            count = (level.length + MAX_SLOTS - 1) / MAX_SLOTS;
+            Object[] parents = new Object[count];
+            for (int i = 0; i < count; i++)
+                parents[i] = internal(Arrays.copyOfRange(level, i * MAX_SLOTS,
+                        Math.min(level.length, (i + 1) * MAX_SLOTS)));
+            level = parents;
+        }
+        return (Node) level[0];
+    }
+
+    /**
+     * 在子树n中查找o，base为n中第一个元素的下标
+     */
+    private static int indexOf(Node n, Object o, int base) {
+        if (n.ends == null) {
+            Object[] slots = n.slots;
+            for (int i = 0; i < slots.length; i++)
+                if (o == null ? slots[i] == null : o.equals(slots[i]))
+                    return base + i;
+            return -1;
+        }
+        for (int i = 0; i < n.slots.length; i++) {
+            int index = indexOf((Node) n.slots[i], o, (i > 0) ? base + n.ends[i - 1] : base);
+            if (index >= 0)
+                return index;
+        }
+        return -1;
+    }
+
+    private static int copyTo(Node n, Object[] a, int offset) {
+        if (n.ends == null) {
+            System.arraycopy(n.slots, 0, a, offset, n.slots.length);
+            return offset + n.slots.length;
+        }
+        for (Object child : n.slots)
+            offset = copyTo((Node) child, a, offset);
+        return offset;
+    }
+
+    // 快照
+
+    /**
+     * 只读的快照，持有某个版本的根节点
+     */
+    static final class Snapshot<E> extends AbstractList7<E> implements RandomAccess {
+        private final Node root;
+
+        Snapshot(Node root) {
+            this.root = root;
+        }
+
+        public int size() {
+            return root.size();
+        }
+
+        public E get(int index) {
+            rangeCheck(index, root.size());
+            return (E) ChunkedCopyOnWriteList7.get(root, index);
+        }
+
+        public int indexOf(Object o) {
+            return ChunkedCopyOnWriteList7.indexOf(root, o, 0);
+        }
+
+        public Object[] toArray() {
+            Object[] a = new Object[root.size()];
+            copyTo(root, a, 0);
+            return a;
+        }
+
+        public Iterator<E> iterator() {
+            return new COWIterator<>(root, 0);
+        }
+
+        public ListIterator<E> listIterator(int index) {
+            if (index < 0 || index > root.size())
+                throw new IndexOutOfBoundsException("Index: " + index);
+            return new COWIterator<>(root, index);
+        }
+    }
+
+    /**
+     * 子列表视图，同CopyOnWriteArrayList7.COWSubList：记录创建时（或者上一次通过这个视图修改之后）的根节点，
+     * 每个操作都在list的lock中检查list的根节点没有变化，否则抛出ConcurrentModificationException。
+     * 读操作和迭代器使用记录的版本，clear和removeRange是对树的一次范围删除
+     */
+    static final class COWSubList<E> extends AbstractList7<E> implements RandomAccess {
+        private final ChunkedCopyOnWriteList7<E> l;
+        private final int offset;
+        private int size;
+        private Node expectedRoot;
+
+        // only call this holding l's lock
+        COWSubList(ChunkedCopyOnWriteList7<E> list, int fromIndex, int toIndex) {
+            l = list;
+            expectedRoot = l.getRoot();
+            offset = fromIndex;
+            size = toIndex - fromIndex;
+        }
+
+        // only call this holding l's lock
+        private void checkForComodification() {
+            if (l.getRoot() != expectedRoot)
+                throw new ConcurrentModificationException();
+        }
+
+        // only call this holding l's lock
+        private void replaceRoot(Node r) {
+            l.setRoot(r);
+            expectedRoot = r;
+        }
+
+        public int size() {
+            final ReentrantLock lock = l.lock;
+            lock.lock();
+            try {
+                checkForComodification();
+                return size;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public E get(int index) {
+            final ReentrantLock lock = l.lock;
+            lock.lock();
+            try {
+                rangeCheck(index, size);
+                checkForComodification();
+                return (E) ChunkedCopyOnWriteList7.get(expectedRoot, offset + index);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public E set(int index, E element) {
+            final ReentrantLock lock = l.lock;
+            lock.lock();
+            try {
+                rangeCheck(index, size);
+                checkForComodification();
+                E oldValue = (E) ChunkedCopyOnWriteList7.get(expectedRoot, offset + index);
+                replaceRoot(ChunkedCopyOnWriteList7.set(expectedRoot, offset + index, element));
+                return oldValue;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void add(int index, E element) {
+            final ReentrantLock lock = l.lock;
+            lock.lock();
+            try {
+                checkForComodification();
+                if (index < 0 || index > size)
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+                replaceRoot(insertAt(expectedRoot, offset + index, element));
+                size++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public E remove(int index) {
+            final ReentrantLock lock = l.lock;
+            lock.lock();
+            try {
+                rangeCheck(index, size);
+                checkForComodification();
+                E oldValue = (E) ChunkedCopyOnWriteList7.get(expectedRoot, offset + index);
+                replaceRoot(removeAt(expectedRoot, offset + index));
+                size--;
+                return oldValue;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        protected void removeRange(int fromIndex, int toIndex) {
+            final ReentrantLock lock = l.lock;
+            lock.lock();
+            try {
+                checkForComodification();
+                if (fromIndex < 0 || toIndex > size || fromIndex > toIndex)
+                    throw new IndexOutOfBoundsException("From: " + fromIndex + ", To: " + toIndex + ", Size: " + size);
+                if (fromIndex < toIndex) {
+                    replaceRoot(ChunkedCopyOnWriteList7.removeRange(expectedRoot, offset + fromIndex, offset + toIndex));
+                    size -= toIndex - fromIndex;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public Iterator<E> iterator() {
+            return listIterator(0);
+        }
+
+        public ListIterator<E> listIterator(int index) {
+            final ReentrantLock lock = l.lock;
+            lock.lock();
+            try {
+                checkForComodification();
+                if (index < 0 || index > size)
+                    throw new IndexOutOfBoundsException("Index: " + index);
+                return new Snapshot<E>(expectedRoot).subList(offset, offset + size).listIterator(index);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public List<E> subList(int fromIndex, int toIndex) {
+            final ReentrantLock lock = l.lock;
+            lock.lock();
+            try {
+                checkForComodification();
+                if (fromIndex < 0 || toIndex > size || fromIndex > toIndex)
+                    throw new IndexOutOfBoundsException("From: " + fromIndex + ", To: " + toIndex + ", Size: " + size);
+                return new COWSubList<>(l, offset + fromIndex, offset + toIndex);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 遍历某个版本的迭代器，缓存当前所在的块，只在离开这个块时从根节点重新下降，不支持修改操作
+     */
+    static final class COWIterator<E> implements ListIterator<E> {
+        private final Node root;
+        private final int size;
+        private int cursor;
+        private Object[] chunk;
+        private int chunkStart;
+
+        COWIterator(Node root, int index) {
+            this.root = root;
+            this.size = root.size();
+            this.cursor = index;
+        }
+
+        /**
+         * 返回下标index处的元素，index不在缓存的块中时重新查找它所在的块
+         */
+        private E elementAt(int index) {
+            if (chunk == null || index < chunkStart || index >= chunkStart + chunk.length) {
+                Node n = root;
+                int start = 0;
+                while (n.ends != null) {
+                    int c = childFor(n.ends, index - start);
+                    if (c > 0)
+                        start += n.ends[c - 1];
+                    n = (Node) n.slots[c];
+                }
+                chunk = n.slots;
+                chunkStart = start;
+            }
+            return (E) chunk[index - chunkStart];
+        }
+
+        public boolean hasNext() {
+            return cursor < size;
+        }
+
+        public boolean hasPrevious() {
+            return cursor > 0;
+        }
+
+        public E next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return elementAt(cursor++);
+        }
+
+        public E previous() {
+            if (!hasPrevious())
+                throw new NoSuchElementException();
+            return elementAt(--cursor);
+        }
+
+        public int nextIndex() {
+            return cursor;
+        }
+
+        public int previousIndex() {
+            return cursor - 1;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void set(E e) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void add(E e) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
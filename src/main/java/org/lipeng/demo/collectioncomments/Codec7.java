@@ -0,0 +1,57 @@
+package org.lipeng.demo.collectioncomments;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 将对象编码为字节数组以及从字节数组解码的编解码器，用于集合的二进制持久化（替代java序列化）
+ * 编码结果由调用者加上长度前缀写出，因此编码本身不需要自带长度；null由调用者单独处理，编解码器不会遇到null
+ *
+ * @param <T> 编解码的对象的类型
+ * @see LinkedHashMap7#dump(java.nio.channels.WritableByteChannel, int, Codec7, Codec7)
+ */
+public interface Codec7<T> {
+
+    byte[] encode(T value);
+
+    T decode(byte[] bytes);
+
+    /**
+     * UTF-8编码的字符串
+     */
+    Codec7<String> STRING = new Codec7<String>() {
+        public byte[] encode(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        public String decode(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    /**
+     * 8字节大端序的Long
+     */
+    Codec7<Long> LONG = new Codec7<Long>() {
+        public byte[] encode(Long value) {
+            return ByteBuffer.allocate(8).putLong(value).array();
+        }
+
+        public Long decode(byte[] bytes) {
+            return ByteBuffer.wrap(bytes).getLong();
+        }
+    };
+
+    /**
+     * 4字节大端序的Integer
+     */
+    Codec7<Integer> INTEGER = new Codec7<Integer>() {
+        public byte[] encode(Integer value) {
+            return ByteBuffer.allocate(4).putInt(value).array();
+        }
+
+        public Integer decode(byte[] bytes) {
+            return ByteBuffer.wrap(bytes).getInt();
+        }
+    };
+}
@@ -0,0 +1,565 @@
+package org.lipeng.demo.collectioncomments;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 线程安全的NavigableMap，基于"lazy"跳表（Herlihy, Lev, Luchangco, Shavit: A Simple Optimistic Skiplist Algorithm）
+ * <p>
+ * 用ReentrantReadWriteLock保护TreeMap7时，写操作会阻塞所有的读操作。这里的读操作
+ * （get/containsKey/ceilingEntry/floorEntry等关系查找，以及迭代）完全不加锁，只读volatile的next指针；
+ * 写操作先不加锁地找到每一层的前驱节点，然后只锁住这些前驱节点（删除时还锁住被删除的节点），
+ * 校验前驱节点没有被删除且仍然指向原来的后继之后再修改，校验失败则重试。
+ * 不同位置的写操作互不影响，因此读写混合的吞吐量可以随CPU核数增长
+ * <p>
+ * 删除分两步：先在节点上设置marked（逻辑删除，从此读操作认为它不存在），再从每一层摘除（物理删除）；
+ * 插入也分两步：先从底层往上链接每一层，全部链接完成后设置fullyLinked，读操作只认fullyLinked且没有marked的节点。
+ * 被摘除的节点的next指针保持不变，正在它上面遍历的读线程仍然可以继续向后走
+ * <p>
+ * 同java.util.concurrent.ConcurrentSkipListMap，不允许null的key和value；
+ * size()由计数器维护，是O(1)的，但并发修改时只是一个近似值；
+ * 迭代器和范围视图是弱一致的，不会抛出ConcurrentModificationException；
+ * 范围视图（headMap/tailMap/subMap/descendingMap）由AbstractNavigableMap7提供，同样不加锁
+ *
+ * @param <K> key的类型
+ * @param <V> value的类型
+ * @see TreeMap7
+ */
+public class ConcurrentSkipListMap7<K, V> extends AbstractNavigableMap7<K, V>
+        implements ConcurrentMap<K, V> {
+
+    /**
+     * 最大层数，每个节点以1/2的概率比上一层多一层，2^32个节点以内足够
+     */
+    static final int MAX_LEVEL = 32;
+
+    private final Comparator<? super K> comparator;
+
+    /**
+     * 头节点，key为null，在每一层都存在，不存放映射
+     */
+    private final Node<K, V> head = new Node<>(null, null, MAX_LEVEL - 1);
+
+    private final LongAdder count = new LongAdder();
+
+    public ConcurrentSkipListMap7() {
+        this.comparator = null;
+    }
+
+    public ConcurrentSkipListMap7(Comparator<? super K> comparator) {
+        this.comparator = comparator;
+    }
+
+    public ConcurrentSkipListMap7(Map<? extends K, ? extends V> m) {
+        this.comparator = null;
+        putAll(m);
+    }
+
+    public ConcurrentSkipListMap7(SortedMap<K, ? extends V> m) {
+        this.comparator = m.comparator();
+        putAll(m);
+    }
+
+    static final class Node<K, V> {
+        final K key;
+        volatile V value;
+        /**
+         * next.get(i)为第i层的后继，null表示该层的末尾
+         */
+        final AtomicReferenceArray<Node<K, V>> next;
+        final int topLevel;
+        /**
+         * 保护value的修改、marked的设置以及以它为前驱的链接修改
+         */
+        final ReentrantLock lock = new ReentrantLock();
+        volatile boolean marked;
+        volatile boolean fullyLinked;
+
+        Node(K key, V value, int topLevel) {
+            this.key = key;
+            this.value = value;
+            this.topLevel = topLevel;
+            this.next = new AtomicReferenceArray<>(topLevel + 1);
+        }
+
+        /**
+         * 读操作可见的节点：已经链接完成，并且没有被逻辑删除
+         */
+        boolean isLive() {
+            return fullyLinked && !marked;
+        }
+    }
+
+    /**
+     * 随机层数，第i层的概率为1/2^(i+1)
+     */
+    private static int randomLevel() {
+        int r = ThreadLocalRandom.current().nextInt();
+        int level = 0;
+        while ((r & 1) != 0 && level < MAX_LEVEL - 1) {
+            level++;
+            r >>>= 1;
+        }
+        return level;
+    }
+
+    /**
+     * 查找key，preds[i]为第i层最后一个小于key的节点，succs[i]为其后继
+     *
+     * @return key所在节点的最高层，不存在时返回-1
+     */
+    private int find(Object key, Node<K, V>[] preds, Node<K, V>[] succs) {
+        int found = -1;
+        Node<K, V> pred = head;
+        for (int level = MAX_LEVEL - 1; level >= 0; level--) {
+            Node<K, V> curr = pred.next.get(level);
+            int c = 1;
+            while (curr != null && (c = compare(curr.key, key)) < 0) {
+                pred = curr;
+                curr = pred.next.get(level);
+            }
+            if (found == -1 && curr != null && c == 0)
+                found = level;
+            preds[level] = pred;
+            succs[level] = curr;
+        }
+        return found;
+    }
+
+    /**
+     * 不记录前驱地查找key所在的节点，不检查节点是否live
+     */
+    private Node<K, V> findNode(Object key) {
+        if (key == null)
+            throw new NullPointerException();
+        Node<K, V> pred = head;
+        for (int level = MAX_LEVEL - 1; level >= 0; level--) {
+            Node<K, V> curr = pred.next.get(level);
+            int c = 1;
+            while (curr != null && (c = compare(curr.key, key)) < 0) {
+                pred = curr;
+                curr = pred.next.get(level);
+            }
+            if (curr != null && c == 0)
+                return curr;
+        }
+        return null;
+    }
+
+    private static <K, V> void unlock(Node<K, V>[] preds, int highestLocked) {
+        for (int level = 0; level <= highestLocked; level++)
+            preds[level].lock.unlock();
+    }
+
+    // Map API
+
+    public int size() {
+        long n = count.sum();
+        return n < 0 ? 0 : (n >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) n);
+    }
+
+    public boolean isEmpty() {
+        return firstNode() == null;
+    }
+
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+
+    public boolean containsKey(Object key) {
+        Node<K, V> node = findNode(key);
+        return node != null && node.isLive();
+    }
+
+    public V get(Object key) {
+        Node<K, V> node = findNode(key);
+        if (node == null || !node.isLive())
+            return null;
+        // value读取之后节点可能被删除，此时get线性化在删除之前
+        return node.value;
+    }
+
+    public boolean containsValue(Object value) {
+        if (value == null)
+            throw new NullPointerException();
+        for (Node<K, V> n = head.next.get(0); n != null; n = n.next.get(0))
+            if (n.isLive() && value.equals(n.value))
+                return true;
+        return false;
+    }
+
+    public V put(K key, V value) {
+        return doPut(key, value, false);
+    }
+
+    public V putIfAbsent(K key, V value) {
+        return doPut(key, value, true);
+    }
+
+    /**
+     * key已存在时锁住该节点替换value（onlyIfAbsent时不替换）；
+     * 不存在时锁住0..topLevel层的前驱，校验之后自底向上链接新节点
+     */
+    private V doPut(K key, V value, boolean onlyIfAbsent) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        int topLevel = randomLevel();
+        Node<K, V>[] preds = new Node[MAX_LEVEL];
+        Node<K, V>[] succs = new Node[MAX_LEVEL];
+        for (; ; ) {
+            int found = find(key, preds, succs);
+            if (found != -1) {
+                Node<K, V> node = succs[found];
+                if (!node.marked) {
+                    while (!node.fullyLinked)
+                        Thread.yield();
+                    node.lock.lock();
+                    try {
+                        if (!node.marked) {
+                            V oldValue = node.value;
+                            if (!onlyIfAbsent)
+                                node.value = value;
+                            return oldValue;
+                        }
+                    } finally {
+                        node.lock.unlock();
+                    }
+                }
+                // 节点正在被删除，等它摘除之后重试
+                continue;
+            }
+            int highestLocked = -1;
+            try {
+                boolean valid = true;
+                for (int level = 0; valid && level <= topLevel; level++) {
+                    Node<K, V> pred = preds[level], succ = succs[level];
+                    pred.lock.lock();
+                    highestLocked = level;
+                    valid = !pred.marked && (succ == null || !succ.marked)
+                            && pred.next.get(level) == succ;
+                }
+                if (!valid)
+                    continue;
+                Node<K, V> node = new Node<>(key, value, topLevel);
+                for (int level = 0; level <= topLevel; level++)
+                    node.next.set(level, succs[level]);
+                for (int level = 0; level <= topLevel; level++)
+                    preds[level].next.set(level, node);
+                node.fullyLinked = true;
+                count.increment();
+                return null;
+            } finally {
+                unlock(preds, highestLocked);
+            }
+        }
+    }
+
+    public V remove(Object key) {
+        return doRemove(key, null);
+    }
+
+    public boolean remove(Object key, Object value) {
+        if (key == null)
+            throw new NullPointerException();
+        return value != null && doRemove(key, value) != null;
+    }
+
+    boolean removeEntry(Map.Entry<K, V> e) {
+        return remove(e.getKey(), e.getValue());
+    }
+
+    /**
+     * 锁住被删除的节点并设置marked（此后它对读操作不可见），再锁住每一层的前驱，校验之后自顶向下摘除
+     *
+     * @param value 不为null时，只有key映射到与之equals的value时才删除
+     * @return 被删除的value，没有删除时返回null
+     */
+    private V doRemove(Object key, Object value) {
+        if (key == null)
+            throw new NullPointerException();
+        Node<K, V> victim = null;
+        boolean isMarked = false;
+        int topLevel = -1;
+        V oldValue = null;
+        Node<K, V>[] preds = new Node[MAX_LEVEL];
+        Node<K, V>[] succs = new Node[MAX_LEVEL];
+        for (; ; ) {
+            int found = find(key, preds, succs);
+            if (!isMarked) {
+                if (found == -1)
+                    return null;
+                victim = succs[found];
+                // 还没有链接完成的节点（插入尚未生效）以及已经被删除的节点，都当作不存在
+                if (!victim.fullyLinked || victim.topLevel != found || victim.marked)
+                    return null;
+                topLevel = victim.topLevel;
+                victim.lock.lock();
+                if (victim.marked || (value != null && !value.equals(victim.value))) {
+                    victim.lock.unlock();
+                    return null;
+                }
+                oldValue = victim.value;
+                victim.marked = true;
+                isMarked = true;
+            }
+            int highestLocked = -1;
+            try {
+                boolean valid = true;
+                for (int level = 0; valid && level <= topLevel; level++) {
+                    Node<K, V> pred = preds[level];
+                    pred.lock.lock();
+                    highestLocked = level;
+                    valid = !pred.marked && pred.next.get(level) == victim;
+                }
+                if (!valid)
+                    continue;
+                for (int level = topLevel; level >= 0; level--)
+                    preds[level].next.set(level, victim.next.get(level));
+                victim.lock.unlock();
+                count.decrement();
+                return oldValue;
+            } finally {
+                unlock(preds, highestLocked);
+            }
+        }
+    }
+
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (key == null || oldValue == null || newValue == null)
+            throw new NullPointerException();
+        Node<K, V> node = findNode(key);
+        if (node == null || !node.isLive())
+            return false;
+        node.lock.lock();
+        try {
+            if (node.marked || !oldValue.equals(node.value))
+                return false;
+            node.value = newValue;
+            return true;
+        } finally {
+            node.lock.unlock();
+        }
+    }
+
+    public V replace(K key, V value) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        Node<K, V> node = findNode(key);
+        if (node == null || !node.isLive())
+            return null;
+        node.lock.lock();
+        try {
+            if (node.marked)
+                return null;
+            V oldValue = node.value;
+            node.value = value;
+            return oldValue;
+        } finally {
+            node.lock.unlock();
+        }
+    }
+
+    public void clear() {
+        while (pollFirstEntry() != null)
+            ;
+    }
+
+    // 关系查找，都不加锁
+
+    private Map.Entry<K, V> exportEntry(Node<K, V> n) {
+        return (n == null) ? null : new AbstractMap7.SimpleImmutableEntry<>(n.key, n.value);
+    }
+
+    private Node<K, V> firstNode() {
+        Node<K, V> n = head.next.get(0);
+        while (n != null && !n.isLive())
+            n = n.next.get(0);
+        return n;
+    }
+
+    /**
+     * 第一个>=key(inclusive)或>key的live节点：找到最后一个<key（或<=key）的节点之后沿着第0层向后走
+     */
+    private Node<K, V> ceilingNode(Object key, boolean inclusive) {
+        if (key == null)
+            throw new NullPointerException();
+        Node<K, V> pred = head, n = null;
+        for (int level = MAX_LEVEL - 1; level >= 0; level--) {
+            n = pred.next.get(level);
+            while (n != null && before(n.key, key, !inclusive)) {
+                pred = n;
+                n = pred.next.get(level);
+            }
+        }
+        // 不能重新读pred.next，期间可能插入了<key的节点
+        while (n != null && !n.isLive())
+            n = n.next.get(0);
+        return n;
+    }
+
+    /**
+     * 最后一个<=key(inclusive)或<key的live节点，找到的节点不是live时以它的key为上界重新查找
+     */
+    private Node<K, V> floorNode(Object key, boolean inclusive) {
+        if (key == null)
+            throw new NullPointerException();
+        for (; ; ) {
+            Node<K, V> pred = head;
+            for (int level = MAX_LEVEL - 1; level >= 0; level--) {
+                Node<K, V> curr = pred.next.get(level);
+                while (curr != null && before(curr.key, key, inclusive)) {
+                    pred = curr;
+                    curr = pred.next.get(level);
+                }
+            }
+            if (pred == head || pred.isLive())
+                return pred == head ? null : pred;
+            key = pred.key;
+            inclusive = false;
+        }
+    }
+
+    private Node<K, V> lastNode() {
+        Node<K, V> pred = head;
+        for (int level = MAX_LEVEL - 1; level >= 0; level--) {
+            Node<K, V> curr;
+            while ((curr = pred.next.get(level)) != null)
+                pred = curr;
+        }
+        if (pred == head || pred.isLive())
+            return pred == head ? null : pred;
+        return floorNode(pred.key, false);
+    }
+
+    /**
+     * k < key，orEqual为true时k <= key
+     */
+    private boolean before(K k, Object key, boolean orEqual) {
+        int c = compare(k, key);
+        return c < 0 || (orEqual && c == 0);
+    }
+
+    public Map.Entry<K, V> firstEntry() {
+        return exportEntry(firstNode());
+    }
+
+    public Map.Entry<K, V> lastEntry() {
+        return exportEntry(lastNode());
+    }
+
+    public Map.Entry<K, V> lowerEntry(K key) {
+        return exportEntry(floorNode(key, false));
+    }
+
+    public Map.Entry<K, V> floorEntry(K key) {
+        return exportEntry(floorNode(key, true));
+    }
+
+    public Map.Entry<K, V> ceilingEntry(K key) {
+        return exportEntry(ceilingNode(key, true));
+    }
+
+    public Map.Entry<K, V> higherEntry(K key) {
+        return exportEntry(ceilingNode(key, false));
+    }
+
+    Iterator<Map.Entry<K, V>> entryIterator(boolean fromStart, K lo, boolean loInclusive,
+                                           boolean toEnd, K hi, boolean hiInclusive,
+                                           boolean descending) {
+        return new EntryIterator(fromStart, lo, loInclusive, toEnd, hi, hiInclusive, descending);
+    }
+
+    /**
+     * 弱一致的迭代器：升序时沿着第0层向后走，降序时每一步都是一次floorNode查找（同ConcurrentSkipListMap）；
+     * 每次预先取得下一个live节点及其value，因此hasNext之后被删除的节点仍然会返回
+     */
+    final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private final boolean fromStart, toEnd, loInclusive, hiInclusive, descending;
+        private final K lo, hi;
+        private Node<K, V> next;
+        private V nextValue;
+        private K lastKey;
+
+        EntryIterator(boolean fromStart, K lo, boolean loInclusive,
+                      boolean toEnd, K hi, boolean hiInclusive, boolean descending) {
+            this.fromStart = fromStart;
+            this.lo = lo;
+            this.loInclusive = loInclusive;
+            this.toEnd = toEnd;
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+            this.descending = descending;
+            advance(descending ?
+                    (toEnd ? lastNode() : floorNode(hi, hiInclusive)) :
+                    (fromStart ? firstNode() : ceilingNode(lo, loInclusive)));
+        }
+
+        private void advance(Node<K, V> n) {
+            next = null;
+            nextValue = null;
+            if (n == null)
+                return;
+            if (descending) {
+                if (!fromStart) {
+                    int c = compare(n.key, lo);
+                    if (c < 0 || (c == 0 && !loInclusive))
+                        return;
+                }
+            } else if (!toEnd) {
+                int c = compare(n.key, hi);
+                if (c > 0 || (c == 0 && !hiInclusive))
+                    return;
+            }
+            next = n;
+            nextValue = n.value;
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public Map.Entry<K, V> next() {
+            Node<K, V> n = next;
+            if (n == null)
+                throw new NoSuchElementException();
+            V value = nextValue;
+            lastKey = n.key;
+            if (descending) {
+                advance(floorNode(n.key, false));
+            } else {
+                Node<K, V> s = n.next.get(0);
+                while (s != null && !s.isLive())
+                    s = s.next.get(0);
+                advance(s);
+            }
+            return new IteratorEntry(n.key, value);
+        }
+
+        public void remove() {
+            if (lastKey == null)
+                throw new IllegalStateException();
+            ConcurrentSkipListMap7.this.remove(lastKey);
+            lastKey = null;
+        }
+    }
+
+    /**
+     * 迭代器返回的entry，setValue通过replace写回map，返回这个entry原来的值；
+     * 如果key已经被（其他线程）删除，抛出IllegalStateException，而不是把它重新插入
+     */
+    final class IteratorEntry extends AbstractMap7.SimpleEntry<K, V> {
+        IteratorEntry(K key, V value) {
+            super(key, value);
+        }
+
+        public V setValue(V value) {
+            if (replace(getKey(), value) == null)
+                throw new IllegalStateException("Entry was removed from the map");
+            return super.setValue(value);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package org.lipeng.demo.collectioncomments;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /**
  * 线程安全版本的ArrayList
@@ -44,10 +46,18 @@ public class CopyOnWriteArrayList7<E>
     implements List<E>, RandomAccess, Cloneable, java.io.Serializable {
     private static final long serialVersionUID = 8673264195747942595L;
 
-    /** The lock protecting all mutators */
+    /** The lock protecting all mutators, unless lockFree is set */
     transient final ReentrantLock lock = new ReentrantLock();
 
-    /** The array, accessed only via getArray/setArray. */
+    /**
+     * Whether mutators publish with casArray instead of holding the
+     * lock.  Fixed at construction.
+     *
+     * @serial
+     */
+    private final boolean lockFree;
+
+    /** The array, accessed only via getArray/setArray/casArray. */
     private volatile transient Object[] array;
 
     /**
@@ -65,10 +75,73 @@ public class CopyOnWriteArrayList7<E>
         array = a;
     }
 
+    /**
+     * Sets the array to val if it is still cmp.
+     */
+    final boolean casArray(Object[] cmp, Object[] val) {
+        return arrayUpdater.compareAndSet(this, cmp, val);
+    }
+
+    /**
+     * Acquires the lock, unless mutators are lock-free.  Each mutator
+     * then reads the array, builds its replacement and hands both to
+     * {@link #publish}, repeating from the read while that fails.
+     */
+    private void lockForWrite() {
+        if (!lockFree)
+            lock.lock();
+    }
+
+    /**
+     * Releases the lock taken by {@link #lockForWrite}.
+     */
+    private void unlockForWrite() {
+        if (!lockFree)
+            lock.unlock();
+    }
+
+    /**
+     * Replaces the array read as elements with newElements.  Holding
+     * the lock this always succeeds; in lock-free mode it fails if
+     * another mutator published first, and the caller must start over
+     * from the current array.
+     */
+    private boolean publish(Object[] elements, Object[] newElements) {
+        if (!lockFree) {
+            setArray(newElements);
+            return true;
+        }
+        return casArray(elements, newElements);
+    }
+
     /**
      * Creates an empty list.
      */
     public CopyOnWriteArrayList7() {
+        this(false);
+    }
+
+    /**
+     * Creates an empty list whose mutators, if {@code lockFree} is
+     * true, do not take a lock.  Each of them copies the array it
+     * read, applies its change to the copy, and publishes the copy
+     * with a compare-and-set on the array reference, starting over
+     * from the newly published array if another mutator got there
+     * first.  When writes rarely overlap this saves the lock
+     * acquisition and the handoff between waiting writers, and
+     * writers on different processors do not queue behind each other.
+     * When many writers contend, each lost race throws away a full
+     * copy of the array, so the default locking mode is usually the
+     * better choice for write-heavy lists.
+     *
+     * <p>In lock-free mode the batch given to {@link #mutate} may be
+     * run more than once.
+     *
+     * @param lockFree whether mutators publish with compare-and-set
+     *        instead of holding a lock
+     */
+    public CopyOnWriteArrayList7(boolean lockFree) {
+        this.lockFree = lockFree;
         setArray(new Object[0]);
     }
 
@@ -85,6 +158,7 @@ public class CopyOnWriteArrayList7<E>
         // c.toArray might (incorrectly) not return Object[] (see 6260652)
         if (elements.getClass() != Object[].class)
             elements = Arrays.copyOf(elements, elements.length, Object[].class);
+        lockFree = false;
         setArray(elements);
     }
 
@@ -96,6 +170,7 @@ public class CopyOnWriteArrayList7<E>
      * @throws NullPointerException if the specified array is null
      */
     public CopyOnWriteArrayList7(E[] toCopyIn) {
+        lockFree = false;
         setArray(Arrays.copyOf(toCopyIn, toCopyIn.length, Object[].class));
     }
 
@@ -349,24 +424,26 @@ public class CopyOnWriteArrayList7<E>
      * @throws IndexOutOfBoundsException {@inheritDoc}
      */
     public E set(int index, E element) {
-        final ReentrantLock lock = this.lock;
-        lock.lock();
+        lockForWrite();
         try {
-            Object[] elements = getArray();
-            E oldValue = get(elements, index);
-
-            if (oldValue != element) {
-                int len = elements.length;
-                Object[] newElements = Arrays.copyOf(elements, len);
-                newElements[index] = element;
-                setArray(newElements);
-            } else {
-                // Not quite a no-op; ensures volatile write semantics
-                setArray(elements);
+            for (;;) {
+                Object[] elements = getArray();
+                E oldValue = get(elements, index);
+
+                Object[] newElements;
+                if (oldValue != element) {
+                    int len = elements.length;
+                    newElements = Arrays.copyOf(elements, len);
+                    newElements[index] = element;
+                } else {
+                    // Not quite a no-op; ensures volatile write semantics
+                    newElements = elements;
+                }
+                if (publish(elements, newElements))
+                    return oldValue;
             }
-            return oldValue;
         } finally {
-            lock.unlock();
+            unlockForWrite();
         }
     }
 
@@ -377,17 +454,18 @@ public class CopyOnWriteArrayList7<E>
      * @return <tt>true</tt> (as specified by {@link Collection#add})
      */
     public boolean add(E e) {
-        final ReentrantLock lock = this.lock;
-        lock.lock();
+        lockForWrite();
         try {
-            Object[] elements = getArray();
-            int len = elements.length;
-            Object[] newElements = Arrays.copyOf(elements, len + 1);
-            newElements[len] = e;
-            setArray(newElements);
-            return true;
+            for (;;) {
+                Object[] elements = getArray();
+                int len = elements.length;
+                Object[] newElements = Arrays.copyOf(elements, len + 1);
+                newElements[len] = e;
+                if (publish(elements, newElements))
+                    return true;
+            }
         } finally {
-            lock.unlock();
+            unlockForWrite();
         }
     }
 
@@ -399,29 +477,39 @@ public class CopyOnWriteArrayList7<E>
      * @throws IndexOutOfBoundsException {@inheritDoc}
      */
     public void add(int index, E element) {
-        final ReentrantLock lock = this.lock;
-        lock.lock();
+        lockForWrite();
         try {
-            Object[] elements = getArray();
-            int len = elements.length;
-            if (index > len || index < 0)
-                throw new IndexOutOfBoundsException("Index: "+index+
-                                                    ", Size: "+len);
-            Object[] newElements;
-            int numMoved = len - index;
-            if (numMoved == 0)
-                newElements = Arrays.copyOf(elements, len + 1);
-            else {
-                newElements = new Object[len + 1];
-                System.arraycopy(elements, 0, newElements, 0, index);
-                System.arraycopy(elements, index, newElements, index + 1,
-                                 numMoved);
-            }
-            newElements[index] = element;
-            setArray(newElements);
+            Object[] elements;
+            do {
+                elements = getArray();
+                int len = elements.length;
+                if (index > len || index < 0)
+                    throw new IndexOutOfBoundsException("Index: "+index+
+                                                        ", Size: "+len);
+            } while (!publish(elements, insertCopy(elements, index, element)));
         } finally {
-            lock.unlock();
+            unlockForWrite();
+        }
+    }
+
+    /**
+     * Returns a copy of elements with element inserted at index.
+     */
+    private static Object[] insertCopy(Object[] elements, int index,
+                                       Object element) {
+        int len = elements.length;
+        Object[] newElements;
+        int numMoved = len - index;
+        if (numMoved == 0)
+            newElements = Arrays.copyOf(elements, len + 1);
+        else {
+            newElements = new Object[len + 1];
+            System.arraycopy(elements, 0, newElements, 0, index);
+            System.arraycopy(elements, index, newElements, index + 1,
+                             numMoved);
         }
+        newElements[index] = element;
+        return newElements;
     }
 
     /**
@@ -432,25 +520,16 @@ public class CopyOnWriteArrayList7<E>
      * @throws IndexOutOfBoundsException {@inheritDoc}
      */
     public E remove(int index) {
-        final ReentrantLock lock = this.lock;
-        lock.lock();
+        lockForWrite();
         try {
-            Object[] elements = getArray();
-            int len = elements.length;
-            E oldValue = get(elements, index);
-            int numMoved = len - index - 1;
-            if (numMoved == 0)
-                setArray(Arrays.copyOf(elements, len - 1));
-            else {
-                Object[] newElements = new Object[len - 1];
-                System.arraycopy(elements, 0, newElements, 0, index);
-                System.arraycopy(elements, index + 1, newElements, index,
-                                 numMoved);
-                setArray(newElements);
+            for (;;) {
+                Object[] elements = getArray();
+                E oldValue = get(elements, index);
+                if (publish(elements, removeCopy(elements, index, index + 1)))
+                    return oldValue;
             }
-            return oldValue;
         } finally {
-            lock.unlock();
+            unlockForWrite();
         }
     }
 
@@ -468,75 +547,70 @@ public class CopyOnWriteArrayList7<E>
      * @return <tt>true</tt> if this list contained the specified element
      */
     public boolean remove(Object o) {
-        final ReentrantLock lock = this.lock;
-        lock.lock();
+        lockForWrite();
         try {
-            Object[] elements = getArray();
-            int len = elements.length;
-            if (len != 0) {
-                // Copy while searching for element to remove
-                // This wins in the normal case of element being present
-                int newlen = len - 1;
-                Object[] newElements = new Object[newlen];
-
-                for (int i = 0; i < newlen; ++i) {
-                    if (eq(o, elements[i])) {
-                        // found one;  copy remaining and exit
-                        for (int k = i + 1; k < len; ++k)
-                            newElements[k-1] = elements[k];
-                        setArray(newElements);
-                        return true;
-                    } else
-                        newElements[i] = elements[i];
-                }
-
-                // special handling for last cell
-                if (eq(o, elements[newlen])) {
-                    setArray(newElements);
-                    return true;
+            retry:
+            for (;;) {
+                Object[] elements = getArray();
+                int len = elements.length;
+                if (len != 0) {
+                    // Copy while searching for element to remove
+                    // This wins in the normal case of element being present
+                    int newlen = len - 1;
+                    Object[] newElements = new Object[newlen];
+
+                    for (int i = 0; i < newlen; ++i) {
+                        if (eq(o, elements[i])) {
+                            // found one;  copy remaining and exit
+                            for (int k = i + 1; k < len; ++k)
+                                newElements[k-1] = elements[k];
+                            if (publish(elements, newElements))
+                                return true;
+                            continue retry;
+                        } else
+                            newElements[i] = elements[i];
+                    }
+
+                    // special handling for last cell
+                    if (eq(o, elements[newlen])) {
+                        if (publish(elements, newElements))
+                            return true;
+                        continue retry;
+                    }
                 }
+                return false;
             }
-            return false;
         } finally {
-            lock.unlock();
+            unlockForWrite();
         }
     }
 
     /**
-     * Removes from this list all of the elements whose index is between
-     * <tt>fromIndex</tt>, inclusive, and <tt>toIndex</tt>, exclusive.
-     * Shifts any succeeding elements to the left (reduces their index).
-     * This call shortens the list by <tt>(toIndex - fromIndex)</tt> elements.
-     * (If <tt>toIndex==fromIndex</tt>, this operation has no effect.)
+     * Returns a copy of elements without the elements whose index is
+     * between <tt>fromIndex</tt>, inclusive, and <tt>toIndex</tt>,
+     * exclusive.  Shifts any succeeding elements to the left (reduces
+     * their index).
      *
      * @param fromIndex index of first element to be removed
      * @param toIndex index after last element to be removed
      * @throws IndexOutOfBoundsException if fromIndex or toIndex out of range
      *         ({@code{fromIndex < 0 || toIndex > size() || toIndex < fromIndex})
      */
-    private void removeRange(int fromIndex, int toIndex) {
-        final ReentrantLock lock = this.lock;
-        lock.lock();
-        try {
-            Object[] elements = getArray();
-            int len = elements.length;
+    private static Object[] removeCopy(Object[] elements,
+                                       int fromIndex, int toIndex) {
+        int len = elements.length;
 
-            if (fromIndex < 0 || toIndex > len || toIndex < fromIndex)
-                throw new IndexOutOfBoundsException();
-            int newlen = len - (toIndex - fromIndex);
-            int numMoved = len - toIndex;
-            if (numMoved == 0)
-                setArray(Arrays.copyOf(elements, newlen));
-            else {
-                Object[] newElements = new Object[newlen];
-                System.arraycopy(elements, 0, newElements, 0, fromIndex);
-                System.arraycopy(elements, toIndex, newElements,
-                                 fromIndex, numMoved);
-                setArray(newElements);
-            }
-        } finally {
-            lock.unlock();
-        }
+        if (fromIndex < 0 || toIndex > len || toIndex < fromIndex)
+            throw new IndexOutOfBoundsException();
+        int newlen = len - (toIndex - fromIndex);
+        int numMoved = len - toIndex;
+        if (numMoved == 0)
+            return Arrays.copyOf(elements, newlen);
+        Object[] newElements = new Object[newlen];
+        System.arraycopy(elements, 0, newElements, 0, fromIndex);
+        System.arraycopy(elements, toIndex, newElements,
+                         fromIndex, numMoved);
+        return newElements;
     }
 
     /**
@@ -546,25 +620,26 @@ public class CopyOnWriteArrayList7<E>
      * @return <tt>true</tt> if the element was added
      */
     public boolean addIfAbsent(E e) {
-        final ReentrantLock lock = this.lock;
-        lock.lock();
+        lockForWrite();
         try {
-            // Copy while checking if already present.
-            // This wins in the most common case where it is not present
-            Object[] elements = getArray();
-            int len = elements.length;
-            Object[] newElements = new Object[len + 1];
-            for (int i = 0; i < len; ++i) {
-                if (eq(e, elements[i]))
-                    return false; // exit, throwing away copy
-                else
-                    newElements[i] = elements[i];
+            for (;;) {
+                // Copy while checking if already present.
+                // This wins in the most common case where it is not present
+                Object[] elements = getArray();
+                int len = elements.length;
+                Object[] newElements = new Object[len + 1];
+                for (int i = 0; i < len; ++i) {
+                    if (eq(e, elements[i]))
+                        return false; // exit, throwing away copy
+                    else
+                        newElements[i] = elements[i];
+                }
+                newElements[len] = e;
+                if (publish(elements, newElements))
+                    return true;
             }
-            newElements[len] = e;
-            setArray(newElements);
-            return true;
         } finally {
-            lock.unlock();
+            unlockForWrite();
         }
     }
 
@@ -605,28 +680,30 @@ public class CopyOnWriteArrayList7<E>
      * @see #remove(Object)
      */
     public boolean removeAll(Collection<?> c) {
-        final ReentrantLock lock = this.lock;
-        lock.lock();
+        lockForWrite();
         try {
-            Object[] elements = getArray();
-            int len = elements.length;
-            if (len != 0) {
-                // temp array holds those elements we know we want to keep
-                int newlen = 0;
-                Object[] temp = new Object[len];
-                for (int i = 0; i < len; ++i) {
-                    Object element = elements[i];
-                    if (!c.contains(element))
-                        temp[newlen++] = element;
-                }
-                if (newlen != len) {
-                    setArray(Arrays.copyOf(temp, newlen));
-                    return true;
+            for (;;) {
+                Object[] elements = getArray();
+                int len = elements.length;
+                if (len != 0) {
+                    // temp array holds those elements we know we want to keep
+                    int newlen = 0;
+                    Object[] temp = new Object[len];
+                    for (int i = 0; i < len; ++i) {
+                        Object element = elements[i];
+                        if (!c.contains(element))
+                            temp[newlen++] = element;
+                    }
+                    if (newlen != len) {
+                        if (publish(elements, Arrays.copyOf(temp, newlen)))
+                            return true;
+                        continue;
+                    }
                 }
+                return false;
             }
-            return false;
         } finally {
-            lock.unlock();
+            unlockForWrite();
         }
     }
 
@@ -647,28 +724,30 @@ public class CopyOnWriteArrayList7<E>
      * @see #remove(Object)
      */
     public boolean retainAll(Collection<?> c) {
-        final ReentrantLock lock = this.lock;
-        lock.lock();
+        lockForWrite();
         try {
-            Object[] elements = getArray();
-            int len = elements.length;
-            if (len != 0) {
-                // temp array holds those elements we know we want to keep
-                int newlen = 0;
-                Object[] temp = new Object[len];
-                for (int i = 0; i < len; ++i) {
-                    Object element = elements[i];
-                    if (c.contains(element))
-                        temp[newlen++] = element;
-                }
-                if (newlen != len) {
-                    setArray(Arrays.copyOf(temp, newlen));
-                    return true;
+            for (;;) {
+                Object[] elements = getArray();
+                int len = elements.length;
+                if (len != 0) {
+                    // temp array holds those elements we know we want to keep
+                    int newlen = 0;
+                    Object[] temp = new Object[len];
+                    for (int i = 0; i < len; ++i) {
+                        Object element = elements[i];
+                        if (c.contains(element))
+                            temp[newlen++] = element;
+                    }
+                    if (newlen != len) {
+                        if (publish(elements, Arrays.copyOf(temp, newlen)))
+                            return true;
+                        continue;
+                    }
                 }
+                return false;
             }
-            return false;
         } finally {
-            lock.unlock();
+            unlockForWrite();
         }
     }
 
@@ -688,26 +767,27 @@ public class CopyOnWriteArrayList7<E>
         if (cs.length == 0)
             return 0;
         Object[] uniq = new Object[cs.length];
-        final ReentrantLock lock = this.lock;
-        lock.lock();
+        lockForWrite();
         try {
-            Object[] elements = getArray();
-            int len = elements.length;
-            int added = 0;
-            for (int i = 0; i < cs.length; ++i) { // scan for duplicates
-                Object e = cs[i];
-                if (indexOf(e, elements, 0, len) < 0 &&
-                    indexOf(e, uniq, 0, added) < 0)
-                    uniq[added++] = e;
-            }
-            if (added > 0) {
+            for (;;) {
+                Object[] elements = getArray();
+                int len = elements.length;
+                int added = 0;
+                for (int i = 0; i < cs.length; ++i) { // scan for duplicates
+                    Object e = cs[i];
+                    if (indexOf(e, elements, 0, len) < 0 &&
+                        indexOf(e, uniq, 0, added) < 0)
+                        uniq[added++] = e;
+                }
+                if (added == 0)
+                    return 0;
                 Object[] newElements = Arrays.copyOf(elements, len + added);
                 System.arraycopy(uniq, 0, newElements, len, added);
-                setArray(newElements);
+                if (publish(elements, newElements))
+                    return added;
             }
-            return added;
         } finally {
-            lock.unlock();
+            unlockForWrite();
         }
     }
 
@@ -716,12 +796,12 @@ public class CopyOnWriteArrayList7<E>
      * The list will be empty after this call returns.
      */
     public void clear() {
-        final ReentrantLock lock = this.lock;
-        lock.lock();
+        lockForWrite();
         try {
+            // does not depend on the old array, so needs no compare-and-set
             setArray(new Object[0]);
         } finally {
-            lock.unlock();
+            unlockForWrite();
         }
     }
 
@@ -739,17 +819,18 @@ public class CopyOnWriteArrayList7<E>
         Object[] cs = c.toArray();
         if (cs.length == 0)
             return false;
-        final ReentrantLock lock = this.lock;
-        lock.lock();
+        lockForWrite();
         try {
-            Object[] elements = getArray();
-            int len = elements.length;
-            Object[] newElements = Arrays.copyOf(elements, len + cs.length);
-            System.arraycopy(cs, 0, newElements, len, cs.length);
-            setArray(newElements);
-            return true;
+            for (;;) {
+                Object[] elements = getArray();
+                int len = elements.length;
+                Object[] newElements = Arrays.copyOf(elements, len + cs.length);
+                System.arraycopy(cs, 0, newElements, len, cs.length);
+                if (publish(elements, newElements))
+                    return true;
+            }
         } finally {
-            lock.unlock();
+            unlockForWrite();
         }
     }
 
@@ -771,32 +852,155 @@ public class CopyOnWriteArrayList7<E>
      */
     public boolean addAll(int index, Collection<? extends E> c) {
         Object[] cs = c.toArray();
-        final ReentrantLock lock = this.lock;
-        lock.lock();
+        lockForWrite();
         try {
-            Object[] elements = getArray();
-            int len = elements.length;
-            if (index > len || index < 0)
-                throw new IndexOutOfBoundsException("Index: "+index+
-                                                    ", Size: "+len);
-            if (cs.length == 0)
-                return false;
-            int numMoved = len - index;
-            Object[] newElements;
-            if (numMoved == 0)
-                newElements = Arrays.copyOf(elements, len + cs.length);
-            else {
-                newElements = new Object[len + cs.length];
-                System.arraycopy(elements, 0, newElements, 0, index);
-                System.arraycopy(elements, index,
-                                 newElements, index + cs.length,
-                                 numMoved);
+            for (;;) {
+                Object[] elements = getArray();
+                int len = elements.length;
+                if (index > len || index < 0)
+                    throw new IndexOutOfBoundsException("Index: "+index+
+                                                        ", Size: "+len);
+                if (cs.length == 0)
+                    return false;
+                int numMoved = len - index;
+                Object[] newElements;
+                if (numMoved == 0)
+                    newElements = Arrays.copyOf(elements, len + cs.length);
+                else {
+                    newElements = new Object[len + cs.length];
+                    System.arraycopy(elements, 0, newElements, 0, index);
+                    System.arraycopy(elements, index,
+                                     newElements, index + cs.length,
+                                     numMoved);
+                }
+                System.arraycopy(cs, 0, newElements, index, cs.length);
+                if (publish(elements, newElements))
+                    return true;
             }
-            System.arraycopy(cs, 0, newElements, index, cs.length);
-            setArray(newElements);
-            return true;
         } finally {
-            lock.unlock();
+            unlockForWrite();
+        }
+    }
+
+    /**
+     * Applies a batch of changes to this list as one write.  The batch
+     * is given a private, mutable copy of the current elements; any
+     * number of {@code add}, {@code remove}, {@code set} and other
+     * {@code List} operations on that copy cost no array copies of
+     * this list, and when the batch returns the result is published
+     * with a single {@code setArray}.  A burst of n registrations thus
+     * costs one copy of the array, plus amortized growth of that copy,
+     * instead of n copies.
+     *
+     * <p>The batch runs while holding the lock, so other writers wait
+     * for it and readers see either none or all of its changes.  If the
+     * batch throws, nothing is published.  The batch must work only on
+     * the list it is given: changes made to this list directly from
+     * within the batch are overwritten when the batch is published, and
+     * the given list must not be used after the batch returns.
+     *
+     * <p>If this list was created lock-free, the batch runs without the
+     * lock, and if another writer publishes first the batch is run again
+     * on a fresh copy of the new elements, so it should have no effects
+     * other than on the list it is given.
+     *
+     * @param batch the changes to apply to the copy of the elements
+     * @throws NullPointerException if the batch is null
+     */
+    public void mutate(Consumer<? super List<E>> batch) {
+        if (batch == null)
+            throw new NullPointerException();
+        lockForWrite();
+        try {
+            Object[] elements;
+            Batch<E> copy;
+            do {
+                elements = getArray();
+                copy = new Batch<E>(elements);
+                batch.accept(copy);
+            } while (!publish(elements, copy.result()));
+        } finally {
+            unlockForWrite();
+        }
+    }
+
+    /**
+     * The list given to a {@link #mutate} batch: a growable array made
+     * by a single copy of the elements.  Unless the batch changed the
+     * size, result hands back that array itself rather than copying
+     * it again, which is why the batch must not keep the list.
+     */
+    private static final class Batch<E>
+        extends AbstractList<E>
+        implements RandomAccess
+    {
+        private Object[] elements;
+        private int size;
+
+        Batch(Object[] elements) {
+            this.elements = Arrays.copyOf(elements, elements.length);
+            size = elements.length;
+        }
+
+        private void rangeCheck(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("Index: "+index+
+                                                    ", Size: "+size);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        @SuppressWarnings("unchecked")
+        public E get(int index) {
+            rangeCheck(index);
+            return (E) elements[index];
+        }
+
+        @SuppressWarnings("unchecked")
+        public E set(int index, E element) {
+            rangeCheck(index);
+            E oldValue = (E) elements[index];
+            elements[index] = element;
+            return oldValue;
+        }
+
+        public void add(int index, E element) {
+            if (index < 0 || index > size)
+                throw new IndexOutOfBoundsException("Index: "+index+
+                                                    ", Size: "+size);
+            if (size == elements.length)
+                elements = Arrays.copyOf(elements, size + (size >> 1) + 1);
+            System.arraycopy(elements, index, elements, index + 1, size - index);
+            elements[index] = element;
+            size++;
+            modCount++;
+        }
+
+        @SuppressWarnings("unchecked")
+        public E remove(int index) {
+            rangeCheck(index);
+            E oldValue = (E) elements[index];
+            System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+            elements[--size] = null;
+            modCount++;
+            return oldValue;
+        }
+
+        protected void removeRange(int fromIndex, int toIndex) {
+            System.arraycopy(elements, toIndex, elements, fromIndex, size - toIndex);
+            int newSize = size - (toIndex - fromIndex);
+            Arrays.fill(elements, newSize, size, null);
+            size = newSize;
+            modCount++;
+        }
+
+        /**
+         * Returns the elements to publish, trimmed to size.
+         */
+        Object[] result() {
+            return size == elements.length ? elements : Arrays.copyOf(elements, size);
         }
     }
 
@@ -1092,6 +1296,15 @@ public class CopyOnWriteArrayList7<E>
                 throw new ConcurrentModificationException();
         }
 
+        // only call this holding l's lock.  Lock-free writers of l do
+        // not take the lock, so this fails if one of them published
+        // since the last check.
+        private void replaceArray(Object[] newElements) {
+            if (!l.publish(expectedArray, newElements))
+                throw new ConcurrentModificationException();
+            expectedArray = newElements;
+        }
+
         // only call this holding l's lock
         private void rangeCheck(int index) {
             if (index<0 || index>=size)
@@ -1105,8 +1318,11 @@ public class CopyOnWriteArrayList7<E>
             try {
                 rangeCheck(index);
                 checkForComodification();
-                E x = l.set(index+offset, element);
-                expectedArray = l.getArray();
+                Object[] elements = expectedArray;
+                E x = (E) elements[index+offset];
+                Object[] newElements = Arrays.copyOf(elements, elements.length);
+                newElements[index+offset] = element;
+                replaceArray(newElements);
                 return x;
             } finally {
                 lock.unlock();
@@ -1143,8 +1359,7 @@ public class CopyOnWriteArrayList7<E>
                 checkForComodification();
                 if (index<0 || index>size)
                     throw new IndexOutOfBoundsException();
-                l.add(index+offset, element);
-                expectedArray = l.getArray();
+                replaceArray(insertCopy(expectedArray, index+offset, element));
                 size++;
             } finally {
                 lock.unlock();
@@ -1156,8 +1371,7 @@ public class CopyOnWriteArrayList7<E>
             lock.lock();
             try {
                 checkForComodification();
-                l.removeRange(offset, offset+size);
-                expectedArray = l.getArray();
+                replaceArray(removeCopy(expectedArray, offset, offset+size));
                 size = 0;
             } finally {
                 lock.unlock();
@@ -1170,8 +1384,9 @@ public class CopyOnWriteArrayList7<E>
             try {
                 rangeCheck(index);
                 checkForComodification();
-                E result = l.remove(index+offset);
-                expectedArray = l.getArray();
+                E result = (E) expectedArray[index+offset];
+                replaceArray(removeCopy(expectedArray, index+offset,
+                                        index+offset+1));
                 size--;
                 return result;
             } finally {
@@ -1292,9 +1507,15 @@ public class CopyOnWriteArrayList7<E>
     }
     private static final sun.misc.Unsafe UNSAFE;
     private static final long lockOffset;
+    private static final AtomicReferenceFieldUpdater<CopyOnWriteArrayList7, Object[]> arrayUpdater =
+        AtomicReferenceFieldUpdater.newUpdater(CopyOnWriteArrayList7.class, Object[].class, "array");
     static {
         try {
-            UNSAFE = sun.misc.Unsafe.getUnsafe();
+            // Unsafe.getUnsafe() only admits classes loaded by the boot
+            // loader, which this copy is not.
+            java.lang.reflect.Field f = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            UNSAFE = (sun.misc.Unsafe) f.get(null);
             Class k = CopyOnWriteArrayList7.class;
             lockOffset = UNSAFE.objectFieldOffset
                 (k.getDeclaredField("lock"));
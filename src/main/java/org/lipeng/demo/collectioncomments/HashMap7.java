@@ -453,6 +453,22 @@ public class HashMap7<K, V>
         threshold = (int) Math.min(newCapacity * loadFactor, MAXIMUM_CAPACITY + 1);
     }
 
+    /**
+     * 缩容table数组：如果当前size用更小的容量(2的次幂)就能存下而不超过阈值，则把全部元素transfer到更小的数组
+     * 与resize相反，用于批量删除元素之后释放table占用的内存，只会缩小不会扩大
+     */
+    void shrinkTable() {
+        if (table == EMPTY_TABLE)
+            return;
+        int newCapacity = roundUpToPowerOf2((int) (size / loadFactor) + 1);
+        if (newCapacity >= table.length)
+            return;
+        Entry[] newTable = new Entry[newCapacity];
+        transfer(newTable, initHashSeedAsNeeded(newCapacity));
+        table = newTable;
+        threshold = (int) Math.min(newCapacity * loadFactor, MAXIMUM_CAPACITY + 1);
+    }
+
     /**
      * 将全部的元素从旧数组移动到新数组
      *
@@ -0,0 +1,237 @@
+package org.lipeng.demo.collectioncomments;
+
+import java.util.*;
+import java.util.function.ToLongFunction;
+
+/**
+ * 不可修改的NavigableMap，由{@link TreeMap7#toImmutable()}创建，key和value按key的顺序分别保存在两个数组中
+ * <p>
+ * 对于构造一次之后只做floorEntry/ceilingEntry/subMap等查询的map，TreeMap7的每个Entry除了key和value之外
+ * 还有left/right/parent三个指针、color、size和prefix，而且节点分散在堆中，查找要沿着指针逐层访问。
+ * 这里只保存两个数组（每个映射两个引用），查找是数组上的二分查找，
+ * 范围视图的迭代是在数组的一段连续区间上移动下标，范围的size()是两次二分查找的下标之差。
+ * <p>
+ * 如果TreeMap7使用了key前缀函数（见{@link TreeMap7#TreeMap7(Comparator, ToLongFunction)}），
+ * key的前缀还按顺序保存在一个long数组中，二分查找先比较连续存放的前缀，只有前缀相等时才调用comparator比较完整的key
+ * <p>
+ * put/remove/clear以及视图和迭代器的修改操作都抛出UnsupportedOperationException，
+ * 返回的entry不支持setValue。map不可修改，因此可以被多个线程无需同步地并发读取
+ *
+ * @param <K> key的类型
+ * @param <V> value的类型
+ * @see TreeMap7#toImmutable()
+ */
+public final class ImmutableTreeMap7<K, V> extends AbstractNavigableMap7<K, V> implements java.io.Serializable {
+
+    private static final long serialVersionUID = -2318569204627391860L;
+
+    private final Comparator<? super K> comparator;
+
+    /**
+     * key的前缀函数，没有时为null
+     */
+    private final ToLongFunction<? super K> keyPrefix;
+
+    /**
+     * 按顺序保存的key和对应的value
+     */
+    private final Object[] keys;
+    private final Object[] values;
+
+    /**
+     * keys中每个key的前缀，同TreeMap7.prefixOf加上了Long.MIN_VALUE的偏移，没有前缀函数时为null
+     */
+    private final long[] prefixes;
+
+    /**
+     * 数组由调用者按key的顺序填充，之后不再修改
+     */
+    ImmutableTreeMap7(Comparator<? super K> comparator, ToLongFunction<? super K> keyPrefix,
+                      Object[] keys, Object[] values, long[] prefixes) {
+        this.comparator = comparator;
+        this.keyPrefix = keyPrefix;
+        this.keys = keys;
+        this.values = values;
+        this.prefixes = prefixes;
+    }
+
+    /**
+     * 使用m的comparator，按m的顺序复制所有的映射
+     */
+    public ImmutableTreeMap7(SortedMap<K, ? extends V> m) {
+        this.comparator = m.comparator();
+        this.keyPrefix = null;
+        int n = m.size();
+        this.keys = new Object[n];
+        this.values = new Object[n];
+        this.prefixes = null;
+        int i = 0;
+        for (Map.Entry<K, ? extends V> e : m.entrySet()) {
+            keys[i] = e.getKey();
+            values[i] = e.getValue();
+            i++;
+        }
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+
+    public V get(Object key) {
+        int i = search(key);
+        return (i >= 0) ? (V) values[i] : null;
+    }
+
+    public boolean containsKey(Object key) {
+        return search(key) >= 0;
+    }
+
+    public V put(K key, V value) {
+        throw new UnsupportedOperationException();
+    }
+
+    public V remove(Object key) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    // 二分查找
+
+    /**
+     * 同Arrays.binarySearch：找到key时返回它的下标，否则返回(-(插入位置) - 1)
+     */
+    private int search(Object key) {
+        K k = (K) key;
+        long[] ps = prefixes;
+        long kp = (ps == null) ? 0L : keyPrefix.applyAsLong(k) ^ Long.MIN_VALUE;
+        int low = 0;
+        int high = keys.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp;
+            if (ps != null && ps[mid] != kp)
+                cmp = (ps[mid] < kp) ? -1 : 1;
+            else
+                cmp = compare(keys[mid], k);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * 返回第一个不小于key（inclusive为false时大于key）的key的下标，没有时返回size()
+     */
+    private int lowIndex(K key, boolean inclusive) {
+        int i = search(key);
+        if (i < 0)
+            return -(i + 1);
+        return inclusive ? i : i + 1;
+    }
+
+    private Map.Entry<K, V> entryAt(int i) {
+        return (i < 0 || i >= keys.length) ? null
+                : new AbstractMap7.SimpleImmutableEntry<>((K) keys[i], (V) values[i]);
+    }
+
+    public Map.Entry<K, V> firstEntry() {
+        return entryAt(0);
+    }
+
+    public Map.Entry<K, V> lastEntry() {
+        return entryAt(keys.length - 1);
+    }
+
+    public Map.Entry<K, V> lowerEntry(K key) {
+        return entryAt(lowIndex(key, true) - 1);
+    }
+
+    public Map.Entry<K, V> floorEntry(K key) {
+        return entryAt(lowIndex(key, false) - 1);
+    }
+
+    public Map.Entry<K, V> ceilingEntry(K key) {
+        return entryAt(lowIndex(key, true));
+    }
+
+    public Map.Entry<K, V> higherEntry(K key) {
+        return entryAt(lowIndex(key, false));
+    }
+
+    // 范围
+
+    /**
+     * 范围内的第一个下标
+     */
+    private int fromIndex(boolean fromStart, K lo, boolean loInclusive) {
+        return fromStart ? 0 : lowIndex(lo, loInclusive);
+    }
+
+    /**
+     * 范围之后的第一个下标
+     */
+    private int toIndex(boolean toEnd, K hi, boolean hiInclusive) {
+        return toEnd ? keys.length : lowIndex(hi, !hiInclusive);
+    }
+
+    /**
+     * 两次二分查找的下标之差，O(log n)
+     */
+    int countRange(boolean fromStart, K lo, boolean loInclusive,
+                   boolean toEnd, K hi, boolean hiInclusive) {
+        int to = toIndex(toEnd, hi, hiInclusive);
+        int from = fromIndex(fromStart, lo, loInclusive);
+        return Math.max(to - from, 0);
+    }
+
+    Iterator<Map.Entry<K, V>> entryIterator(boolean fromStart, K lo, boolean loInclusive,
+                                           boolean toEnd, K hi, boolean hiInclusive,
+                                           boolean descending) {
+        int from = fromIndex(fromStart, lo, loInclusive);
+        int to = toIndex(toEnd, hi, hiInclusive);
+        return new EntryIterator(from, Math.max(to, from), descending);
+    }
+
+    /**
+     * 在下标[from, to)上顺序或者逆序移动
+     */
+    final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private final int from, to;
+        private final boolean descending;
+        private int next;
+
+        EntryIterator(int from, int to, boolean descending) {
+            this.from = from;
+            this.to = to;
+            this.descending = descending;
+            this.next = descending ? to - 1 : from;
+        }
+
+        public boolean hasNext() {
+            return descending ? next >= from : next < to;
+        }
+
+        public Map.Entry<K, V> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            int i = next;
+            next = descending ? i - 1 : i + 1;
+            return entryAt(i);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,646 @@
+package org.lipeng.demo.collectioncomments;
+
+import java.util.*;
+
+/**
+ * 区间树：以区间的起点为key的红黑树，红黑树的实现同TreeMap7
+ * <p>
+ * 用TreeMap7按起点保存区间时，查找与[a, b)重叠的区间只能遍历headMap(b)，是线性的。
+ * 这里每个Entry额外保存以它为根的子树中所有区间的终点的最大值maxEnd，
+ * 查询时如果一棵子树的maxEnd不大于a，整棵子树中都没有与[a, b)重叠的区间，可以直接跳过；
+ * 起点不小于b的节点及其右子树也不需要访问。
+ * maxEnd在插入、删除、修改终点时沿着到根节点的路径更新，在rotateLeft/rotateRight中对旋转的两个节点重新计算，
+ * 因此fixAfterInsertion/fixAfterDeletion的重新平衡不需要额外处理
+ * <p>
+ * 区间是左闭右开的[start, end)，start为key，每个起点只保存一个区间（同TreeMap7中以起点为key），
+ * 两个区间重叠当且仅当 start1 &lt; end2 并且 start2 &lt; end1，
+ * 因此[9:00, 10:00)和[10:00, 11:00)不重叠。
+ * <p>
+ * {@link #overlapping}按起点的顺序返回所有重叠的区间，{@link #overlaps}只判断是否存在重叠的区间，是O(log n)的
+ * <p>
+ * 同TreeMap7，此实现不是同步的，迭代器是fail-fast的
+ *
+ * @param <K> 区间端点（key）的类型
+ * @param <V> value的类型
+ * @see TreeMap7
+ */
+public class IntervalTreeMap7<K, V> implements Iterable<IntervalTreeMap7.Interval<K, V>>, Cloneable {
+
+    private final Comparator<? super K> comparator;
+
+    private transient Entry<K, V> root;
+    private transient int size;
+    private transient int modCount;
+
+    public IntervalTreeMap7() {
+        this.comparator = null;
+    }
+
+    public IntervalTreeMap7(Comparator<? super K> comparator) {
+        this.comparator = comparator;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+
+    /**
+     * 是否存在以start为起点的区间
+     */
+    public boolean containsKey(K start) {
+        return getEntry(start) != null;
+    }
+
+    /**
+     * 返回以start为起点的区间的value，没有时返回null
+     */
+    public V get(K start) {
+        Entry<K, V> p = getEntry(start);
+        return (p == null ? null : p.value);
+    }
+
+    /**
+     * 返回以start为起点的区间，没有时返回null
+     */
+    public Interval<K, V> getInterval(K start) {
+        return exportInterval(getEntry(start));
+    }
+
+    final Entry<K, V> getEntry(K start) {
+        Entry<K, V> p = root;
+        while (p != null) {
+            int cmp = compare(start, p.key);
+            if (cmp < 0)
+                p = p.left;
+            else if (cmp > 0)
+                p = p.right;
+            else
+                return p;
+        }
+        return null;
+    }
+
+    /**
+     * 保存区间[start, end)，已经存在以start为起点的区间时替换它的终点和value
+     *
+     * @return 以start为起点的区间原来的value，没有时返回null
+     * @throws IllegalArgumentException 如果end小于start
+     */
+    public V put(K start, K end, V value) {
+        if (compare(start, end) > 0)
+            throw new IllegalArgumentException("end < start");
+        Entry<K, V> t = root;
+        if (t == null) {
+            root = new Entry<>(start, end, value, null);
+            size = 1;
+            modCount++;
+            return null;
+        }
+        int cmp;
+        Entry<K, V> parent;
+        do {
+            parent = t;
+            cmp = compare(start, t.key);
+            if (cmp < 0) {
+                t = t.left;
+            } else if (cmp > 0) {
+                t = t.right;
+            } else {
+                // 终点可能变小，重新计算到根节点的路径
+                V oldValue = t.value;
+                t.end = end;
+                t.value = value;
+                updateMaxEndUpward(t);
+                return oldValue;
+            }
+        } while (t != null);
+        Entry<K, V> e = new Entry<>(start, end, value, parent);
+        if (cmp < 0)
+            parent.left = e;
+        else
+            parent.right = e;
+        for (Entry<K, V> p = parent; p != null && compare(end, p.maxEnd) > 0; p = p.parent)
+            p.maxEnd = end;
+        fixAfterInsertion(e);
+        size++;
+        modCount++;
+        return null;
+    }
+
+    /**
+     * 删除以start为起点的区间
+     *
+     * @return 删除的区间的value，没有时返回null
+     */
+    public V remove(K start) {
+        Entry<K, V> p = getEntry(start);
+        if (p == null)
+            return null;
+        V oldValue = p.value;
+        deleteEntry(p);
+        return oldValue;
+    }
+
+    public void clear() {
+        modCount++;
+        size = 0;
+        root = null;
+    }
+
+    /**
+     * 返回浅拷贝，区间和树的结构被复制，value不被复制
+     */
+    public Object clone() {
+        IntervalTreeMap7<K, V> clone;
+        try {
+            clone = (IntervalTreeMap7<K, V>) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new InternalError();
+        }
+        clone.root = copy(root, null);
+        clone.modCount = 0;
+        return clone;
+    }
+
+    private static <K, V> Entry<K, V> copy(Entry<K, V> p, Entry<K, V> parent) {
+        if (p == null)
+            return null;
+        Entry<K, V> e = new Entry<>(p.key, p.end, p.value, parent);
+        e.maxEnd = p.maxEnd;
+        e.color = p.color;
+        e.left = copy(p.left, e);
+        e.right = copy(p.right, e);
+        return e;
+    }
+
+    // 重叠查询
+
+    /**
+     * 按起点的顺序返回所有与[from, to)重叠的区间，即start &lt; to并且end &gt; from的区间
+     * 只访问maxEnd大于from、起点小于to的子树，最坏O((k+1)log n)，k为返回的区间个数；
+     * 区间的长度相近时接近O(log n + k)；from等于to时[from, to)为空，返回空列表
+     *
+     * @throws IllegalArgumentException 如果from大于to
+     */
+    public List<Interval<K, V>> overlapping(K from, K to) {
+        int cmp = compare(from, to);
+        if (cmp > 0)
+            throw new IllegalArgumentException("from > to");
+        List<Interval<K, V>> result = new ArrayList<>();
+        if (cmp < 0)
+            collect(root, from, to, false, result);
+        return result;
+    }
+
+    /**
+     * 按起点的顺序返回所有包含point的区间，即start &lt;= point并且end &gt; point的区间
+     */
+    public List<Interval<K, V>> containing(K point) {
+        List<Interval<K, V>> result = new ArrayList<>();
+        collect(root, point, point, true, result);
+        return result;
+    }
+
+    /**
+     * 中序遍历子树x中start小于to（toInclusive时不大于to）并且end大于from的区间
+     */
+    private void collect(Entry<K, V> x, K from, K to, boolean toInclusive, List<Interval<K, V>> result) {
+        while (x != null && compare(x.maxEnd, from) > 0) {
+            collect(x.left, from, to, toInclusive, result);
+            int cmp = compare(x.key, to);
+            if (cmp > 0 || (cmp == 0 && !toInclusive))
+                return; // x和它的右子树的起点都不小于to
+            if (compare(x.end, from) > 0)
+                result.add(exportInterval(x));
+            x = x.right;
+        }
+    }
+
+    /**
+     * 是否存在与[from, to)重叠的区间，O(log n)
+     * 左子树的maxEnd大于from时只需要查找左子树：左子树中终点最大的区间如果不与[from, to)重叠，
+     * 那么它的起点不小于to，右子树中所有区间的起点更不小于to
+     *
+     * @throws IllegalArgumentException 如果from大于to
+     */
+    public boolean overlaps(K from, K to) {
+        int cmp = compare(from, to);
+        if (cmp > 0)
+            throw new IllegalArgumentException("from > to");
+        Entry<K, V> x = (cmp < 0) ? root : null;
+        while (x != null) {
+            if (compare(x.key, to) < 0 && compare(x.end, from) > 0)
+                return true;
+            if (x.left != null && compare(x.left.maxEnd, from) > 0)
+                x = x.left;
+            else
+                x = x.right;
+        }
+        return false;
+    }
+
+    /**
+     * 按起点的顺序返回所有区间的迭代器，支持remove
+     */
+    public Iterator<Interval<K, V>> iterator() {
+        return new IntervalIterator(getFirstEntry());
+    }
+
+    final class IntervalIterator implements Iterator<Interval<K, V>> {
+        Entry<K, V> next;
+        Entry<K, V> lastReturned;
+        int expectedModCount;
+
+        IntervalIterator(Entry<K, V> first) {
+            expectedModCount = modCount;
+            next = first;
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public Interval<K, V> next() {
+            Entry<K, V> e = next;
+            if (e == null)
+                throw new NoSuchElementException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            next = successor(e);
+            lastReturned = e;
+            return exportInterval(e);
+        }
+
+        public void remove() {
+            if (lastReturned == null)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            // deleted entries are replaced by their successors
+            if (lastReturned.left != null && lastReturned.right != null)
+                next = lastReturned;
+            deleteEntry(lastReturned);
+            expectedModCount = modCount;
+            lastReturned = null;
+        }
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (Entry<K, V> e = getFirstEntry(); e != null; e = successor(e)) {
+            if (sb.length() > 1)
+                sb.append(", ");
+            sb.append(exportInterval(e));
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * 区间[start, end)及其value的快照
+     */
+    public static final class Interval<K, V> {
+        private final K start;
+        private final K end;
+        private final V value;
+
+        Interval(K start, K end, V value) {
+            this.start = start;
+            this.end = end;
+            this.value = value;
+        }
+
+        public K start() {
+            return start;
+        }
+
+        public K end() {
+            return end;
+        }
+
+        public V value() {
+            return value;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Interval))
+                return false;
+            Interval<?, ?> i = (Interval<?, ?>) o;
+            return Objects.equals(start, i.start) && Objects.equals(end, i.end)
+                    && Objects.equals(value, i.value);
+        }
+
+        public int hashCode() {
+            return Objects.hashCode(start) * 31 * 31 + Objects.hashCode(end) * 31 + Objects.hashCode(value);
+        }
+
+        public String toString() {
+            return "[" + start + ", " + end + ")=" + value;
+        }
+    }
+
+    private static <K, V> Interval<K, V> exportInterval(Entry<K, V> e) {
+        return (e == null) ? null : new Interval<>(e.key, e.end, e.value);
+    }
+
+    final int compare(Object k1, Object k2) {
+        return comparator == null ? ((Comparable<? super K>) k1).compareTo((K) k2)
+                : comparator.compare((K) k1, (K) k2);
+    }
+
+    // maxEnd的维护
+
+    /**
+     * 由x的终点和两个孩子的maxEnd重新计算x的maxEnd
+     */
+    private void updateMaxEnd(Entry<K, V> x) {
+        K max = x.end;
+        if (x.left != null && compare(x.left.maxEnd, max) > 0)
+            max = x.left.maxEnd;
+        if (x.right != null && compare(x.right.maxEnd, max) > 0)
+            max = x.right.maxEnd;
+        x.maxEnd = max;
+    }
+
+    private void updateMaxEndUpward(Entry<K, V> x) {
+        for (; x != null; x = x.parent)
+            updateMaxEnd(x);
+    }
+
+    // Red-black mechanics，同TreeMap7，旋转时更新maxEnd
+
+    private static final boolean RED = false;
+    private static final boolean BLACK = true;
+
+    /**
+     * 树的节点，key为区间的起点，maxEnd为以此节点为根的子树中最大的终点
+     */
+    static final class Entry<K, V> {
+        K key;
+        K end;
+        V value;
+        K maxEnd;
+        Entry<K, V> left;
+        Entry<K, V> right;
+        Entry<K, V> parent;
+        boolean color = BLACK;
+
+        Entry(K key, K end, V value, Entry<K, V> parent) {
+            this.key = key;
+            this.end = end;
+            this.value = value;
+            this.maxEnd = end;
+            this.parent = parent;
+        }
+    }
+
+    final Entry<K, V> getFirstEntry() {
+        Entry<K, V> p = root;
+        if (p != null)
+            while (p.left != null)
+                p = p.left;
+        return p;
+    }
+
+    static <K, V> Entry<K, V> successor(Entry<K, V> t) {
+        if (t == null)
+            return null;
+        else if (t.right != null) {
+            Entry<K, V> p = t.right;
+            while (p.left != null)
+                p = p.left;
+            return p;
+        } else {
+            Entry<K, V> p = t.parent;
+            Entry<K, V> ch = t;
+            while (p != null && ch == p.right) {
+                ch = p;
+                p = p.parent;
+            }
+            return p;
+        }
+    }
+
+    private static <K, V> boolean colorOf(Entry<K, V> p) {
+        return (p == null ? BLACK : p.color);
+    }
+
+    private static <K, V> Entry<K, V> parentOf(Entry<K, V> p) {
+        return (p == null ? null : p.parent);
+    }
+
+    private static <K, V> void setColor(Entry<K, V> p, boolean c) {
+        if (p != null)
+            p.color = c;
+    }
+
+    private static <K, V> Entry<K, V> leftOf(Entry<K, V> p) {
+        return (p == null) ? null : p.left;
+    }
+
+    private static <K, V> Entry<K, V> rightOf(Entry<K, V> p) {
+        return (p == null) ? null : p.right;
+    }
+
+    /**
+     * 旋转只改变p和r两个节点的子树，先更新下层的p再更新上层的r
+     */
+    private void rotateLeft(Entry<K, V> p) {
+        if (p != null) {
+            Entry<K, V> r = p.right;
+            p.right = r.left;
+            if (r.left != null)
+                r.left.parent = p;
+            r.parent = p.parent;
+            if (p.parent == null)
+                root = r;
+            else if (p.parent.left == p)
+                p.parent.left = r;
+            else
+                p.parent.right = r;
+            r.left = p;
+            p.parent = r;
+            updateMaxEnd(p);
+            updateMaxEnd(r);
+        }
+    }
+
+    private void rotateRight(Entry<K, V> p) {
+        if (p != null) {
+            Entry<K, V> l = p.left;
+            p.left = l.right;
+            if (l.right != null) l.right.parent = p;
+            l.parent = p.parent;
+            if (p.parent == null)
+                root = l;
+            else if (p.parent.right == p)
+                p.parent.right = l;
+            else p.parent.left = l;
+            l.right = p;
+            p.parent = l;
+            updateMaxEnd(p);
+            updateMaxEnd(l);
+        }
+    }
+
+    private void fixAfterInsertion(Entry<K, V> x) {
+        x.color = RED;
+
+        while (x != null && x != root && x.parent.color == RED) {
+            if (parentOf(x) == leftOf(parentOf(parentOf(x)))) {
+                Entry<K, V> y = rightOf(parentOf(parentOf(x)));
+                if (colorOf(y) == RED) {
+                    setColor(parentOf(x), BLACK);
+                    setColor(y, BLACK);
+                    setColor(parentOf(parentOf(x)), RED);
+                    x = parentOf(parentOf(x));
+                } else {
+                    if (x == rightOf(parentOf(x))) {
+                        x = parentOf(x);
+                        rotateLeft(x);
+                    }
+                    setColor(parentOf(x), BLACK);
+                    setColor(parentOf(parentOf(x)), RED);
+                    rotateRight(parentOf(parentOf(x)));
+                }
+            } else {
+                Entry<K, V> y = leftOf(parentOf(parentOf(x)));
+                if (colorOf(y) == RED) {
+                    setColor(parentOf(x), BLACK);
+                    setColor(y, BLACK);
+                    setColor(parentOf(parentOf(x)), RED);
+                    x = parentOf(parentOf(x));
+                } else {
+                    if (x == leftOf(parentOf(x))) {
+                        x = parentOf(x);
+                        rotateRight(x);
+                    }
+                    setColor(parentOf(x), BLACK);
+                    setColor(parentOf(parentOf(x)), RED);
+                    rotateLeft(parentOf(parentOf(x)));
+                }
+            }
+        }
+        root.color = BLACK;
+    }
+
+    /**
+     * 删除节点p并重新平衡，同TreeMap7：有两个孩子时把后继的区间复制到p，转而删除后继节点
+     * 每次改变子树的内容之后立即更新到根节点的路径上的maxEnd，使重新平衡的每次旋转都基于正确的maxEnd
+     */
+    private void deleteEntry(Entry<K, V> p) {
+        modCount++;
+        size--;
+
+        if (p.left != null && p.right != null) {
+            Entry<K, V> s = successor(p);
+            p.key = s.key;
+            p.end = s.end;
+            p.value = s.value;
+            updateMaxEndUpward(p);
+            p = s;
+        }
+
+        Entry<K, V> replacement = (p.left != null ? p.left : p.right);
+
+        if (replacement != null) {
+            replacement.parent = p.parent;
+            if (p.parent == null)
+                root = replacement;
+            else if (p == p.parent.left)
+                p.parent.left = replacement;
+            else
+                p.parent.right = replacement;
+
+            p.left = p.right = p.parent = null;
+            updateMaxEndUpward(replacement.parent);
+
+            if (p.color == BLACK)
+                fixAfterDeletion(replacement);
+        } else if (p.parent == null) {
+            root = null;
+        } else {
+            if (p.color == BLACK)
+                fixAfterDeletion(p);
+
+            Entry<K, V> parent = p.parent;
+            if (parent != null) {
+                if (p == parent.left)
+                    parent.left = null;
+                else if (p == parent.right)
+                    parent.right = null;
+                p.parent = null;
+                updateMaxEndUpward(parent);
+            }
+        }
+    }
+
+    private void fixAfterDeletion(Entry<K, V> x) {
+        while (x != root && colorOf(x) == BLACK) {
+            if (x == leftOf(parentOf(x))) {
+                Entry<K, V> sib = rightOf(parentOf(x));
+
+                if (colorOf(sib) == RED) {
+                    setColor(sib, BLACK);
+                    setColor(parentOf(x), RED);
+                    rotateLeft(parentOf(x));
+                    sib = rightOf(parentOf(x));
+                }
+
+                if (colorOf(leftOf(sib)) == BLACK &&
+                        colorOf(rightOf(sib)) == BLACK) {
+                    setColor(sib, RED);
+                    x = parentOf(x);
+                } else {
+                    if (colorOf(rightOf(sib)) == BLACK) {
+                        setColor(leftOf(sib), BLACK);
+                        setColor(sib, RED);
+                        rotateRight(sib);
+                        sib = rightOf(parentOf(x));
+                    }
+                    setColor(sib, colorOf(parentOf(x)));
+                    setColor(parentOf(x), BLACK);
+                    setColor(rightOf(sib), BLACK);
+                    rotateLeft(parentOf(x));
+                    x = root;
+                }
+            } else { // symmetric
+                Entry<K, V> sib = leftOf(parentOf(x));
+
+                if (colorOf(sib) == RED) {
+                    setColor(sib, BLACK);
+                    setColor(parentOf(x), RED);
+                    rotateRight(parentOf(x));
+                    sib = leftOf(parentOf(x));
+                }
+
+                if (colorOf(rightOf(sib)) == BLACK &&
+                        colorOf(leftOf(sib)) == BLACK) {
+                    setColor(sib, RED);
+                    x = parentOf(x);
+                } else {
+                    if (colorOf(leftOf(sib)) == BLACK) {
+                        setColor(rightOf(sib), BLACK);
+                        setColor(sib, RED);
+                        rotateLeft(sib);
+                        sib = leftOf(parentOf(x));
+                    }
+                    setColor(sib, colorOf(parentOf(x)));
+                    setColor(parentOf(x), BLACK);
+                    setColor(leftOf(sib), BLACK);
+                    rotateRight(parentOf(x));
+                    x = root;
+                }
+            }
+        }
+
+        setColor(x, BLACK);
+    }
+}
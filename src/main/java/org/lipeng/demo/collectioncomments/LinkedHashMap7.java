@@ -1,5 +1,16 @@
 package org.lipeng.demo.collectioncomments;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 /**
@@ -127,6 +138,17 @@ public class LinkedHashMap7<K, V>
      */
     private final boolean accessOrder;
 
+    /**
+     * 缓存统计信息的累加器，默认为null即不统计，调用{@link #recordStats()}之后开启
+     */
+    private transient CacheStats7.Recorder stats;
+
+    /**
+     * 最大元素个数，0表示不限制，通过{@link #setMaximumSize(int)}设置
+     * put之后size超过此值时，从最老的entry开始批量淘汰
+     */
+    private transient int maximumSize;
+
     /**
      * 构造一个空的插入顺序的LinkedHashMap7
      */
@@ -176,6 +198,105 @@ public class LinkedHashMap7<K, V>
         // 初始化头结点，它的before和after都指向它本身
         header = new Entry<>(-1, null, null, null);
         header.before = header.after = header;
+        // clone时不与原map共用计数器
+        if (stats != null)
+            stats = new CacheStats7.Recorder();
+    }
+
+    /**
+     * 开启缓存统计：get的命中/未命中次数，removeEldestEntry触发的淘汰次数以及被淘汰entry的存活时间
+     * 开启之前已经存在的entry没有创建时间，淘汰时按存活时间0统计
+     */
+    public void recordStats() {
+        if (stats == null)
+            stats = new CacheStats7.Recorder();
+    }
+
+    /**
+     * 返回当前统计信息的快照，未开启统计时返回全0的快照
+     */
+    public CacheStats7 stats() {
+        CacheStats7.Recorder s = stats;
+        return (s == null) ? new CacheStats7(0, 0, 0, 0, 0, 0, 0) : s.snapshot();
+    }
+
+    /**
+     * 返回统计信息的累加器，供在此map之上回源加载的代码记录加载耗时，未开启统计时返回null
+     */
+    public CacheStats7.Recorder statsRecorder() {
+        return stats;
+    }
+
+    /**
+     * 设置最大元素个数，如果当前size已经超过，立即调用{@link #evictTo(int)}淘汰多出的最老的entry并缩容table数组
+     * 之后每次put新key导致size超过maximumSize时，都会淘汰到maximumSize
+     * 此限制与{@link #removeEldestEntry(Map.Entry)}相互独立，两者可以同时生效
+     *
+     * @param maximumSize 最大元素个数，必须>0
+     * @throws IllegalArgumentException 如果maximumSize<=0
+     */
+    public void setMaximumSize(int maximumSize) {
+        if (maximumSize <= 0)
+            throw new IllegalArgumentException("Illegal maximum size: " + maximumSize);
+        this.maximumSize = maximumSize;
+        if (size > maximumSize)
+            evictTo(maximumSize);
+    }
+
+    /**
+     * 返回最大元素个数，没有设置时返回Integer.MAX_VALUE
+     */
+    public int getMaximumSize() {
+        return maximumSize == 0 ? Integer.MAX_VALUE : maximumSize;
+    }
+
+    /**
+     * 从双向链表的头部（最老的entry）开始批量淘汰，直到size<=targetSize
+     * 被淘汰的entry逐个从table的桶链表中摘除，而双向链表只在最后把header和第一个保留的entry连接起来，一次完成；
+     * 淘汰之后如果table数组过大，则缩容
+     * 整个过程只算一次结构修改（modCount只加1）
+     *
+     * @param targetSize 淘汰之后的size
+     * @return 被淘汰的entry的个数
+     * @throws IllegalArgumentException 如果targetSize<0
+     */
+    public int evictTo(int targetSize) {
+        if (targetSize < 0)
+            throw new IllegalArgumentException("Illegal target size: " + targetSize);
+        int count = size - targetSize;
+        if (count <= 0)
+            return 0;
+        CacheStats7.Recorder s = stats;
+        long now = (s == null) ? 0 : System.nanoTime();
+        Entry<K, V> e = header.after;
+        for (int i = 0; i < count; i++) {
+            unlinkFromTable(e);
+            if (s != null)
+                s.recordEviction(e.createTime == 0 ? 0 : now - e.createTime);
+            e = e.after;
+        }
+        // e为第一个保留的entry（全部淘汰时为header）
+        header.after = e;
+        e.before = header;
+        size -= count;
+        modCount++;
+        shrinkTable();
+        return count;
+    }
+
+    /**
+     * 将e从table数组的桶链表中摘除，不修改双向链表和size
+     */
+    private void unlinkFromTable(Entry<K, V> e) {
+        int i = indexFor(e.hash, table.length);
+        HashMap7.Entry<K, V> prev = table[i];
+        if (prev == e) {
+            table[i] = e.next;
+            return;
+        }
+        while (prev.next != e)
+            prev = prev.next;
+        prev.next = e.next;
     }
 
     /**
@@ -235,8 +356,14 @@ public class LinkedHashMap7<K, V>
      */
     public V get(Object key) {
         Entry<K, V> e = (Entry<K, V>) getEntry(key);
-        if (e == null)
+        CacheStats7.Recorder s = stats;
+        if (e == null) {
+            if (s != null)
+                s.recordMisses(1);
             return null;
+        }
+        if (s != null)
+            s.recordHits(1);
         e.recordAccess(this);
         return e.value;
     }
@@ -256,6 +383,8 @@ public class LinkedHashMap7<K, V>
     private static class Entry<K, V> extends HashMap7.Entry<K, V> {
         // These fields comprise the doubly linked list used for iteration.
         Entry<K, V> before, after;
+        // 创建时间（System.nanoTime()），只有开启统计时才赋值，用于计算被淘汰时的存活时间
+        long createTime;
 
         Entry(int hash, K key, V value, HashMap7.Entry<K, V> next) {
             super(hash, key, value, next);
@@ -314,15 +443,25 @@ public class LinkedHashMap7<K, V>
             }
         }
 
-        void recordRemoval(HashMap<K, V> m) {
+        void recordRemoval(HashMap7<K, V> m) {
             remove();
         }
     }
 
     private abstract class LinkedHashIterator<T> implements Iterator<T> {
-        Entry<K, V> nextEntry = header.after;// 第一个加入的节点
+        Entry<K, V> nextEntry;
         Entry<K, V> lastReturned = null;
 
+        /**
+         * 为true时沿着before指针从新到老迭代
+         */
+        final boolean descending;
+
+        /**
+         * 还能返回的节点个数，用于firstN/lastN视图
+         */
+        int remaining;
+
         /**
          * The modCount value that the iterator believes that the backing
          * List should have.  If this expectation is violated, the iterator
@@ -330,8 +469,18 @@ public class LinkedHashMap7<K, V>
          */
         int expectedModCount = modCount;
 
+        LinkedHashIterator() {
+            this(header.after, false, Integer.MAX_VALUE);// 第一个加入的节点
+        }
+
+        LinkedHashIterator(Entry<K, V> first, boolean descending, int limit) {
+            this.nextEntry = first;
+            this.descending = descending;
+            this.remaining = limit;
+        }
+
         public boolean hasNext() {
-            return nextEntry != header;
+            return nextEntry != header && remaining > 0;
         }
 
         public void remove() {
@@ -348,16 +497,24 @@ public class LinkedHashMap7<K, V>
         Entry<K, V> nextEntry() {
             if (modCount != expectedModCount)
                 throw new ConcurrentModificationException();
-            if (nextEntry == header)
+            if (nextEntry == header || remaining <= 0)
                 throw new NoSuchElementException();
-            // 将当前节点返回，并记录作为最后一个返回的节点，并把nextEntry指向e.after
+            // 将当前节点返回，并记录作为最后一个返回的节点，并把nextEntry指向e.after(倒序时为e.before)
             Entry<K, V> e = lastReturned = nextEntry;
-            nextEntry = e.after;
+            nextEntry = descending ? e.before : e.after;
+            remaining--;
             return e;
         }
     }
 
     private class KeyIterator extends LinkedHashIterator<K> {
+        KeyIterator() {
+        }
+
+        KeyIterator(Entry<K, V> first, boolean descending, int limit) {
+            super(first, descending, limit);
+        }
+
         public K next() {
             return nextEntry().getKey();
         }
@@ -370,11 +527,188 @@ public class LinkedHashMap7<K, V>
     }
 
     private class EntryIterator extends LinkedHashIterator<Map.Entry<K, V>> {
+        EntryIterator() {
+        }
+
+        EntryIterator(Entry<K, V> first, boolean descending, int limit) {
+            super(first, descending, limit);
+        }
+
         public Map.Entry<K, V> next() {
             return nextEntry();
         }
     }
 
+    /**
+     * 倒序迭代全部的key：插入顺序模式下从最后插入的开始，访问顺序模式下从最近访问的开始
+     * 迭代器是fail-fast的，支持remove
+     */
+    public Iterator<K> descendingKeyIterator() {
+        return new KeyIterator(header.before, true, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 倒序迭代全部的entry，顺序同{@link #descendingKeyIterator()}
+     */
+    public Iterator<Map.Entry<K, V>> descendingEntryIterator() {
+        return new EntryIterator(header.before, true, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 返回链表头部的最多n个entry（最老的n个）组成的视图，按照链表顺序迭代
+     * 视图的迭代只访问这n个节点，时间复杂度O(n)，与map的size无关；视图会反映map之后的变化
+     *
+     * @throws IllegalArgumentException 如果n<0
+     */
+    public Collection<Map.Entry<K, V>> firstN(int n) {
+        if (n < 0)
+            throw new IllegalArgumentException("Illegal count: " + n);
+        return new BoundedEntries(false, n);
+    }
+
+    /**
+     * 返回链表尾部的最多n个entry（最新的n个，访问顺序模式下即最近访问的n个）组成的视图，
+     * 同样按照链表顺序（从老到新）迭代，因此按迭代顺序重新put到另一个map可以得到相同的顺序
+     * 需要从新到老的顺序时使用{@link #descendingEntryIterator()}
+     *
+     * @throws IllegalArgumentException 如果n<0
+     */
+    public Collection<Map.Entry<K, V>> lastN(int n) {
+        if (n < 0)
+            throw new IllegalArgumentException("Illegal count: " + n);
+        return new BoundedEntries(true, n);
+    }
+
+    /**
+     * firstN/lastN视图，每次迭代时根据当前的链表确定起点
+     */
+    private final class BoundedEntries extends AbstractCollection<Map.Entry<K, V>> {
+        private final boolean fromTail;
+        private final int n;
+
+        BoundedEntries(boolean fromTail, int n) {
+            this.fromTail = fromTail;
+            this.n = n;
+        }
+
+        public Iterator<Map.Entry<K, V>> iterator() {
+            int count = size();
+            Entry<K, V> first = header.after;
+            if (fromTail) {
+                // 从header往回走count步，找到尾部count个节点中最老的那个
+                first = header;
+                for (int i = 0; i < count; i++)
+                    first = first.before;
+            }
+            return new EntryIterator(first, false, count);
+        }
+
+        public int size() {
+            return Math.min(n, LinkedHashMap7.this.size);
+        }
+    }
+
+    /**
+     * dump文件的魔数 "LHM7"
+     */
+    private static final int DUMP_MAGIC = 0x4c484d37;
+
+    /**
+     * 将链表尾部的最多k个entry（访问顺序模式下即最热的k个）按照从老到新的顺序写入file，用于重启后预热缓存
+     * 先写入临时文件再重命名，写到一半失败不会破坏已有的dump文件，失败时删除临时文件
+     *
+     * @return 写入的entry的个数
+     * @see #restore(Path, Codec7, Codec7)
+     */
+    public int dump(Path file, int k, Codec7<? super K> keyCodec, Codec7<? super V> valueCodec)
+            throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        boolean moved = false;
+        try {
+            int count;
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                count = dump(ch, k, keyCodec, valueCodec);
+                ch.force(false);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+            return count;
+        } finally {
+            if (!moved)
+                Records7.deleteQuietly(tmp);
+        }
+    }
+
+    /**
+     * 将链表尾部的最多k个entry按照从老到新的顺序写入ch
+     * 格式：魔数(int) 个数(int)，然后每个entry依次是 key长度(int) key字节 value长度(int) value字节，
+     * null的长度写为-1；所有整数为大端序
+     * 只遍历这k个节点，与map的size无关
+     *
+     * @return 写入的entry的个数
+     */
+    public int dump(WritableByteChannel ch, int k, Codec7<? super K> keyCodec,
+                    Codec7<? super V> valueCodec) throws IOException {
+        Collection<Map.Entry<K, V>> hot = lastN(k);
+        ByteBuffer buf = ByteBuffer.allocate(Records7.BUFFER_SIZE);
+        buf.putInt(DUMP_MAGIC).putInt(hot.size());
+        int count = 0;
+        for (Map.Entry<K, V> e : hot) {
+            K key = e.getKey();
+            V value = e.getValue();
+            buf = Records7.putRecord(ch, buf, key == null ? null : keyCodec.encode(key));
+            buf = Records7.putRecord(ch, buf, value == null ? null : valueCodec.encode(value));
+            count++;
+        }
+        Records7.drain(ch, buf);
+        return count;
+    }
+
+    /**
+     * 从dump文件恢复，按照文件中的顺序put，因此链表的顺序与dump时相同（最热的在链表尾部）
+     * 一般在map为空时调用；已经存在的key按照put的语义处理
+     *
+     * @return 读取的entry的个数
+     * @see #dump(Path, int, Codec7, Codec7)
+     */
+    public int restore(Path file, Codec7<? extends K> keyCodec, Codec7<? extends V> valueCodec)
+            throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return restore(ch, keyCodec, valueCodec);
+        }
+    }
+
+    /**
+     * 从ch读取{@link #dump(WritableByteChannel, int, Codec7, Codec7)}写入的entry并按顺序put
+     *
+     * @throws StreamCorruptedException 如果不是dump格式
+     * @throws EOFException             如果数据不完整
+     */
+    public int restore(ReadableByteChannel ch, Codec7<? extends K> keyCodec,
+                       Codec7<? extends V> valueCodec) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(Records7.BUFFER_SIZE);
+        buf.flip();
+        buf = Records7.fill(ch, buf, 8);
+        if (buf.getInt() != DUMP_MAGIC)
+            throw new StreamCorruptedException("Not a LinkedHashMap7 dump");
+        int count = buf.getInt();
+        if (count < 0)
+            throw new StreamCorruptedException("Illegal entry count: " + count);
+        for (int i = 0; i < count; i++) {
+            buf = Records7.fill(ch, buf, 4);
+            int keyLength = buf.getInt();
+            buf = Records7.fill(ch, buf, Math.max(keyLength, 0));
+            byte[] kb = Records7.getRecord(buf, keyLength);
+            buf = Records7.fill(ch, buf, 4);
+            int valueLength = buf.getInt();
+            buf = Records7.fill(ch, buf, Math.max(valueLength, 0));
+            byte[] vb = Records7.getRecord(buf, valueLength);
+            put(kb == null ? null : keyCodec.decode(kb), vb == null ? null : valueCodec.decode(vb));
+        }
+        return count;
+    }
+
     // These Overrides alter the behavior of superclass view iterator() methods
     Iterator<K> newKeyIterator() {
         return new KeyIterator();
@@ -403,7 +737,13 @@ public class LinkedHashMap7<K, V>
         Entry<K, V> eldest = header.after;
         if (removeEldestEntry(eldest)) {
             removeEntryForKey(eldest.key);
+            CacheStats7.Recorder s = stats;
+            if (s != null)
+                s.recordEviction(eldest.createTime == 0 ? 0 : System.nanoTime() - eldest.createTime);
         }
+        // 超过了最大元素个数，批量淘汰
+        if (maximumSize > 0 && size > maximumSize)
+            evictTo(maximumSize);
     }
 
     /**
@@ -412,6 +752,8 @@ public class LinkedHashMap7<K, V>
     void createEntry(int hash, K key, V value, int bucketIndex) {
         HashMap7.Entry<K, V> old = table[bucketIndex];
         Entry<K, V> e = new Entry<>(hash, key, value, old);
+        if (stats != null)
+            e.createTime = System.nanoTime();
         table[bucketIndex] = e;
         // 与父类HashMap的不同之处：将创建的entry，添加到双向链表的首位
         e.addBefore(header);
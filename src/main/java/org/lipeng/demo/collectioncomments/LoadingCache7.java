@@ -0,0 +1,487 @@
+package org.lipeng.demo.collectioncomments;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 基于访问顺序的{@link LinkedHashMap7}实现的线程安全的LRU加载缓存
+ * <p>
+ * 未命中时通过{@link CacheLoader7}加载，同一个key同时只有一个加载在进行：
+ * 第一个未命中的线程负责加载，其他同时未命中的线程等待这次加载的结果，而不是各自去访问后端（防止缓存击穿）
+ * <p>
+ * 可选的两个时间参数：
+ * expireAfterWrite：写入之后超过此时间，entry过期，下一次get需要重新加载；
+ * refreshAfterWrite：写入之后超过此时间（应该小于expireAfterWrite），下一次get返回旧值，同时在executor中异步刷新，
+ * 这样热点key在过期之前就已经被刷新了，不会出现大量线程同时未命中；
+ * 没有executor时在调用get的线程中同步刷新，这次get等待刷新完成并返回新值（刷新失败时返回旧值）
+ * <p>
+ * LinkedHashMap7本身不是线程安全的（访问顺序模式下get也是结构修改），所有对map的访问都在lock中进行，
+ * 加载在lock之外进行
+ *
+ * @param <K> key的类型
+ * @param <V> value的类型
+ */
+public class LoadingCache7<K, V> {
+
+    /**
+     * 保护map和loading的锁
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * 存放缓存值的LRU map，size超过maximumSize时淘汰最久未访问的entry
+     */
+    private final LinkedHashMap7<K, Holder<V>> map;
+
+    /**
+     * 正在进行中的加载（包括刷新），key -> 这次加载的结果
+     */
+    private final HashMap7<K, LoadingFuture<V>> loading = new HashMap7<>();
+
+    private final CacheLoader7<? super K, V> loader;
+    private final int maximumSize;
+    private final long expireAfterWriteNanos;
+    private final long refreshAfterWriteNanos;
+
+    /**
+     * 执行异步刷新，为null时在调用线程中同步刷新
+     */
+    private final Executor executor;
+
+    private final CacheStats7.Recorder stats = new CacheStats7.Recorder();
+
+    /**
+     * 创建一个不会过期的缓存
+     */
+    public LoadingCache7(CacheLoader7<? super K, V> loader, int maximumSize) {
+        this(loader, maximumSize, 0, 0, TimeUnit.NANOSECONDS, null);
+    }
+
+    /**
+     * @param loader            加载器
+     * @param maximumSize       最大元素个数，必须>0
+     * @param expireAfterWrite  写入之后多长时间过期，0表示不过期
+     * @param refreshAfterWrite 写入之后多长时间异步刷新，0表示不刷新
+     * @param unit              expireAfterWrite和refreshAfterWrite的时间单位
+     * @param executor          执行异步刷新的线程池，为null时在调用get的线程中同步刷新，get返回刷新后的值
+     */
+    public LoadingCache7(CacheLoader7<? super K, V> loader, int maximumSize,
+                         long expireAfterWrite, long refreshAfterWrite,
+                         TimeUnit unit, Executor executor) {
+        if (loader == null || unit == null)
+            throw new NullPointerException();
+        if (maximumSize <= 0)
+            throw new IllegalArgumentException("Illegal maximum size: " + maximumSize);
+        if (expireAfterWrite < 0 || refreshAfterWrite < 0)
+            throw new IllegalArgumentException("durations must be non-negative");
+        this.loader = loader;
+        this.maximumSize = maximumSize;
+        this.expireAfterWriteNanos = unit.toNanos(expireAfterWrite);
+        this.refreshAfterWriteNanos = unit.toNanos(refreshAfterWrite);
+        this.executor = executor;
+        this.map = new LinkedHashMap7<K, Holder<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Holder<V>> eldest) {
+                if (size() <= LoadingCache7.this.maximumSize)
+                    return false;
+                stats.recordEviction(System.nanoTime() - eldest.getValue().writeTime);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * 返回key对应的值，未命中（或已过期）时加载
+     * 如果这个key已经有其他线程在加载，则等待那次加载的结果
+     *
+     * @throws ExecutionException 加载失败或者加载器返回了null
+     */
+    public V get(K key) throws ExecutionException {
+        LoadingFuture<V> future;
+        LoadingFuture<V> refresh = null;
+        V oldValue = null;
+        boolean owner = false;
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            Holder<V> h = lookup(key, now);
+            if (h != null) {
+                stats.recordHits(1);
+                refresh = refreshIfNeeded(key, h, now);
+                if (refresh == null)
+                    return h.value;
+                oldValue = h.value;
+                future = null;
+            } else {
+                stats.recordMisses(1);
+                future = loading.get(key);
+                if (future == null) {
+                    future = new LoadingFuture<>();
+                    loading.put(key, future);
+                    owner = true;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (refresh != null)
+            return startRefresh(key, oldValue, refresh);
+        if (owner)
+            load(key, future);
+        return future.getUninterruptibly();
+    }
+
+    /**
+     * 批量获取，返回的map按照keys的顺序，重复的key只出现一次
+     * 所有未命中并且没有正在加载的key，通过一次{@link CacheLoader7#loadAll(Iterable)}调用加载
+     *
+     * @throws ExecutionException 任意一个key加载失败
+     */
+    public Map<K, V> getAll(Iterable<? extends K> keys) throws ExecutionException {
+        Map<K, V> result = new LinkedHashMap7<>();
+        Map<K, LoadingFuture<V>> waiting = new LinkedHashMap7<>();
+        Map<K, LoadingFuture<V>> toLoad = new LinkedHashMap7<>();
+        List<K> refreshKeys = new ArrayList<>();
+        List<V> refreshValues = new ArrayList<>();
+        List<LoadingFuture<V>> refreshes = new ArrayList<>();
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            for (K key : keys) {
+                if (result.containsKey(key))
+                    continue;
+                Holder<V> h = lookup(key, now);
+                if (h != null) {
+                    stats.recordHits(1);
+                    result.put(key, h.value);
+                    LoadingFuture<V> refresh = refreshIfNeeded(key, h, now);
+                    if (refresh != null) {
+                        refreshKeys.add(key);
+                        refreshValues.add(h.value);
+                        refreshes.add(refresh);
+                    }
+                    continue;
+                }
+                stats.recordMisses(1);
+                LoadingFuture<V> future = loading.get(key);
+                if (future == null) {
+                    future = new LoadingFuture<>();
+                    loading.put(key, future);
+                    toLoad.put(key, future);
+                }
+                // 先占住位置，保证返回结果的顺序
+                result.put(key, null);
+                waiting.put(key, future);
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (int i = 0; i < refreshes.size(); i++)
+            result.put(refreshKeys.get(i), startRefresh(refreshKeys.get(i), refreshValues.get(i), refreshes.get(i)));
+        if (!toLoad.isEmpty())
+            loadAll(toLoad);
+        for (Map.Entry<K, LoadingFuture<V>> e : waiting.entrySet())
+            result.put(e.getKey(), e.getValue().getUninterruptibly());
+        return result;
+    }
+
+    /**
+     * 返回缓存中key对应的值，未命中或已过期时返回null，不会触发加载
+     */
+    public V getIfPresent(Object key) {
+        lock.lock();
+        try {
+            Holder<V> h = lookup(key, System.nanoTime());
+            if (h == null) {
+                stats.recordMisses(1);
+                return null;
+            }
+            stats.recordHits(1);
+            return h.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 直接放入一个值，正在进行中的加载（刷新）的结果将被丢弃
+     */
+    public void put(K key, V value) {
+        if (value == null)
+            throw new NullPointerException();
+        lock.lock();
+        try {
+            loading.remove(key);
+            map.put(key, new Holder<>(value, System.nanoTime()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 异步刷新key对应的值，刷新完成之前get仍然返回旧值
+     * 缓存中没有这个key或者已经在加载时，什么也不做
+     */
+    public void refresh(K key) {
+        LoadingFuture<V> refresh;
+        V oldValue;
+        lock.lock();
+        try {
+            Holder<V> h = lookup(key, System.nanoTime());
+            if (h == null || loading.containsKey(key))
+                return;
+            refresh = new LoadingFuture<>();
+            loading.put(key, refresh);
+            oldValue = h.value;
+        } finally {
+            lock.unlock();
+        }
+        startRefresh(key, oldValue, refresh);
+    }
+
+    /**
+     * 移除key对应的值，正在进行中的加载的结果不会再放入缓存（等待这次加载的线程仍然能得到结果）
+     */
+    public void invalidate(Object key) {
+        lock.lock();
+        try {
+            loading.remove(key);
+            map.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            loading.clear();
+            map.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 缓存中的元素个数，可能包含已过期但还没有被清除的entry
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return map.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public CacheStats7 stats() {
+        return stats.snapshot();
+    }
+
+    /**
+     * 在map中查找key，过期的entry会被移除并当做未命中，必须持有lock
+     */
+    private Holder<V> lookup(Object key, long now) {
+        Holder<V> h = map.get(key);
+        if (h != null && expireAfterWriteNanos > 0 && now - h.writeTime >= expireAfterWriteNanos) {
+            map.remove(key);
+            return null;
+        }
+        return h;
+    }
+
+    /**
+     * 如果h需要刷新，并且这个key没有正在进行的加载，注册一个刷新并返回，否则返回null，必须持有lock
+     */
+    private LoadingFuture<V> refreshIfNeeded(K key, Holder<V> h, long now) {
+        if (refreshAfterWriteNanos == 0 || now - h.writeTime < refreshAfterWriteNanos ||
+                loading.containsKey(key))
+            return null;
+        LoadingFuture<V> refresh = new LoadingFuture<>();
+        loading.put(key, refresh);
+        return refresh;
+    }
+
+    /**
+     * 在当前线程中加载key，由注册了future的线程调用，不能持有lock
+     */
+    private void load(K key, LoadingFuture<V> future) {
+        long start = System.nanoTime();
+        V value;
+        try {
+            value = loader.load(key);
+            if (value == null)
+                throw new NullPointerException("CacheLoader returned null for key " + key);
+        } catch (Throwable t) {
+            stats.recordLoadFailure(System.nanoTime() - start);
+            fail(key, future, t);
+            return;
+        }
+        stats.recordLoadSuccess(System.nanoTime() - start);
+        complete(key, future, value);
+    }
+
+    /**
+     * 通过一次loadAll加载toLoad中的全部key，不能持有lock
+     */
+    private void loadAll(Map<K, LoadingFuture<V>> toLoad) {
+        long start = System.nanoTime();
+        Map<K, V> loaded;
+        try {
+            loaded = (Map<K, V>) loader.loadAll(toLoad.keySet());
+            if (loaded == null)
+                throw new NullPointerException("CacheLoader returned null map");
+        } catch (Throwable t) {
+            stats.recordLoadFailure(System.nanoTime() - start);
+            for (Map.Entry<K, LoadingFuture<V>> e : toLoad.entrySet())
+                fail(e.getKey(), e.getValue(), t);
+            return;
+        }
+        stats.recordLoadSuccess(System.nanoTime() - start);
+        for (Map.Entry<K, LoadingFuture<V>> e : toLoad.entrySet()) {
+            V value = loaded.get(e.getKey());
+            if (value == null)
+                fail(e.getKey(), e.getValue(),
+                        new NullPointerException("loadAll returned no value for key " + e.getKey()));
+            else
+                complete(e.getKey(), e.getValue(), value);
+        }
+    }
+
+    /**
+     * 在executor中刷新key，刷新失败时保留旧值
+     * executor拒绝执行时这次刷新按失败处理，否则这个key会一直停留在loading中，
+     * 之后既不会再被刷新，过期后的get也会一直等待这次不会完成的刷新
+     *
+     * @return 调用者应该返回的值：没有executor并且刷新成功时是新值，否则是旧值
+     */
+    private V startRefresh(final K key, final V oldValue, final LoadingFuture<V> refresh) {
+        Runnable task = new Runnable() {
+            public void run() {
+                long start = System.nanoTime();
+                V value;
+                try {
+                    value = loader.reload(key, oldValue);
+                    if (value == null)
+                        throw new NullPointerException("CacheLoader returned null for key " + key);
+                } catch (Throwable t) {
+                    stats.recordLoadFailure(System.nanoTime() - start);
+                    fail(key, refresh, t);
+                    return;
+                }
+                stats.recordLoadSuccess(System.nanoTime() - start);
+                complete(key, refresh, value);
+            }
+        };
+        if (executor == null) {
+            task.run();
+            return refresh.getNow(oldValue);
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            fail(key, refresh, e);
+        }
+        return oldValue;
+    }
+
+    /**
+     * 加载成功，如果这次加载没有被put或invalidate取代，将值放入缓存，然后唤醒等待的线程
+     */
+    private void complete(K key, LoadingFuture<V> future, V value) {
+        lock.lock();
+        try {
+            if (loading.get(key) == future) {
+                loading.remove(key);
+                map.put(key, new Holder<>(value, System.nanoTime()));
+            }
+        } finally {
+            lock.unlock();
+        }
+        future.set(value);
+    }
+
+    /**
+     * 加载失败，缓存中原有的值（刷新时）保持不变，唤醒等待的线程
+     */
+    private void fail(K key, LoadingFuture<V> future, Throwable t) {
+        lock.lock();
+        try {
+            if (loading.get(key) == future)
+                loading.remove(key);
+        } finally {
+            lock.unlock();
+        }
+        future.setException(t);
+    }
+
+    /**
+     * 缓存的值以及写入的时间
+     */
+    private static final class Holder<V> {
+        final V value;
+        final long writeTime;
+
+        Holder(V value, long writeTime) {
+            this.value = value;
+            this.writeTime = writeTime;
+        }
+    }
+
+    /**
+     * 一次进行中的加载，所有等待同一个key的线程共享
+     */
+    private static final class LoadingFuture<V> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private V value;
+        private Throwable failure;
+
+        void set(V v) {
+            value = v;
+            done.countDown();
+        }
+
+        void setException(Throwable t) {
+            failure = t;
+            done.countDown();
+        }
+
+        /**
+         * 返回已经完成的加载的值，加载失败时返回valueIfFailed，只能在完成之后调用
+         */
+        V getNow(V valueIfFailed) {
+            return failure != null ? valueIfFailed : value;
+        }
+
+        /**
+         * 等待加载完成，等待期间被中断时继续等待，返回前恢复中断标记
+         */
+        V getUninterruptibly() throws ExecutionException {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        done.await();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+            }
+            // countDown之前的写对await之后的读可见
+            if (failure != null)
+                throw new ExecutionException(failure);
+            return value;
+        }
+    }
+}
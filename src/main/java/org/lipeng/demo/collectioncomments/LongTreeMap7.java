@@ -0,0 +1,713 @@
+package org.lipeng.demo.collectioncomments;
+
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * key为基本类型long的红黑树，红黑树的实现同TreeMap7
+ * <p>
+ * TreeMap7&lt;Long, V&gt;的每个key都是一个装箱的Long对象（16字节），Entry通过引用指向它，
+ * 查找时每一层都要调用Comparable.compareTo并且多访问一个对象。
+ * 这里Entry直接保存long类型的key，查找时直接用&lt;和&gt;比较，一个entry少一个对象，
+ * 并且get/put/remove以及ceilingKey/floorKey等关系查找方法的参数和返回值都是long，不会装箱
+ * <p>
+ * 为了不装箱，这个类没有实现Map&lt;Long, V&gt;接口，遍历使用{@link Cursor}或者{@link #keyIterator()}：
+ * <pre>
+ *     for (LongTreeMap7.Cursor&lt;V&gt; c = map.ceiling(from); c != null &amp;&amp; c.key() &lt; to; c = c.next())
+ *         ...
+ * </pre>
+ * xxxKey(long)方法在没有对应的key时抛出NoSuchElementException（同firstKey），
+ * 不确定是否存在时使用返回Cursor的同名方法，没有时返回null
+ * <p>
+ * 同TreeMap7，此实现不是同步的，Cursor和迭代器是fail-fast的
+ *
+ * @param <V> value的类型
+ * @see TreeMap7
+ */
+public class LongTreeMap7<V> implements Cloneable {
+
+    private transient Entry<V> root;
+    private transient int size;
+    private transient int modCount;
+
+    public LongTreeMap7() {
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return getEntry(key) != null;
+    }
+
+    public V get(long key) {
+        Entry<V> p = getEntry(key);
+        return (p == null ? null : p.value);
+    }
+
+    final Entry<V> getEntry(long key) {
+        Entry<V> p = root;
+        while (p != null) {
+            if (key < p.key)
+                p = p.left;
+            else if (key > p.key)
+                p = p.right;
+            else
+                return p;
+        }
+        return null;
+    }
+
+    public V put(long key, V value) {
+        Entry<V> t = root;
+        if (t == null) {
+            root = new Entry<>(key, value, null);
+            size = 1;
+            modCount++;
+            return null;
+        }
+        Entry<V> parent;
+        do {
+            parent = t;
+            if (key < t.key)
+                t = t.left;
+            else if (key > t.key)
+                t = t.right;
+            else
+                return t.setValue(value);
+        } while (t != null);
+        Entry<V> e = new Entry<>(key, value, parent);
+        if (key < parent.key)
+            parent.left = e;
+        else
+            parent.right = e;
+        fixAfterInsertion(e);
+        size++;
+        modCount++;
+        return null;
+    }
+
+    public V remove(long key) {
+        Entry<V> p = getEntry(key);
+        if (p == null)
+            return null;
+        V oldValue = p.value;
+        deleteEntry(p);
+        return oldValue;
+    }
+
+    public void clear() {
+        modCount++;
+        size = 0;
+        root = null;
+    }
+
+    /**
+     * 返回浅拷贝，key和树的结构被复制，value不被复制
+     */
+    public Object clone() {
+        LongTreeMap7<V> clone;
+        try {
+            clone = (LongTreeMap7<V>) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new InternalError();
+        }
+        clone.root = copy(root, null);
+        clone.modCount = 0;
+        return clone;
+    }
+
+    private static <V> Entry<V> copy(Entry<V> p, Entry<V> parent) {
+        if (p == null)
+            return null;
+        Entry<V> e = new Entry<>(p.key, p.value, parent);
+        e.color = p.color;
+        e.left = copy(p.left, e);
+        e.right = copy(p.right, e);
+        return e;
+    }
+
+    // 关系查找，参数和返回值都是long
+
+    public long firstKey() {
+        return key(getFirstEntry());
+    }
+
+    public long lastKey() {
+        return key(getLastEntry());
+    }
+
+    /**
+     * @return 大于等于key的最小的key
+     * @throws NoSuchElementException 没有这样的key
+     */
+    public long ceilingKey(long key) {
+        return key(getCeilingEntry(key));
+    }
+
+    /**
+     * @return 小于等于key的最大的key
+     * @throws NoSuchElementException 没有这样的key
+     */
+    public long floorKey(long key) {
+        return key(getFloorEntry(key));
+    }
+
+    /**
+     * @return 大于key的最小的key
+     * @throws NoSuchElementException 没有这样的key
+     */
+    public long higherKey(long key) {
+        return key(getHigherEntry(key));
+    }
+
+    /**
+     * @return 小于key的最大的key
+     * @throws NoSuchElementException 没有这样的key
+     */
+    public long lowerKey(long key) {
+        return key(getLowerEntry(key));
+    }
+
+    private static long key(Entry<?> e) {
+        if (e == null)
+            throw new NoSuchElementException();
+        return e.key;
+    }
+
+    // Cursor
+
+    public Cursor<V> first() {
+        return cursor(getFirstEntry());
+    }
+
+    public Cursor<V> last() {
+        return cursor(getLastEntry());
+    }
+
+    public Cursor<V> ceiling(long key) {
+        return cursor(getCeilingEntry(key));
+    }
+
+    public Cursor<V> floor(long key) {
+        return cursor(getFloorEntry(key));
+    }
+
+    public Cursor<V> higher(long key) {
+        return cursor(getHigherEntry(key));
+    }
+
+    public Cursor<V> lower(long key) {
+        return cursor(getLowerEntry(key));
+    }
+
+    private Cursor<V> cursor(Entry<V> e) {
+        return (e == null) ? null : new Cursor<>(this, e);
+    }
+
+    /**
+     * 指向map中一个entry的游标，key()返回基本类型long
+     * next/prev将游标移动到后继/前驱并返回自身（不创建新对象），没有后继/前驱时返回null，此后游标不能再使用；
+     * 创建游标之后如果map被结构修改（不是通过setValue），游标的任何方法都会抛出ConcurrentModificationException
+     */
+    public static final class Cursor<V> {
+        private final LongTreeMap7<V> m;
+        private Entry<V> e;
+        private final int expectedModCount;
+
+        Cursor(LongTreeMap7<V> m, Entry<V> e) {
+            this.m = m;
+            this.e = e;
+            this.expectedModCount = m.modCount;
+        }
+
+        private Entry<V> entry() {
+            if (m.modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (e == null)
+                throw new NoSuchElementException();
+            return e;
+        }
+
+        public long key() {
+            return entry().key;
+        }
+
+        public V value() {
+            return entry().value;
+        }
+
+        public V setValue(V value) {
+            return entry().setValue(value);
+        }
+
+        public Cursor<V> next() {
+            e = successor(entry());
+            return e == null ? null : this;
+        }
+
+        public Cursor<V> prev() {
+            e = predecessor(entry());
+            return e == null ? null : this;
+        }
+    }
+
+    /**
+     * 按升序返回所有key的迭代器，nextLong()不装箱
+     */
+    public PrimitiveIterator.OfLong keyIterator() {
+        return new KeyIterator(getFirstEntry());
+    }
+
+    /**
+     * 按升序返回>=fromKey的key的迭代器
+     */
+    public PrimitiveIterator.OfLong keyIterator(long fromKey) {
+        return new KeyIterator(getCeilingEntry(fromKey));
+    }
+
+    final class KeyIterator implements PrimitiveIterator.OfLong {
+        Entry<V> next;
+        Entry<V> lastReturned;
+        int expectedModCount;
+
+        KeyIterator(Entry<V> first) {
+            expectedModCount = modCount;
+            next = first;
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public long nextLong() {
+            Entry<V> e = next;
+            if (e == null)
+                throw new NoSuchElementException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            next = successor(e);
+            lastReturned = e;
+            return e.key;
+        }
+
+        public void remove() {
+            if (lastReturned == null)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            // deleted entries are replaced by their successors
+            if (lastReturned.left != null && lastReturned.right != null)
+                next = lastReturned;
+            deleteEntry(lastReturned);
+            expectedModCount = modCount;
+            lastReturned = null;
+        }
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (Entry<V> e = getFirstEntry(); e != null; e = successor(e)) {
+            if (sb.length() > 1)
+                sb.append(", ");
+            sb.append(e.key).append('=').append(e.value == this ? "(this Map)" : e.value);
+        }
+        return sb.append('}').toString();
+    }
+
+    // 关系查找的实现，同TreeMap7，比较直接使用<和>
+
+    final Entry<V> getCeilingEntry(long key) {
+        Entry<V> p = root;
+        while (p != null) {
+            if (key < p.key) {
+                if (p.left != null)
+                    p = p.left;
+                else
+                    return p;
+            } else if (key > p.key) {
+                if (p.right != null) {
+                    p = p.right;
+                } else {
+                    Entry<V> parent = p.parent;
+                    Entry<V> ch = p;
+                    while (parent != null && ch == parent.right) {
+                        ch = parent;
+                        parent = parent.parent;
+                    }
+                    return parent;
+                }
+            } else
+                return p;
+        }
+        return null;
+    }
+
+    final Entry<V> getFloorEntry(long key) {
+        Entry<V> p = root;
+        while (p != null) {
+            if (key > p.key) {
+                if (p.right != null)
+                    p = p.right;
+                else
+                    return p;
+            } else if (key < p.key) {
+                if (p.left != null) {
+                    p = p.left;
+                } else {
+                    Entry<V> parent = p.parent;
+                    Entry<V> ch = p;
+                    while (parent != null && ch == parent.left) {
+                        ch = parent;
+                        parent = parent.parent;
+                    }
+                    return parent;
+                }
+            } else
+                return p;
+        }
+        return null;
+    }
+
+    final Entry<V> getHigherEntry(long key) {
+        Entry<V> p = root;
+        while (p != null) {
+            if (key < p.key) {
+                if (p.left != null)
+                    p = p.left;
+                else
+                    return p;
+            } else {
+                if (p.right != null) {
+                    p = p.right;
+                } else {
+                    Entry<V> parent = p.parent;
+                    Entry<V> ch = p;
+                    while (parent != null && ch == parent.right) {
+                        ch = parent;
+                        parent = parent.parent;
+                    }
+                    return parent;
+                }
+            }
+        }
+        return null;
+    }
+
+    final Entry<V> getLowerEntry(long key) {
+        Entry<V> p = root;
+        while (p != null) {
+            if (key > p.key) {
+                if (p.right != null)
+                    p = p.right;
+                else
+                    return p;
+            } else {
+                if (p.left != null) {
+                    p = p.left;
+                } else {
+                    Entry<V> parent = p.parent;
+                    Entry<V> ch = p;
+                    while (parent != null && ch == parent.left) {
+                        ch = parent;
+                        parent = parent.parent;
+                    }
+                    return parent;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Red-black mechanics，同TreeMap7
+
+    private static final boolean RED = false;
+    private static final boolean BLACK = true;
+
+    /**
+     * 树的节点，比TreeMap7.Entry少了key的引用及其指向的Long对象
+     */
+    static final class Entry<V> {
+        long key;
+        V value;
+        Entry<V> left;
+        Entry<V> right;
+        Entry<V> parent;
+        boolean color = BLACK;
+
+        Entry(long key, V value, Entry<V> parent) {
+            this.key = key;
+            this.value = value;
+            this.parent = parent;
+        }
+
+        V setValue(V value) {
+            V oldValue = this.value;
+            this.value = value;
+            return oldValue;
+        }
+    }
+
+    final Entry<V> getFirstEntry() {
+        Entry<V> p = root;
+        if (p != null)
+            while (p.left != null)
+                p = p.left;
+        return p;
+    }
+
+    final Entry<V> getLastEntry() {
+        Entry<V> p = root;
+        if (p != null)
+            while (p.right != null)
+                p = p.right;
+        return p;
+    }
+
+    static <V> Entry<V> successor(Entry<V> t) {
+        if (t == null)
+            return null;
+        else if (t.right != null) {
+            Entry<V> p = t.right;
+            while (p.left != null)
+                p = p.left;
+            return p;
+        } else {
+            Entry<V> p = t.parent;
+            Entry<V> ch = t;
+            while (p != null && ch == p.right) {
+                ch = p;
+                p = p.parent;
+            }
+            return p;
+        }
+    }
+
+    static <V> Entry<V> predecessor(Entry<V> t) {
+        if (t == null)
+            return null;
+        else if (t.left != null) {
+            Entry<V> p = t.left;
+            while (p.right != null)
+                p = p.right;
+            return p;
+        } else {
+            Entry<V> p = t.parent;
+            Entry<V> ch = t;
+            while (p != null && ch == p.left) {
+                ch = p;
+                p = p.parent;
+            }
+            return p;
+        }
+    }
+
+    private static <V> boolean colorOf(Entry<V> p) {
+        return (p == null ? BLACK : p.color);
+    }
+
+    private static <V> Entry<V> parentOf(Entry<V> p) {
+        return (p == null ? null : p.parent);
+    }
+
+    private static <V> void setColor(Entry<V> p, boolean c) {
+        if (p != null)
+            p.color = c;
+    }
+
+    private static <V> Entry<V> leftOf(Entry<V> p) {
+        return (p == null) ? null : p.left;
+    }
+
+    private static <V> Entry<V> rightOf(Entry<V> p) {
+        return (p == null) ? null : p.right;
+    }
+
+    private void rotateLeft(Entry<V> p) {
+        if (p != null) {
+            Entry<V> r = p.right;
+            p.right = r.left;
+            if (r.left != null)
+                r.left.parent = p;
+            r.parent = p.parent;
+            if (p.parent == null)
+                root = r;
+            else if (p.parent.left == p)
+                p.parent.left = r;
+            else
+                p.parent.right = r;
+            r.left = p;
+            p.parent = r;
+        }
+    }
+
+    private void rotateRight(Entry<V> p) {
+        if (p != null) {
+            Entry<V> l = p.left;
+            p.left = l.right;
+            if (l.right != null) l.right.parent = p;
+            l.parent = p.parent;
+            if (p.parent == null)
+                root = l;
+            else if (p.parent.right == p)
+                p.parent.right = l;
+            else p.parent.left = l;
+            l.right = p;
+            p.parent = l;
+        }
+    }
+
+    private void fixAfterInsertion(Entry<V> x) {
+        x.color = RED;
+
+        while (x != null && x != root && x.parent.color == RED) {
+            if (parentOf(x) == leftOf(parentOf(parentOf(x)))) {
+                Entry<V> y = rightOf(parentOf(parentOf(x)));
+                if (colorOf(y) == RED) {
+                    setColor(parentOf(x), BLACK);
+                    setColor(y, BLACK);
+                    setColor(parentOf(parentOf(x)), RED);
+                    x = parentOf(parentOf(x));
+                } else {
+                    if (x == rightOf(parentOf(x))) {
+                        x = parentOf(x);
+                        rotateLeft(x);
+                    }
+                    setColor(parentOf(x), BLACK);
+                    setColor(parentOf(parentOf(x)), RED);
+                    rotateRight(parentOf(parentOf(x)));
+                }
+            } else {
+                Entry<V> y = leftOf(parentOf(parentOf(x)));
+                if (colorOf(y) == RED) {
+                    setColor(parentOf(x), BLACK);
+                    setColor(y, BLACK);
+                    setColor(parentOf(parentOf(x)), RED);
+                    x = parentOf(parentOf(x));
+                } else {
+                    if (x == leftOf(parentOf(x))) {
+                        x = parentOf(x);
+                        rotateRight(x);
+                    }
+                    setColor(parentOf(x), BLACK);
+                    setColor(parentOf(parentOf(x)), RED);
+                    rotateLeft(parentOf(parentOf(x)));
+                }
+            }
+        }
+        root.color = BLACK;
+    }
+
+    /**
+     * 删除节点p并重新平衡，同TreeMap7：有两个孩子时把后继的key/value复制到p，转而删除后继节点
+     */
+    private void deleteEntry(Entry<V> p) {
+        modCount++;
+        size--;
+
+        if (p.left != null && p.right != null) {
+            Entry<V> s = successor(p);
+            p.key = s.key;
+            p.value = s.value;
+            p = s;
+        }
+
+        Entry<V> replacement = (p.left != null ? p.left : p.right);
+
+        if (replacement != null) {
+            replacement.parent = p.parent;
+            if (p.parent == null)
+                root = replacement;
+            else if (p == p.parent.left)
+                p.parent.left = replacement;
+            else
+                p.parent.right = replacement;
+
+            p.left = p.right = p.parent = null;
+
+            if (p.color == BLACK)
+                fixAfterDeletion(replacement);
+        } else if (p.parent == null) {
+            root = null;
+        } else {
+            if (p.color == BLACK)
+                fixAfterDeletion(p);
+
+            if (p.parent != null) {
+                if (p == p.parent.left)
+                    p.parent.left = null;
+                else if (p == p.parent.right)
+                    p.parent.right = null;
+                p.parent = null;
+            }
+        }
+    }
+
+    private void fixAfterDeletion(Entry<V> x) {
+        while (x != root && colorOf(x) == BLACK) {
+            if (x == leftOf(parentOf(x))) {
+                Entry<V> sib = rightOf(parentOf(x));
+
+                if (colorOf(sib) == RED) {
+                    setColor(sib, BLACK);
+                    setColor(parentOf(x), RED);
+                    rotateLeft(parentOf(x));
+                    sib = rightOf(parentOf(x));
+                }
+
+                if (colorOf(leftOf(sib)) == BLACK &&
+                        colorOf(rightOf(sib)) == BLACK) {
+                    setColor(sib, RED);
+                    x = parentOf(x);
+                } else {
+                    if (colorOf(rightOf(sib)) == BLACK) {
+                        setColor(leftOf(sib), BLACK);
+                        setColor(sib, RED);
+                        rotateRight(sib);
+                        sib = rightOf(parentOf(x));
+                    }
+                    setColor(sib, colorOf(parentOf(x)));
+                    setColor(parentOf(x), BLACK);
+                    setColor(rightOf(sib), BLACK);
+                    rotateLeft(parentOf(x));
+                    x = root;
+                }
+            } else { // symmetric
+                Entry<V> sib = leftOf(parentOf(x));
+
+                if (colorOf(sib) == RED) {
+                    setColor(sib, BLACK);
+                    setColor(parentOf(x), RED);
+                    rotateRight(parentOf(x));
+                    sib = leftOf(parentOf(x));
+                }
+
+                if (colorOf(rightOf(sib)) == BLACK &&
+                        colorOf(leftOf(sib)) == BLACK) {
+                    setColor(sib, RED);
+                    x = parentOf(x);
+                } else {
+                    if (colorOf(leftOf(sib)) == BLACK) {
+                        setColor(rightOf(sib), BLACK);
+                        setColor(sib, RED);
+                        rotateLeft(sib);
+                        sib = leftOf(parentOf(x));
+                    }
+                    setColor(sib, colorOf(parentOf(x)));
+                    setColor(parentOf(x), BLACK);
+                    setColor(leftOf(sib), BLACK);
+                    rotateRight(parentOf(x));
+                    x = root;
+                }
+            }
+        }
+
+        setColor(x, BLACK);
+    }
+}
@@ -0,0 +1,576 @@
+package org.lipeng.demo.collectioncomments;
+
+import java.util.*;
+
+/**
+ * 持久化（结构共享）的红黑树NavigableMap，API同TreeMap7
+ * <p>
+ * TreeMap7的clone()要通过buildFromSorted复制全部n个Entry，用clone()给每次一致性读取做快照的代价是O(n)。
+ * 这个类的节点是不可变的：put/remove不修改任何已有节点，而是复制从根节点到修改位置的路径（path copying），
+ * 路径之外的子树在新旧两棵树之间共享，每次修改只分配O(log n)个节点。
+ * 因此{@link #snapshot()}只需要复制根节点的引用，是O(1)的，快照之后两个map各自修改互不影响。
+ * <p>
+ * 节点没有parent指针（否则一个节点被多棵树共享时无法确定父节点），
+ * 插入使用Okasaki的函数式红黑树插入，删除使用Kahrs的函数式删除，
+ * 平衡的结果同TreeMap7一样满足红黑树的性质，树的高度不超过2log(n+1)。
+ * 每个节点还记录子树的大小，size()和范围视图的size()都是O(log n)以内的。
+ * <p>
+ * 整棵树只通过volatile的root字段发布，size也保存在根节点中，
+ * 所以在一个线程修改的同时，其他线程调用snapshot()总能拿到一个完整一致的版本，然后在快照上无锁地读取；
+ * 但多个线程同时修改同一个map仍然需要外部同步。
+ * <p>
+ * 迭代器遍历的是创建迭代器时的版本，不会抛出ConcurrentModificationException；
+ * 迭代器的remove和entry的setValue会写回map的当前版本（key已经被删除时setValue抛出IllegalStateException）。
+ * 关系查找方法（ceilingEntry等）返回的entry是快照，不支持setValue。
+ *
+ * @param <K> key的类型
+ * @param <V> value的类型
+ * @see TreeMap7
+ */
+public class PersistentTreeMap7<K, V> extends AbstractNavigableMap7<K, V> implements Cloneable {
+
+    private static final boolean RED = false;
+    private static final boolean BLACK = true;
+
+    /**
+     * 红黑树的高度不超过2log(n+1)，n不超过Integer.MAX_VALUE时迭代器的栈最多需要这么深
+     */
+    private static final int MAX_DEPTH = 64;
+
+    private final Comparator<? super K> comparator;
+
+    private transient volatile Node<K, V> root;
+
+    public PersistentTreeMap7() {
+        this.comparator = null;
+    }
+
+    public PersistentTreeMap7(Comparator<? super K> comparator) {
+        this.comparator = comparator;
+    }
+
+    public PersistentTreeMap7(Map<? extends K, ? extends V> m) {
+        this.comparator = null;
+        putAll(m);
+    }
+
+    /**
+     * 使用m的comparator，m已经有序，同TreeMap7.buildFromSorted一样在线性时间内直接构造平衡的树
+     */
+    public PersistentTreeMap7(SortedMap<K, ? extends V> m) {
+        this.comparator = m.comparator();
+        Iterator<? extends Map.Entry<K, ? extends V>> it = m.entrySet().iterator();
+        root = buildFromSorted(0, 0, m.size() - 1, computeRedLevel(m.size()), it);
+    }
+
+    private PersistentTreeMap7(Comparator<? super K> comparator, Node<K, V> root) {
+        this.comparator = comparator;
+        this.root = root;
+    }
+
+    // 节点
+
+    /**
+     * 不可变的红黑树节点，size为以此节点为根的子树的节点个数
+     */
+    static final class Node<K, V> {
+        final K key;
+        final V value;
+        final Node<K, V> left, right;
+        final boolean color;
+        final int size;
+
+        Node(K key, V value, Node<K, V> left, Node<K, V> right, boolean color) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.color = color;
+            this.size = 1 + sizeOf(left) + sizeOf(right);
+        }
+
+        Node<K, V> blacken() {
+            return color == BLACK ? this : new Node<>(key, value, left, right, BLACK);
+        }
+
+        Node<K, V> redden() {
+            return color == RED ? this : new Node<>(key, value, left, right, RED);
+        }
+    }
+
+    private static <K, V> Node<K, V> red(K key, V value, Node<K, V> l, Node<K, V> r) {
+        return new Node<>(key, value, l, r, RED);
+    }
+
+    private static <K, V> Node<K, V> black(K key, V value, Node<K, V> l, Node<K, V> r) {
+        return new Node<>(key, value, l, r, BLACK);
+    }
+
+    private static <K, V> Node<K, V> node(boolean color, K key, V value, Node<K, V> l, Node<K, V> r) {
+        return new Node<>(key, value, l, r, color);
+    }
+
+    private static int sizeOf(Node<?, ?> t) {
+        return t == null ? 0 : t.size;
+    }
+
+    private static boolean isRed(Node<?, ?> t) {
+        return t != null && t.color == RED;
+    }
+
+    private static boolean isBlack(Node<?, ?> t) {
+        return t != null && t.color == BLACK;
+    }
+
+    // 快照
+
+    /**
+     * 返回当前版本的快照，O(1)
+     * 快照与这个map共享所有节点，之后任何一方的修改都不会影响另一方
+     */
+    public PersistentTreeMap7<K, V> snapshot() {
+        return new PersistentTreeMap7<>(comparator, root);
+    }
+
+    /**
+     * 同snapshot()，O(1)
+     */
+    public Object clone() {
+        return snapshot();
+    }
+
+    // Map API
+
+    public int size() {
+        return sizeOf(root);
+    }
+
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+
+    public boolean containsKey(Object key) {
+        return getNode(root, key) != null;
+    }
+
+    public V get(Object key) {
+        Node<K, V> p = getNode(root, key);
+        return p == null ? null : p.value;
+    }
+
+    public boolean containsValue(Object value) {
+        for (Iterator<Map.Entry<K, V>> it = entryIterator(true, null, false, true, null, false, false); it.hasNext(); )
+            if (valEquals(value, it.next().getValue()))
+                return true;
+        return false;
+    }
+
+    private Node<K, V> getNode(Node<K, V> t, Object key) {
+        if (key == null && comparator == null)
+            throw new NullPointerException();
+        while (t != null) {
+            int cmp = compare(key, t.key);
+            if (cmp < 0)
+                t = t.left;
+            else if (cmp > 0)
+                t = t.right;
+            else
+                return t;
+        }
+        return null;
+    }
+
+    /**
+     * 复制从根节点到插入位置的路径，新节点是红色的，回溯时用balanceLeft/balanceRight消除连续的红节点，最后把根节点涂黑
+     */
+    public V put(K key, V value) {
+        Node<K, V> t = root;
+        if (t == null)
+            compare(key, key); // type (and possibly null) check
+        Node<K, V> p = getNode(t, key);
+        if (p != null && p.value == value)
+            return value;
+        root = insert(t, key, value).blacken();
+        return p == null ? null : p.value;
+    }
+
+    private Node<K, V> insert(Node<K, V> t, K key, V value) {
+        if (t == null)
+            return red(key, value, null, null);
+        int cmp = compare(key, t.key);
+        if (cmp < 0)
+            return balanceLeft(t.color, t.key, t.value, insert(t.left, key, value), t.right);
+        else if (cmp > 0)
+            return balanceRight(t.color, t.key, t.value, t.left, insert(t.right, key, value));
+        else
+            return node(t.color, t.key, value, t.left, t.right);
+    }
+
+    /**
+     * 左子树l可能是一个有红孩子的红节点，旋转为红色的父节点加两个黑色的孩子
+     */
+    private static <K, V> Node<K, V> balanceLeft(boolean color, K key, V value, Node<K, V> l, Node<K, V> r) {
+        if (isRed(l) && isRed(l.left))
+            return red(l.key, l.value, l.left.blacken(), black(key, value, l.right, r));
+        if (isRed(l) && isRed(l.right))
+            return red(l.right.key, l.right.value, black(l.key, l.value, l.left, l.right.left),
+                    black(key, value, l.right.right, r));
+        return node(color, key, value, l, r);
+    }
+
+    private static <K, V> Node<K, V> balanceRight(boolean color, K key, V value, Node<K, V> l, Node<K, V> r) {
+        if (isRed(r) && isRed(r.left))
+            return red(r.left.key, r.left.value, black(key, value, l, r.left.left),
+                    black(r.key, r.value, r.left.right, r.right));
+        if (isRed(r) && isRed(r.right))
+            return red(r.key, r.value, black(key, value, l, r.left), r.right.blacken());
+        return node(color, key, value, l, r);
+    }
+
+    /**
+     * key不存在时不复制任何节点
+     */
+    public V remove(Object key) {
+        Node<K, V> t = root;
+        Node<K, V> p = getNode(t, key);
+        if (p == null)
+            return null;
+        t = delete(t, key);
+        root = t == null ? null : t.blacken();
+        return p.value;
+    }
+
+    /**
+     * Kahrs的删除算法：从黑节点的子树中删除会使黑高度减一，由balLeft/balRight修复；
+     * 找到key之后用append把它的左右子树合并成一棵树代替它
+     */
+    private Node<K, V> delete(Node<K, V> t, Object key) {
+        int cmp = compare(key, t.key);
+        if (cmp < 0) {
+            Node<K, V> l = delete(t.left, key);
+            return isBlack(t.left) ? balLeft(t.key, t.value, l, t.right) : red(t.key, t.value, l, t.right);
+        } else if (cmp > 0) {
+            Node<K, V> r = delete(t.right, key);
+            return isBlack(t.right) ? balRight(t.key, t.value, t.left, r) : red(t.key, t.value, t.left, r);
+        } else {
+            return append(t.left, t.right);
+        }
+    }
+
+    /**
+     * 左子树l的黑高度比右子树r少一
+     */
+    private static <K, V> Node<K, V> balLeft(K key, V value, Node<K, V> l, Node<K, V> r) {
+        if (isRed(l))
+            return red(key, value, l.blacken(), r);
+        if (isBlack(r))
+            return balance(key, value, l, r.redden());
+        if (isRed(r) && isBlack(r.left))
+            return red(r.left.key, r.left.value, black(key, value, l, r.left.left),
+                    balance(r.key, r.value, r.left.right, r.right.redden()));
+        throw new IllegalStateException("red-black invariant violated");
+    }
+
+    /**
+     * 右子树r的黑高度比左子树l少一
+     */
+    private static <K, V> Node<K, V> balRight(K key, V value, Node<K, V> l, Node<K, V> r) {
+        if (isRed(r))
+            return red(key, value, l, r.blacken());
+        if (isBlack(l))
+            return balance(key, value, l.redden(), r);
+        if (isRed(l) && isBlack(l.right))
+            return red(l.right.key, l.right.value, balance(l.key, l.value, l.left.redden(), l.right.left),
+                    black(key, value, l.right.right, r));
+        throw new IllegalStateException("red-black invariant violated");
+    }
+
+    /**
+     * 构造黑色节点，左右孩子中可能有一个是有红孩子的红节点
+     */
+    private static <K, V> Node<K, V> balance(K key, V value, Node<K, V> l, Node<K, V> r) {
+        if (isRed(l)) {
+            if (isRed(r))
+                return red(key, value, l.blacken(), r.blacken());
+            if (isRed(l.left))
+                return red(l.key, l.value, l.left.blacken(), black(key, value, l.right, r));
+            if (isRed(l.right))
+                return red(l.right.key, l.right.value, black(l.key, l.value, l.left, l.right.left),
+                        black(key, value, l.right.right, r));
+        } else if (isRed(r)) {
+            if (isRed(r.right))
+                return red(r.key, r.value, black(key, value, l, r.left), r.right.blacken());
+            if (isRed(r.left))
+                return red(r.left.key, r.left.value, black(key, value, l, r.left.left),
+                        black(r.key, r.value, r.left.right, r.right));
+        }
+        return black(key, value, l, r);
+    }
+
+    /**
+     * 合并黑高度相同的两棵树，l中所有的key都小于r中的key
+     */
+    private static <K, V> Node<K, V> append(Node<K, V> l, Node<K, V> r) {
+        if (l == null)
+            return r;
+        if (r == null)
+            return l;
+        if (isRed(l) && isRed(r)) {
+            Node<K, V> m = append(l.right, r.left);
+            if (isRed(m))
+                return red(m.key, m.value, red(l.key, l.value, l.left, m.left),
+                        red(r.key, r.value, m.right, r.right));
+            return red(l.key, l.value, l.left, red(r.key, r.value, m, r.right));
+        }
+        if (isBlack(l) && isBlack(r)) {
+            Node<K, V> m = append(l.right, r.left);
+            if (isRed(m))
+                return red(m.key, m.value, black(l.key, l.value, l.left, m.left),
+                        black(r.key, r.value, m.right, r.right));
+            return balLeft(l.key, l.value, l.left, black(r.key, r.value, m, r.right));
+        }
+        if (isRed(r))
+            return red(r.key, r.value, append(l, r.left), r.right);
+        return red(l.key, l.value, l.left, append(l.right, r));
+    }
+
+    public void clear() {
+        root = null;
+    }
+
+    // NavigableMap API methods
+
+    public Map.Entry<K, V> firstEntry() {
+        Node<K, V> p = root;
+        if (p != null)
+            while (p.left != null)
+                p = p.left;
+        return exportEntry(p);
+    }
+
+    public Map.Entry<K, V> lastEntry() {
+        Node<K, V> p = root;
+        if (p != null)
+            while (p.right != null)
+                p = p.right;
+        return exportEntry(p);
+    }
+
+    public Map.Entry<K, V> lowerEntry(K key) {
+        return exportEntry(floorNode(root, key, false));
+    }
+
+    public Map.Entry<K, V> floorEntry(K key) {
+        return exportEntry(floorNode(root, key, true));
+    }
+
+    public Map.Entry<K, V> ceilingEntry(K key) {
+        return exportEntry(ceilingNode(root, key, true));
+    }
+
+    public Map.Entry<K, V> higherEntry(K key) {
+        return exportEntry(ceilingNode(root, key, false));
+    }
+
+    /**
+     * 没有parent指针，下降时记录最后一个满足条件的节点
+     */
+    private Node<K, V> ceilingNode(Node<K, V> t, K key, boolean inclusive) {
+        Node<K, V> best = null;
+        while (t != null) {
+            int cmp = compare(key, t.key);
+            if (cmp < 0 || (cmp == 0 && inclusive)) {
+                best = t;
+                t = t.left;
+            } else {
+                t = t.right;
+            }
+        }
+        return best;
+    }
+
+    private Node<K, V> floorNode(Node<K, V> t, K key, boolean inclusive) {
+        Node<K, V> best = null;
+        while (t != null) {
+            int cmp = compare(key, t.key);
+            if (cmp > 0 || (cmp == 0 && inclusive)) {
+                best = t;
+                t = t.right;
+            } else {
+                t = t.left;
+            }
+        }
+        return best;
+    }
+
+    private static <K, V> Map.Entry<K, V> exportEntry(Node<K, V> p) {
+        return (p == null) ? null : new AbstractMap7.SimpleImmutableEntry<>(p.key, p.value);
+    }
+
+    /**
+     * 用子树大小计算小于（或不大于）key的节点个数，两次下降相减得到范围内的个数
+     */
+    int countRange(boolean fromStart, K lo, boolean loInclusive,
+                   boolean toEnd, K hi, boolean hiInclusive) {
+        Node<K, V> t = root;
+        int to = toEnd ? sizeOf(t) : countLess(t, hi, hiInclusive);
+        int from = fromStart ? 0 : countLess(t, lo, !loInclusive);
+        return Math.max(to - from, 0);
+    }
+
+    /**
+     * 返回小于key的节点个数，inclusive为true时返回小于等于key的节点个数
+     */
+    private int countLess(Node<K, V> t, K key, boolean inclusive) {
+        int count = 0;
+        while (t != null) {
+            int cmp = compare(key, t.key);
+            if (cmp > 0 || (cmp == 0 && inclusive)) {
+                count += sizeOf(t.left) + 1;
+                t = t.right;
+            } else {
+                t = t.left;
+            }
+        }
+        return count;
+    }
+
+    Iterator<Map.Entry<K, V>> entryIterator(boolean fromStart, K lo, boolean loInclusive,
+                                           boolean toEnd, K hi, boolean hiInclusive,
+                                           boolean descending) {
+        return new EntryIterator(fromStart, lo, loInclusive, toEnd, hi, hiInclusive, descending);
+    }
+
+    // 按版本迭代
+
+    /**
+     * 用栈代替parent指针做中序遍历，遍历的是创建迭代器时的root，
+     * 栈中保存的是还没有访问、且其右子树（降序时为左子树）也还没有访问的节点
+     */
+    final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private final boolean descending;
+        private final boolean fenceless, fenceInclusive;
+        private final K fence;
+        private final Node<K, V>[] stack = new Node[MAX_DEPTH];
+        private int depth;
+        private Node<K, V> next;
+        private K lastKey;
+        private boolean canRemove;
+
+        EntryIterator(boolean fromStart, K lo, boolean loInclusive,
+                      boolean toEnd, K hi, boolean hiInclusive, boolean descending) {
+            this.descending = descending;
+            this.fenceless = descending ? fromStart : toEnd;
+            this.fence = descending ? lo : hi;
+            this.fenceInclusive = descending ? loInclusive : hiInclusive;
+            // 从根节点下降到范围的起点，经过的范围内的节点都入栈
+            Node<K, V> t = root;
+            if (descending) {
+                while (t != null) {
+                    int cmp = toEnd ? 1 : compare(hi, t.key);
+                    if (cmp > 0 || (cmp == 0 && hiInclusive)) {
+                        stack[depth++] = t;
+                        t = t.right;
+                    } else {
+                        t = t.left;
+                    }
+                }
+            } else {
+                while (t != null) {
+                    int cmp = fromStart ? -1 : compare(lo, t.key);
+                    if (cmp < 0 || (cmp == 0 && loInclusive)) {
+                        stack[depth++] = t;
+                        t = t.left;
+                    } else {
+                        t = t.right;
+                    }
+                }
+            }
+            advance();
+        }
+
+        private void advance() {
+            if (depth == 0) {
+                next = null;
+                return;
+            }
+            Node<K, V> p = stack[--depth];
+            stack[depth] = null;
+            for (Node<K, V> t = descending ? p.left : p.right; t != null; t = descending ? t.right : t.left)
+                stack[depth++] = t;
+            if (!fenceless) {
+                int cmp = compare(p.key, fence);
+                if (descending ? (cmp < 0 || (cmp == 0 && !fenceInclusive))
+                        : (cmp > 0 || (cmp == 0 && !fenceInclusive))) {
+                    depth = 0;
+                    p = null;
+                }
+            }
+            next = p;
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public Map.Entry<K, V> next() {
+            Node<K, V> p = next;
+            if (p == null)
+                throw new NoSuchElementException();
+            advance();
+            lastKey = p.key;
+            canRemove = true;
+            return new IteratorEntry(p.key, p.value);
+        }
+
+        /**
+         * 从map的当前版本中删除，不影响本迭代器正在遍历的版本
+         */
+        public void remove() {
+            if (!canRemove)
+                throw new IllegalStateException();
+            PersistentTreeMap7.this.remove(lastKey);
+            canRemove = false;
+        }
+    }
+
+    /**
+     * 迭代器返回的entry，setValue写回map的当前版本，返回这个entry原来的值
+     * 如果key已经从当前版本中删除，抛出IllegalStateException，而不是把它重新插入
+     */
+    final class IteratorEntry extends AbstractMap7.SimpleEntry<K, V> {
+        IteratorEntry(K key, V value) {
+            super(key, value);
+        }
+
+        public V setValue(V value) {
+            if (getNode(root, getKey()) == null)
+                throw new IllegalStateException("Entry was removed from the map");
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+
+    // 由有序数据构造
+
+    /**
+     * 同TreeMap7.buildFromSorted：取中间的元素作为根节点递归构造，redLevel层（最下面不满的一层）的节点为红色
+     */
+    private static <K, V> Node<K, V> buildFromSorted(int level, int lo, int hi, int redLevel,
+                                                     Iterator<? extends Map.Entry<K, ? extends V>> it) {
+        if (hi < lo)
+            return null;
+        int mid = (lo + hi) >>> 1;
+        Node<K, V> left = buildFromSorted(level + 1, lo, mid - 1, redLevel, it);
+        Map.Entry<K, ? extends V> e = it.next();
+        Node<K, V> right = buildFromSorted(level + 1, mid + 1, hi, redLevel, it);
+        return node(level == redLevel ? RED : BLACK, e.getKey(), e.getValue(), left, right);
+    }
+
+    private static int computeRedLevel(int sz) {
+        int level = 0;
+        for (int m = sz - 1; m >= 0; m = m / 2 - 1)
+            level++;
+        return level;
+    }
+}
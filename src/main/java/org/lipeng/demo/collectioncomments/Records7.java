@@ -0,0 +1,114 @@
+package org.lipeng.demo.collectioncomments;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 长度前缀记录的读写工具，供集合的二进制dump/restore使用
+ * <p>
+ * 每条记录是 长度(int) 字节，null的长度写为-1，所有整数为大端序；
+ * 写入时先写到缓冲区，缓冲区满了再写出到channel，读取时同样按需从channel填充缓冲区
+ *
+ * @see Codec7
+ * @see LinkedHashMap7#dump(WritableByteChannel, int, Codec7, Codec7)
+ */
+final class Records7 {
+
+    /**
+     * dump/restore使用的缓冲区大小
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private Records7() {
+    }
+
+    /**
+     * 写入一条长度前缀的记录，缓冲区不够时先写出缓冲区，记录比缓冲区还大时换一个足够大的缓冲区
+     */
+    static ByteBuffer putRecord(WritableByteChannel ch, ByteBuffer buf, byte[] bytes)
+            throws IOException {
+        int need = 4 + (bytes == null ? 0 : bytes.length);
+        if (buf.remaining() < need) {
+            drain(ch, buf);
+            if (buf.capacity() < need)
+                buf = ByteBuffer.allocate(need);
+        }
+        if (bytes == null) {
+            buf.putInt(-1);
+        } else {
+            buf.putInt(bytes.length);
+            buf.put(bytes);
+        }
+        return buf;
+    }
+
+    /**
+     * 将缓冲区中的数据全部写入ch，然后清空缓冲区
+     */
+    static void drain(WritableByteChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining())
+            ch.write(buf);
+        buf.clear();
+    }
+
+    /**
+     * 读取长度为length的记录，调用前必须已经fill了length个字节，length为-1时返回null
+     */
+    static byte[] getRecord(ByteBuffer buf, int length) throws IOException {
+        if (length < -1)
+            throw new StreamCorruptedException("Illegal record length: " + length);
+        if (length == -1)
+            return null;
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * 保证buf（读模式）中至少有n个字节可读，不够时从ch读取，buf容量不够时换一个更大的缓冲区
+     * <p>
+     * n通常是从数据中读出的记录长度，数据损坏时可能非常大。ch能知道大小时（如FileChannel），
+     * n超过剩余的数据直接抛出EOFException；否则缓冲区随着实际读到的数据加倍扩容，
+     * 不会按照损坏的长度一次分配过大的缓冲区
+     */
+    static ByteBuffer fill(ReadableByteChannel ch, ByteBuffer buf, int n) throws IOException {
+        if (buf.remaining() >= n)
+            return buf;
+        if (ch instanceof SeekableByteChannel) {
+            SeekableByteChannel sc = (SeekableByteChannel) ch;
+            if (n - buf.remaining() > sc.size() - sc.position())
+                throw new EOFException("Record of " + n + " bytes exceeds the remaining data");
+        }
+        buf.compact();
+        while (buf.position() < n) {
+            if (!buf.hasRemaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate((int) Math.min(n, 2L * buf.capacity()));
+                buf.flip();
+                bigger.put(buf);
+                buf = bigger;
+            }
+            if (ch.read(buf) < 0)
+                throw new EOFException();
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * 删除dump失败后留下的临时文件，删除失败时忽略，以免掩盖dump本身的异常
+     */
+    static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignore) {
+        }
+    }
+}
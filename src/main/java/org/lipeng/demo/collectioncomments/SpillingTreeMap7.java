@@ -0,0 +1,893 @@
+package org.lipeng.demo.collectioncomments;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 数据量可以超过堆内存的NavigableMap，结构同LSM树：内存中的TreeMap7（memtable）加上磁盘上不可变的有序文件（run）
+ * <p>
+ * 写入（put/remove）只修改memtable，删除写入一个墓碑（tombstone）。
+ * memtable的大小达到memtableLimit时，按key的顺序一次性写成一个新的run文件（同TreeMap7.dump，顺序写，带块索引），
+ * 然后换一个空的memtable。run文件通过内存映射读取，堆中只保留每个块的第一个key组成的稀疏索引。
+ * <p>
+ * 读取时按照从新到旧的顺序合并memtable和所有run：get依次查找memtable和每个run（run内先二分查找块索引，再扫描一个块），
+ * 第一个找到的版本就是最新的值；ceilingEntry等关系查找以及范围视图的迭代器对所有来源做多路归并，
+ * 同一个key只取最新的版本，墓碑表示已删除。
+ * <p>
+ * run的个数越多读取越慢，所以后台线程按大小分层合并（size-tiered合并）：同一层（大小相差不到{@value #MERGE_FACTOR}倍）
+ * 的{@value #MERGE_FACTOR}个run连同夹在它们之间的更小的run合并成一个；墓碑和重复的key会使各个run的大小悬殊，
+ * run的个数仍然超过{@value #MAX_RUNS}时，合并总大小最小的{@value #MERGE_FACTOR}个相邻run，因此run的个数是有上限的。
+ * 合并包括最旧的run时墓碑也一并丢弃。合并不改变map的内容，读取的线程不需要等待合并。
+ * 一个run整个映射到一个MappedByteBuffer中，因此合并只在总大小不超过{@value #MAX_RUN_BYTES}字节时进行。
+ * <p>
+ * 为了维护精确的size()，put和remove会先查找key原来的值，因此写入的代价同一次get。
+ * key不能为null，key和value通过Codec7编码，null的value可以保存。
+ * <p>
+ * 同TreeMap7，此实现不是同步的（后台合并除外），迭代器是fail-fast的；
+ * 关系查找方法和迭代器返回的entry都是快照，不支持setValue，迭代器支持remove。
+ * dir中的run文件只是溢出的临时状态，close()时全部删除，不能用于恢复map。
+ *
+ * @param <K> key的类型
+ * @param <V> value的类型
+ * @see TreeMap7
+ * @see TreeMap7#dump(java.nio.channels.WritableByteChannel, Codec7, Codec7)
+ */
+public class SpillingTreeMap7<K, V> extends AbstractNavigableMap7<K, V> implements Closeable {
+
+    /**
+     * 默认的memtable大小
+     */
+    static final int DEFAULT_MEMTABLE_LIMIT = 64 * 1024;
+
+    /**
+     * 一次合并的run的个数
+     */
+    static final int MERGE_FACTOR = 4;
+
+    /**
+     * 分层合并之后run的个数仍然超过这个值时，不再要求大小相近，直接合并总大小最小的相邻run
+     */
+    static final int MAX_RUNS = 4 * MERGE_FACTOR;
+
+    /**
+     * 合并结果的最大字节数，run需要整个映射到一个MappedByteBuffer中
+     */
+    static final long MAX_RUN_BYTES = 1L << 30;
+
+    /**
+     * run文件的魔数 "SPM7"
+     */
+    private static final int RUN_MAGIC = 0x53504d37;
+
+    /**
+     * 每个块的entry个数，点查询最多扫描一个块
+     */
+    private static final int BLOCK_SIZE = 32;
+
+    /**
+     * run文件的结尾：块索引的位置(long) 块数(int) 魔数(int)
+     */
+    private static final int TRAILER_SIZE = 16;
+
+    /**
+     * 墓碑的value记录的长度，null的长度是-1
+     */
+    private static final int TOMBSTONE_LENGTH = -2;
+
+    /**
+     * memtable和run中表示已删除的value
+     */
+    private static final Object TOMBSTONE = new Object();
+
+    /**
+     * 查找结果，表示没有这个key（与value为null区分）
+     */
+    private static final Object ABSENT = new Object();
+
+    private final Path dir;
+    private final Comparator<? super K> comparator;
+    private final Codec7<K> keyCodec;
+    private final Codec7<V> valueCodec;
+    private final int memtableLimit;
+
+    private TreeMap7<K, Object> memtable;
+
+    /**
+     * 所有的run，从新到旧，不可修改的list，修改时在lock中整个替换
+     */
+    private volatile List<Run> runs = Collections.emptyList();
+
+    private int size;
+    private int modCount;
+
+    private final Object lock = new Object();
+    private final ExecutorService merger;
+    private long runSequence;
+    private boolean merging;
+    private boolean closed;
+    private volatile IOException mergeFailure;
+
+    public SpillingTreeMap7(Path dir, Codec7<K> keyCodec, Codec7<V> valueCodec) throws IOException {
+        this(dir, null, keyCodec, valueCodec, DEFAULT_MEMTABLE_LIMIT);
+    }
+
+    /**
+     * @param dir           run文件所在的目录，不存在时创建
+     * @param comparator    比较器，null时使用key的自然顺序
+     * @param keyCodec      key的编解码器
+     * @param valueCodec    value的编解码器
+     * @param memtableLimit memtable的entry个数（包括墓碑）达到这个值时写成run文件
+     */
+    public SpillingTreeMap7(Path dir, Comparator<? super K> comparator, Codec7<K> keyCodec,
+                            Codec7<V> valueCodec, int memtableLimit) throws IOException {
+        if (memtableLimit <= 0)
+            throw new IllegalArgumentException("Illegal memtable limit: " + memtableLimit);
+        this.dir = Files.createDirectories(dir);
+        this.comparator = comparator;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.memtableLimit = memtableLimit;
+        this.memtable = new TreeMap7<>(comparator);
+        this.merger = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SpillingTreeMap7-merger");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    // Map API
+
+    public int size() {
+        return size;
+    }
+
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+
+    public boolean containsKey(Object key) {
+        return find(key) != ABSENT;
+    }
+
+    public V get(Object key) {
+        Object v = find(key);
+        return v == ABSENT ? null : (V) v;
+    }
+
+    /**
+     * 依次查找memtable和从新到旧的每个run，返回第一个找到的版本，没有或者已删除时返回ABSENT
+     */
+    private Object find(Object key) {
+        if (key == null)
+            throw new NullPointerException();
+        TreeMap7.Entry<K, Object> e = memtable.getEntry(key);
+        if (e != null)
+            return e.value == TOMBSTONE ? ABSENT : e.value;
+        for (Run run : runs) {
+            Object v = run.find(key);
+            if (v != ABSENT)
+                return v == TOMBSTONE ? ABSENT : v;
+        }
+        return ABSENT;
+    }
+
+    public V put(K key, V value) {
+        checkMergeFailure();
+        Object old = find(key);
+        memtable.put(key, value);
+        modCount++;
+        if (old == ABSENT)
+            size++;
+        if (memtable.size() >= memtableLimit)
+            spill();
+        return old == ABSENT ? null : (V) old;
+    }
+
+    /**
+     * 没有run时直接从memtable中删除，否则写入墓碑遮住run中的旧版本
+     */
+    public V remove(Object key) {
+        checkMergeFailure();
+        Object old = find(key);
+        if (old == ABSENT)
+            return null;
+        if (runs.isEmpty())
+            memtable.remove(key);
+        else
+            memtable.put((K) key, TOMBSTONE);
+        modCount++;
+        size--;
+        if (memtable.size() >= memtableLimit)
+            spill();
+        return (V) old;
+    }
+
+    /**
+     * 清空memtable并删除所有run文件，正在进行的合并的结果会被丢弃
+     */
+    public void clear() {
+        List<Run> old;
+        synchronized (lock) {
+            old = runs;
+            runs = Collections.emptyList();
+        }
+        deleteRuns(old);
+        memtable = new TreeMap7<>(comparator);
+        size = 0;
+        modCount++;
+    }
+
+    // 溢出和合并
+
+    /**
+     * 把memtable写成一个run文件，memtable为空时什么都不做
+     */
+    public void flush() throws IOException {
+        checkMergeFailure();
+        if (memtable.isEmpty())
+            return;
+        // 没有更旧的run时墓碑没有需要遮住的版本
+        Run run = writeRun(new MemSource(memtable.entrySet().iterator(), 0), runs.isEmpty());
+        synchronized (lock) {
+            if (run != null) {
+                List<Run> next = new ArrayList<>(runs.size() + 1);
+                next.add(run);
+                next.addAll(runs);
+                runs = Collections.unmodifiableList(next);
+            }
+            scheduleMerge();
+        }
+        memtable = new TreeMap7<>(comparator);
+    }
+
+    private void spill() {
+        try {
+            flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 返回当前run文件的个数
+     */
+    public int runCount() {
+        return runs.size();
+    }
+
+    /**
+     * 等待后台合并完成，直到没有需要合并的run
+     */
+    public void awaitMerges() throws InterruptedException {
+        synchronized (lock) {
+            while (merging)
+                lock.wait();
+        }
+        checkMergeFailure();
+    }
+
+    /**
+     * 停止后台合并，删除所有run文件，之后map不能再使用
+     */
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+        }
+        merger.shutdown();
+        try {
+            merger.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        clear();
+    }
+
+    private void checkMergeFailure() {
+        IOException failure = mergeFailure;
+        if (failure != null)
+            throw new UncheckedIOException("Background merge failed", failure);
+    }
+
+    /**
+     * 在lock中调用，有需要合并的run并且没有正在进行的合并时提交合并任务
+     */
+    private void scheduleMerge() {
+        if (!merging && !closed && pickMerge(runs) != null) {
+            merging = true;
+            merger.execute(new Runnable() {
+                public void run() {
+                    mergeLoop();
+                }
+            });
+        }
+    }
+
+    /**
+     * run所在的层：字节数每增大MERGE_FACTOR倍层数加一
+     */
+    private static int tier(long bytes) {
+        int tier = 0;
+        for (long b = bytes; b >= MERGE_FACTOR; b /= MERGE_FACTOR)
+            tier++;
+        return tier;
+    }
+
+    /**
+     * 选择一组需要合并的相邻run，返回下标范围[from, to)，没有时返回null
+     * （只能合并相邻的run，否则合并的结果与夹在中间的run之间的新旧顺序就变了）
+     * <p>
+     * 从低到高依次检查每一层t：层数不超过t的相邻run组成一段，一段中有MERGE_FACTOR个第t层的run时，
+     * 合并从第一个到第MERGE_FACTOR个第t层的run（包括它们之间更低层的run）。
+     * 同一层的MERGE_FACTOR个run合并之后至少进入上一层，因此每个entry被重写的次数是对数级别的；
+     * 夹在大run之间的小run随大run一起合并，不会一直留下。
+     * 墓碑和重复的key使合并的结果变小时，可能没有任何一层凑够MERGE_FACTOR个run，
+     * 这时如果run的个数超过MAX_RUNS，合并总大小最小的MERGE_FACTOR个相邻run。
+     * 总大小超过MAX_RUN_BYTES的范围都不会被选中
+     */
+    private int[] pickMerge(List<Run> runs) {
+        int n = runs.size();
+        int[] tiers = new int[n];
+        int maxTier = 0;
+        for (int i = 0; i < n; i++) {
+            tiers[i] = tier(runs.get(i).bytes);
+            maxTier = Math.max(maxTier, tiers[i]);
+        }
+        for (int t = 0; t <= maxTier; t++) {
+            for (int i = 0; i < n; i++) {
+                if (tiers[i] != t)
+                    continue;
+                long total = 0;
+                int count = 0;
+                for (int j = i; j < n && tiers[j] <= t; j++) {
+                    total += runs.get(j).bytes;
+                    if (total > MAX_RUN_BYTES)
+                        break;
+                    if (tiers[j] == t && ++count == MERGE_FACTOR)
+                        return new int[]{i, j + 1};
+                }
+            }
+        }
+        if (n > MAX_RUNS) {
+            int best = -1;
+            long bestTotal = Long.MAX_VALUE;
+            for (int i = 0; i + MERGE_FACTOR <= n; i++) {
+                long total = 0;
+                for (int j = i; j < i + MERGE_FACTOR; j++)
+                    total += runs.get(j).bytes;
+                if (total <= MAX_RUN_BYTES && total < bestTotal) {
+                    best = i;
+                    bestTotal = total;
+                }
+            }
+            if (best >= 0)
+                return new int[]{best, best + MERGE_FACTOR};
+        }
+        return null;
+    }
+
+    /**
+     * 后台线程中执行：反复选择一组run合并成一个，在lock中用合并的结果替换它们，直到没有需要合并的run
+     */
+    private void mergeLoop() {
+        for (;;) {
+            List<Run> inputs;
+            boolean oldest;
+            synchronized (lock) {
+                int[] range = closed ? null : pickMerge(runs);
+                if (range == null) {
+                    merging = false;
+                    lock.notifyAll();
+                    return;
+                }
+                inputs = new ArrayList<>(runs.subList(range[0], range[1]));
+                oldest = range[1] == runs.size();
+            }
+            Run merged;
+            try {
+                List<Source> sources = new ArrayList<>(inputs.size());
+                for (int j = 0; j < inputs.size(); j++)
+                    sources.add(new RunSource(inputs.get(j), j, false, null, false, false));
+                merged = writeRun(new MergedSource(sources, false), oldest);
+            } catch (IOException | RuntimeException e) {
+                mergeFailure = (e instanceof IOException) ? (IOException) e : new IOException(e);
+                synchronized (lock) {
+                    merging = false;
+                    lock.notifyAll();
+                }
+                return;
+            }
+            List<Run> discarded;
+            synchronized (lock) {
+                int i = runs.indexOf(inputs.get(0));
+                if (i >= 0 && i + inputs.size() <= runs.size()
+                        && runs.subList(i, i + inputs.size()).equals(inputs)) {
+                    List<Run> next = new ArrayList<>(runs);
+                    next.subList(i, i + inputs.size()).clear();
+                    if (merged != null)
+                        next.add(i, merged);
+                    runs = Collections.unmodifiableList(next);
+                    discarded = inputs;
+                } else {
+                    // 合并期间map被clear了
+                    discarded = (merged == null) ? Collections.<Run>emptyList() : Collections.singletonList(merged);
+                }
+            }
+            deleteRuns(discarded);
+        }
+    }
+
+    /**
+     * 删除run文件；已经映射的内存在被回收之前仍然可以读取，所以正在使用这些run的迭代器不受影响
+     */
+    private void deleteRuns(List<Run> runs) {
+        for (Run run : runs) {
+            try {
+                Files.deleteIfExists(run.file);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // run文件
+
+    /**
+     * 把source按顺序写成一个run文件并映射，没有写入任何entry时删除文件并返回null
+     * 格式同TreeMap7.dump：魔数(int) 个数(int) 块大小(int)，然后每个entry依次是key记录和value记录，
+     * 记录是 长度(int) 字节，null的长度为-1，墓碑的长度为-2；之后是块索引，每个块的位置(long)和第一个key记录；
+     * 最后是块索引的位置(long) 块数(int) 魔数(int)。个数在写完之后回填
+     */
+    private Run writeRun(Source source, boolean dropTombstones) throws IOException {
+        Path file;
+        synchronized (lock) {
+            file = dir.resolve("run-" + (runSequence++) + ".spill");
+        }
+        int count = 0;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long[] offsets = new long[16];
+            List<byte[]> firstKeys = new ArrayList<>();
+            ByteBuffer buf = ByteBuffer.allocate(Records7.BUFFER_SIZE);
+            buf.putInt(RUN_MAGIC).putInt(0).putInt(BLOCK_SIZE);
+            long pos = 12;
+            while (source.advance()) {
+                if (dropTombstones && source.value == TOMBSTONE)
+                    continue;
+                byte[] kb = keyCodec.encode((K) source.key);
+                if (count % BLOCK_SIZE == 0) {
+                    int block = count / BLOCK_SIZE;
+                    if (block == offsets.length)
+                        offsets = Arrays.copyOf(offsets, block * 2);
+                    offsets[block] = pos;
+                    firstKeys.add(kb);
+                }
+                buf = Records7.putRecord(ch, buf, kb);
+                pos += 4 + kb.length;
+                if (source.value == TOMBSTONE) {
+                    if (buf.remaining() < 4)
+                        Records7.drain(ch, buf);
+                    buf.putInt(TOMBSTONE_LENGTH);
+                    pos += 4;
+                } else {
+                    byte[] vb = (source.value == null) ? null : valueCodec.encode((V) source.value);
+                    buf = Records7.putRecord(ch, buf, vb);
+                    pos += 4 + (vb == null ? 0 : vb.length);
+                }
+                count++;
+            }
+            for (int i = 0; i < firstKeys.size(); i++) {
+                if (buf.remaining() < 8)
+                    Records7.drain(ch, buf);
+                buf.putLong(offsets[i]);
+                buf = Records7.putRecord(ch, buf, firstKeys.get(i));
+            }
+            if (buf.remaining() < TRAILER_SIZE)
+                Records7.drain(ch, buf);
+            buf.putLong(pos).putInt(firstKeys.size()).putInt(RUN_MAGIC);
+            Records7.drain(ch, buf);
+            ByteBuffer header = ByteBuffer.allocate(4).putInt(0, count);
+            while (header.hasRemaining())
+                ch.write(header, 4 + header.position());
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        if (count == 0) {
+            Files.delete(file);
+            return null;
+        }
+        return new Run(file);
+    }
+
+    /**
+     * 一个内存映射的run文件，堆中只保留块索引
+     * 读取都使用map的duplicate，因此可以被调用者线程和合并线程同时读取
+     */
+    final class Run {
+        final Path file;
+        final long bytes;
+        private final ByteBuffer map;
+        private final int count;
+        private final int blockSize;
+        private final int[] offsets;
+        private final Object[] firstKeys;
+
+        Run(Path file) throws IOException {
+            this.file = file;
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                bytes = ch.size();
+                if (bytes > Integer.MAX_VALUE)
+                    throw new IOException("Run file too large: " + file);
+                map = ch.map(FileChannel.MapMode.READ_ONLY, 0, bytes);
+            }
+            int n = (int) bytes;
+            if (n < 12 + TRAILER_SIZE || map.getInt(0) != RUN_MAGIC || map.getInt(n - 4) != RUN_MAGIC)
+                throw new StreamCorruptedException("Not a run file: " + file);
+            count = map.getInt(4);
+            blockSize = map.getInt(8);
+            int blocks = map.getInt(n - 8);
+            offsets = new int[blocks];
+            firstKeys = new Object[blocks];
+            ByteBuffer b = map.duplicate();
+            b.position((int) map.getLong(n - TRAILER_SIZE));
+            for (int i = 0; i < blocks; i++) {
+                offsets[i] = (int) b.getLong();
+                firstKeys[i] = readKey(b);
+            }
+        }
+
+        /**
+         * 返回第一个key不大于key的最后一个块，key小于所有key时返回-1
+         */
+        int floorBlock(Object key) {
+            int lo = 0, hi = offsets.length - 1, block = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(firstKeys[mid], key) <= 0) {
+                    block = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return block;
+        }
+
+        private int blockCount(int block) {
+            return Math.min(blockSize, count - block * blockSize);
+        }
+
+        /**
+         * 在一个块中顺序查找key，只解码key，找到之后才解码value
+         */
+        Object find(Object key) {
+            int block = floorBlock(key);
+            if (block < 0)
+                return ABSENT;
+            ByteBuffer b = map.duplicate();
+            b.position(offsets[block]);
+            for (int i = blockCount(block); i > 0; i--) {
+                int cmp = compare(key, readKey(b));
+                if (cmp == 0)
+                    return readValue(b);
+                if (cmp < 0)
+                    return ABSENT;
+                skipRecord(b);
+            }
+            return ABSENT;
+        }
+
+        /**
+         * 解码一个块中所有的entry，key和value交替存放
+         */
+        Object[] loadBlock(int block) {
+            ByteBuffer b = map.duplicate();
+            b.position(offsets[block]);
+            Object[] kv = new Object[blockCount(block) * 2];
+            for (int i = 0; i < kv.length; i += 2) {
+                kv[i] = readKey(b);
+                kv[i + 1] = readValue(b);
+            }
+            return kv;
+        }
+
+        int blocks() {
+            return offsets.length;
+        }
+    }
+
+    private K readKey(ByteBuffer b) {
+        byte[] bytes = new byte[b.getInt()];
+        b.get(bytes);
+        return keyCodec.decode(bytes);
+    }
+
+    private Object readValue(ByteBuffer b) {
+        int length = b.getInt();
+        if (length == TOMBSTONE_LENGTH)
+            return TOMBSTONE;
+        if (length == -1)
+            return null;
+        byte[] bytes = new byte[length];
+        b.get(bytes);
+        return valueCodec.decode(bytes);
+    }
+
+    /**
+     * a < b，orEqual为true时a <= b
+     */
+    private boolean lessThan(Object a, Object b, boolean orEqual) {
+        int cmp = compare(a, b);
+        return cmp < 0 || (cmp == 0 && orEqual);
+    }
+
+    private static void skipRecord(ByteBuffer b) {
+        int length = b.getInt();
+        if (length > 0)
+            b.position(b.position() + length);
+    }
+
+    // 多路归并
+
+    /**
+     * 有序的(key, value)序列，value可能是墓碑；rank越小越新，相同的key取rank最小的
+     */
+    abstract static class Source {
+        Object key;
+        Object value;
+        int rank;
+
+        /**
+         * 移动到下一个entry，存入key和value，没有时返回false
+         */
+        abstract boolean advance();
+    }
+
+    static final class MemSource extends Source {
+        private final Iterator<? extends Map.Entry<?, ?>> it;
+
+        MemSource(Iterator<? extends Map.Entry<?, ?>> it, int rank) {
+            this.it = it;
+            this.rank = rank;
+        }
+
+        boolean advance() {
+            if (!it.hasNext())
+                return false;
+            Map.Entry<?, ?> e = it.next();
+            key = e.getKey();
+            value = e.getValue();
+            return true;
+        }
+    }
+
+    /**
+     * 按块遍历一个run，hasStart为true时从start开始（升序时为第一个不小于start的key，降序时为最后一个不大于start的key）
+     */
+    final class RunSource extends Source {
+        private final Run run;
+        private final boolean descending;
+        private int block;
+        private Object[] kv;
+        private int index;
+
+        RunSource(Run run, int rank, boolean hasStart, K start, boolean inclusive, boolean descending) {
+            this.run = run;
+            this.rank = rank;
+            this.descending = descending;
+            int blocks = run.blocks();
+            if (descending) {
+                block = hasStart ? run.floorBlock(start) : blocks - 1;
+                kv = (block < 0) ? new Object[0] : run.loadBlock(block);
+                index = kv.length / 2;
+                if (hasStart)
+                    // 跳过块中大于start（或等于start但不包括）的key
+                    while (index > 0 && !lessThan(kv[2 * (index - 1)], start, inclusive))
+                        index--;
+            } else {
+                block = hasStart ? Math.max(run.floorBlock(start), 0) : 0;
+                kv = (blocks == 0) ? new Object[0] : run.loadBlock(block);
+                index = -1;
+                if (hasStart)
+                    while (index + 1 < kv.length / 2 && lessThan(kv[2 * (index + 1)], start, !inclusive))
+                        index++;
+            }
+        }
+
+        boolean advance() {
+            for (;;) {
+                index += descending ? -1 : 1;
+                if (index >= 0 && index < kv.length / 2) {
+                    key = kv[2 * index];
+                    value = kv[2 * index + 1];
+                    return true;
+                }
+                block += descending ? -1 : 1;
+                if (block < 0 || block >= run.blocks())
+                    return false;
+                kv = run.loadBlock(block);
+                index = descending ? kv.length / 2 : -1;
+            }
+        }
+    }
+
+    /**
+     * 用优先队列对多个Source做归并，同一个key只输出rank最小（最新）的版本，包括墓碑
+     */
+    final class MergedSource extends Source {
+        private final PriorityQueue<Source> queue;
+
+        MergedSource(List<Source> sources, final boolean descending) {
+            queue = new PriorityQueue<>(Math.max(sources.size(), 1), new Comparator<Source>() {
+                public int compare(Source a, Source b) {
+                    int cmp = SpillingTreeMap7.this.compare(a.key, b.key);
+                    if (cmp != 0)
+                        return descending ? -cmp : cmp;
+                    return a.rank - b.rank;
+                }
+            });
+            for (Source s : sources)
+                if (s.advance())
+                    queue.add(s);
+        }
+
+        boolean advance() {
+            Source top = queue.poll();
+            if (top == null)
+                return false;
+            key = top.key;
+            value = top.value;
+            // 跳过更旧的版本
+            while (!queue.isEmpty() && compare(queue.peek().key, key) == 0) {
+                Source s = queue.poll();
+                if (s.advance())
+                    queue.add(s);
+            }
+            if (top.advance())
+                queue.add(top);
+            return true;
+        }
+    }
+
+    // NavigableMap API methods
+
+    public Map.Entry<K, V> firstEntry() {
+        return first(entryIterator(true, null, false, true, null, false, false));
+    }
+
+    public Map.Entry<K, V> lastEntry() {
+        return first(entryIterator(true, null, false, true, null, false, true));
+    }
+
+    public Map.Entry<K, V> lowerEntry(K key) {
+        return first(entryIterator(true, null, false, false, key, false, true));
+    }
+
+    public Map.Entry<K, V> floorEntry(K key) {
+        return first(entryIterator(true, null, false, false, key, true, true));
+    }
+
+    public Map.Entry<K, V> ceilingEntry(K key) {
+        return first(entryIterator(false, key, true, true, null, false, false));
+    }
+
+    public Map.Entry<K, V> higherEntry(K key) {
+        return first(entryIterator(false, key, false, true, null, false, false));
+    }
+
+    private static <K, V> Map.Entry<K, V> first(Iterator<Map.Entry<K, V>> it) {
+        return it.hasNext() ? it.next() : null;
+    }
+
+    Iterator<Map.Entry<K, V>> entryIterator(boolean fromStart, K lo, boolean loInclusive,
+                                           boolean toEnd, K hi, boolean hiInclusive,
+                                           boolean descending) {
+        return new EntryIterator(fromStart, lo, loInclusive, toEnd, hi, hiInclusive, descending);
+    }
+
+    /**
+     * 归并memtable和所有run中指定范围内的entry，跳过墓碑
+     * remove之后memtable已经改变，从刚删除的key之后重新打开所有来源
+     */
+    final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private final boolean toEnd, hiInclusive, fromStart, loInclusive, descending;
+        private final K lo, hi;
+        private Source merged;
+        private Map.Entry<K, V> next;
+        private K lastKey;
+        private boolean canRemove;
+        private int expectedModCount;
+
+        EntryIterator(boolean fromStart, K lo, boolean loInclusive,
+                      boolean toEnd, K hi, boolean hiInclusive, boolean descending) {
+            this.fromStart = fromStart;
+            this.lo = lo;
+            this.loInclusive = loInclusive;
+            this.toEnd = toEnd;
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+            this.descending = descending;
+            open(fromStart, lo, loInclusive, toEnd, hi, hiInclusive);
+        }
+
+        private void open(boolean fromStart, K lo, boolean loInclusive,
+                          boolean toEnd, K hi, boolean hiInclusive) {
+            NavigableMap<K, Object> m = memtable;
+            if (!fromStart && !toEnd)
+                m = m.subMap(lo, loInclusive, hi, hiInclusive);
+            else if (!fromStart)
+                m = m.tailMap(lo, loInclusive);
+            else if (!toEnd)
+                m = m.headMap(hi, hiInclusive);
+            if (descending)
+                m = m.descendingMap();
+            List<Run> rs = runs;
+            List<Source> sources = new ArrayList<>(rs.size() + 1);
+            sources.add(new MemSource(m.entrySet().iterator(), 0));
+            for (int i = 0; i < rs.size(); i++)
+                sources.add(descending ? new RunSource(rs.get(i), i + 1, !toEnd, hi, hiInclusive, true)
+                        : new RunSource(rs.get(i), i + 1, !fromStart, lo, loInclusive, false));
+            merged = new MergedSource(sources, descending);
+            expectedModCount = modCount;
+            advance();
+        }
+
+        /**
+         * 范围的终点由这里检查，run只定位了起点
+         */
+        private void advance() {
+            while (merged.advance()) {
+                K key = (K) merged.key;
+                if (descending ? !fromStart && !lessThan(lo, key, loInclusive)
+                        : !toEnd && !lessThan(key, hi, hiInclusive))
+                    break;
+                if (merged.value != TOMBSTONE) {
+                    next = new AbstractMap7.SimpleImmutableEntry<>(key, (V) merged.value);
+                    return;
+                }
+            }
+            next = null;
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public Map.Entry<K, V> next() {
+            Map.Entry<K, V> e = next;
+            if (e == null)
+                throw new NoSuchElementException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            advance();
+            lastKey = e.getKey();
+            canRemove = true;
+            return e;
+        }
+
+        public void remove() {
+            if (!canRemove)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            SpillingTreeMap7.this.remove(lastKey);
+            canRemove = false;
+            if (descending)
+                open(fromStart, lo, loInclusive, false, lastKey, false);
+            else
+                open(false, lastKey, false, toEnd, hi, hiInclusive);
+        }
+    }
+}
@@ -1,6 +1,21 @@
 package org.lipeng.demo.collectioncomments;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
 
 /**
  * A Red-Black tree based {@link NavigableMap} implementation.
@@ -81,6 +96,14 @@ public class TreeMap7<K,V>
      */
     private final Comparator<? super K> comparator;
 
+    /**
+     * The function computing the cached key prefix of each entry, or
+     * null if lookups compare full keys only.
+     *
+     * @serial
+     */
+    private final ToLongFunction<? super K> keyPrefix;
+
     private transient Entry<K,V> root = null;
     private transient int size = 0;
     private transient int modCount = 0;
@@ -99,6 +122,7 @@ public class TreeMap7<K,V>
      */
     public TreeMap7() {
         comparator = null;
+        keyPrefix = null;
     }
 
     /**
@@ -117,6 +141,65 @@ public class TreeMap7<K,V>
      */
     public TreeMap7(Comparator<? super K> comparator) {
         this.comparator = comparator;
+        this.keyPrefix = null;
+    }
+
+    /**
+     * Constructs a new, empty tree map, ordered according to the given
+     * comparator, whose entries cache a 64-bit prefix of their keys.
+     * {@code get}, {@code containsKey}, {@code remove} and {@code put}
+     * compare the cached prefixes first and call the comparator only
+     * when the prefixes are equal, which saves most full comparisons
+     * for keys that are expensive to compare, such as long strings
+     * sharing few leading characters, or composite keys.
+     *
+     * <p>The prefix function must be consistent with the ordering: if
+     * the prefix of {@code k1} is less than the prefix of {@code k2},
+     * compared as unsigned longs, then {@code k1} must be less than
+     * {@code k2}.  Equal prefixes imply nothing.  {@link
+     * #stringKeyPrefix()} is such a function for the natural ordering
+     * of strings.
+     *
+     * @param comparator the comparator that will be used to order this map.
+     *        If {@code null}, the {@linkplain Comparable natural
+     *        ordering} of the keys will be used.
+     * @param keyPrefix the order-preserving key prefix function, or
+     *        {@code null} to compare full keys only
+     */
+    public TreeMap7(Comparator<? super K> comparator,
+                    ToLongFunction<? super K> keyPrefix) {
+        this.comparator = comparator;
+        this.keyPrefix = keyPrefix;
+    }
+
+    /**
+     * Returns a key prefix function for strings in their natural
+     * ordering, packing the first four UTF-16 chars of a string into a
+     * long, with missing chars as zero.
+     *
+     * @return an order-preserving key prefix function for strings
+     * @see #TreeMap7(Comparator, ToLongFunction)
+     */
+    public static ToLongFunction<String> stringKeyPrefix() {
+        return StringKeyPrefix.INSTANCE;
+    }
+
+    private static final class StringKeyPrefix
+        implements ToLongFunction<String>, java.io.Serializable {
+        private static final long serialVersionUID = 1L;
+        static final StringKeyPrefix INSTANCE = new StringKeyPrefix();
+
+        public long applyAsLong(String s) {
+            long prefix = 0;
+            int n = Math.min(s.length(), 4);
+            for (int i = 0; i < n; i++)
+                prefix |= (long) s.charAt(i) << (48 - 16 * i);
+            return prefix;
+        }
+
+        private Object readResolve() {
+            return INSTANCE;
+        }
     }
 
     /**
@@ -135,6 +218,7 @@ public class TreeMap7<K,V>
      */
     public TreeMap7(Map<? extends K, ? extends V> m) {
         comparator = null;
+        keyPrefix = null;
         putAll(m);
     }
 
@@ -149,6 +233,7 @@ public class TreeMap7<K,V>
      */
     public TreeMap7(SortedMap<K, ? extends V> m) {
         comparator = m.comparator();
+        keyPrefix = null;
         try {
             buildFromSorted(m.size(), m.entrySet().iterator(), null, null);
         } catch (java.io.IOException cannotHappen) {
@@ -272,6 +357,678 @@ public class TreeMap7<K,V>
         super.putAll(map);
     }
 
+    /**
+     * Copies all of the given mappings, in any order, into this map in
+     * O(n log n) total time without per-insert rebalancing.  The
+     * mappings are sorted with {@link Arrays#parallelSort}, mappings
+     * whose keys compare equal are collapsed, the result is merged in
+     * one linear pass with the mappings already in this map, and the
+     * whole tree is rebuilt by {@code buildFromSorted}.
+     *
+     * <p>The outcome is the same as calling {@code put} for each
+     * mapping in iteration order: for keys that compare equal the first
+     * key object already present (or given) is kept and the last given
+     * value wins.
+     *
+     * @param  entries mappings to be stored in this map
+     * @throws ClassCastException if a key cannot be compared with the
+     *         other keys
+     * @throws NullPointerException if a key is null and this map uses
+     *         natural ordering, or its comparator does not permit null keys
+     */
+    public void bulkLoad(Collection<? extends Map.Entry<? extends K, ? extends V>> entries) {
+        Map.Entry<K,V>[] a = entries.toArray(new Map.Entry[0]);
+        int n = a.length;
+        if (n == 0)
+            return;
+        if (n == 1)
+            compare(a[0].getKey(), a[0].getKey()); // type (and possibly null) check
+        final Comparator<? super K> cpr = comparator;
+        Arrays.parallelSort(a, new Comparator<Map.Entry<K,V>>() {
+            public int compare(Map.Entry<K,V> e1, Map.Entry<K,V> e2) {
+                return cpr == null ?
+                    ((Comparable<? super K>)e1.getKey()).compareTo(e2.getKey()) :
+                    cpr.compare(e1.getKey(), e2.getKey());
+            }
+        });
+
+        // parallelSort is stable, so equal keys are still in given order
+        int unique = 0;
+        for (int i = 0; i < n; i++) {
+            if (unique > 0 && compare(a[unique - 1].getKey(), a[i].getKey()) == 0)
+                a[unique - 1] = new AbstractMap7.SimpleImmutableEntry<>(
+                    a[unique - 1].getKey(), a[i].getValue());
+            else
+                a[unique++] = a[i];
+        }
+
+        Iterator<? extends Map.Entry<?,?>> it;
+        int newSize;
+        if (root == null) {
+            it = Arrays.asList(a).subList(0, unique).iterator();
+            newSize = unique;
+        } else {
+            // as with put, the given value replaces an existing one
+            BiFunction<V,V,V> replace = new BiFunction<V,V,V>() {
+                public V apply(V oldValue, V newValue) {
+                    return newValue;
+                }
+            };
+            Map.Entry<?,?>[] merged = new Map.Entry<?,?>[size + unique];
+            newSize = mergeSorted(Arrays.asList(a).subList(0, unique).iterator(),
+                                  UNION, replace, merged);
+            it = Arrays.asList(merged).subList(0, newSize).iterator();
+        }
+
+        ++modCount;
+        try {
+            buildFromSorted(newSize, it, null, null);
+        } catch (java.io.IOException cannotHappen) {
+        } catch (ClassNotFoundException cannotHappen) {
+        }
+    }
+
+    /**
+     * Copies the given mappings, expected in ascending key order, into
+     * this map.  The outcome is the same as calling {@code put} for each
+     * mapping in iteration order, but the search path is shared between
+     * consecutive keys:
+     *
+     * <ul>
+     * <li>Keys greater than every key in the map are not inserted one
+     * by one.  The whole ascending run of them is collected, built into
+     * a balanced tree by {@code buildFromSorted}, and joined onto the
+     * right spine in a single O(log n) step, so rebalancing is done
+     * once per run instead of once per key.  Appending monotonically
+     * increasing keys, such as timestamps, thus costs O(1) amortized
+     * per key.
+     * <li>Other keys are inserted starting from the entry put last, as
+     * in {@link Cursor#seek}: the descent starts at the lowest ancestor
+     * whose subtree covers the key, so a key d positions after the
+     * previous one costs O(log d) comparisons instead of O(log n).
+     * </ul>
+     *
+     * <p>Keys out of order are still stored correctly; each one just
+     * restarts the search from the root.
+     * If a key is rejected with an exception, the mappings before it
+     * remain stored, again as with a sequence of {@code put} calls.
+     *
+     * @param entries mappings to be stored in this map, in ascending
+     *        key order
+     * @throws ClassCastException if a key cannot be compared with the
+     *         keys currently in the map
+     * @throws NullPointerException if a key is null and this map uses
+     *         natural ordering, or its comparator does not permit null keys
+     */
+    public void putAllSorted(Iterator<? extends Map.Entry<? extends K, ? extends V>> entries) {
+        Entry<K,V> last = getLastEntry();
+        Entry<K,V> finger = null;
+        Map.Entry<? extends K, ? extends V> pending = entries.hasNext() ? entries.next() : null;
+        while (pending != null) {
+            K key = pending.getKey();
+            if (last == null)
+                compare(key, key); // type (and possibly null) check
+            if (last == null || compare(key, last.key) > 0) {
+                List<Map.Entry<K,V>> run = new ArrayList<>();
+                Map.Entry<K,V> tail = new AbstractMap7.SimpleEntry<>(key, pending.getValue());
+                run.add(tail);
+                pending = null;
+                try {
+                    while (entries.hasNext()) {
+                        Map.Entry<? extends K, ? extends V> e = entries.next();
+                        int cmp = compare(e.getKey(), tail.getKey());
+                        if (cmp > 0) {
+                            tail = new AbstractMap7.SimpleEntry<>(e.getKey(), e.getValue());
+                            run.add(tail);
+                        } else if (cmp == 0) {
+                            tail.setValue(e.getValue());
+                        } else {
+                            pending = e;
+                            break;
+                        }
+                    }
+                } finally {
+                    // If a later key throws, the mappings read before it
+                    // are still stored, as a sequence of puts would have.
+                    appendRun(run);
+                }
+                last = getLastEntry();
+                finger = null;
+            } else {
+                finger = putNear(finger, key, pending.getValue());
+                pending = entries.hasNext() ? entries.next() : null;
+            }
+        }
+    }
+
+    /**
+     * Appends mappings whose keys are ascending and greater than all
+     * keys of this map: the first one becomes the middle entry of a
+     * three-way join, the rest are built into a balanced tree.
+     */
+    private void appendRun(List<Map.Entry<K,V>> run) {
+        int n = run.size();
+        Iterator<Map.Entry<K,V>> it = run.iterator();
+        Map.Entry<K,V> first = it.next();
+        Entry<K,V> middle = new Entry<>(first.getKey(), first.getValue(), null);
+        if (keyPrefix != null)
+            middle.prefix = prefixOf(middle.key);
+        Entry<K,V> right = null;
+        try {
+            right = buildFromSorted(0, 0, n - 2, computeRedLevel(n - 1), it, null, null);
+        } catch (java.io.IOException cannotHappen) {
+        } catch (ClassNotFoundException cannotHappen) {
+        }
+        root = join(root, middle, right);
+        root.color = BLACK;
+        size += n;
+        modCount++;
+    }
+
+    /**
+     * Puts the mapping and returns the entry holding key.  If key is
+     * greater than the key of finger, the descent starts at the
+     * subtree found by climbing from finger as in Cursor.seek, else at
+     * the root.
+     */
+    private Entry<K,V> putNear(Entry<K,V> finger, K key, V value) {
+        Entry<K,V> t = root;
+        if (finger != null) {
+            int cmp = compare(key, finger.key);
+            if (cmp == 0) {
+                finger.setValue(value);
+                return finger;
+            }
+            if (cmp > 0) {
+                // Climb until an ancestor reached from its left child is
+                // not below key; t's subtree then covers key.
+                t = finger;
+                for (Entry<K,V> parent = t.parent; parent != null; parent = t.parent) {
+                    if (t == parent.left) {
+                        cmp = compare(key, parent.key);
+                        if (cmp == 0) {
+                            parent.setValue(value);
+                            return parent;
+                        }
+                        if (cmp < 0)
+                            break;
+                    }
+                    t = parent;
+                }
+            }
+        }
+        int cmp;
+        Entry<K,V> parent;
+        do {
+            parent = t;
+            cmp = compare(key, t.key);
+            if (cmp < 0)
+                t = t.left;
+            else if (cmp > 0)
+                t = t.right;
+            else {
+                t.setValue(value);
+                return t;
+            }
+        } while (t != null);
+        Entry<K,V> e = new Entry<>(key, value, parent);
+        if (keyPrefix != null)
+            e.prefix = prefixOf(key);
+        if (cmp < 0)
+            parent.left = e;
+        else
+            parent.right = e;
+        for (Entry<K,V> p = parent; p != null; p = p.parent)
+            p.size++;
+        fixAfterInsertion(e);
+        size++;
+        modCount++;
+        return e;
+    }
+
+    // Bulk structural operations
+
+    /**
+     * Removes all of the mappings whose keys fall between {@code fromKey}
+     * and {@code toKey} in O(log n) time, independent of how many
+     * mappings are removed.  The tree is split at both bounds and the
+     * two outer parts are joined again; the removed part is dropped
+     * without being traversed.  {@code subMap(from, to).clear()} by
+     * contrast deletes and rebalances once per entry.
+     *
+     * @param fromKey low endpoint of the keys to remove
+     * @param fromInclusive {@code true} if the low endpoint is removed
+     * @param toKey high endpoint of the keys to remove
+     * @param toInclusive {@code true} if the high endpoint is removed
+     * @return the number of mappings removed
+     * @throws ClassCastException if the keys cannot be compared with
+     *         the keys currently in the map
+     * @throws NullPointerException if a key is null and this map uses
+     *         natural ordering, or its comparator does not permit null keys
+     * @throws IllegalArgumentException if {@code fromKey} is greater
+     *         than {@code toKey}
+     */
+    public int removeRange(K fromKey, boolean fromInclusive,
+                           K toKey, boolean toInclusive) {
+        int c = compare(fromKey, toKey);
+        if (c > 0)
+            throw new IllegalArgumentException("fromKey > toKey");
+        if (c == 0 && !(fromInclusive && toInclusive))
+            return 0;
+        int oldSize = size;
+        Entry<K,V>[] parts = new Entry[3];
+        int[] heights = new int[3];
+        split(root, blackHeight(root), fromKey, parts, heights);
+        Entry<K,V> left = parts[0];
+        int hl = heights[0];
+        if (parts[1] != null && !fromInclusive) {
+            left = join(left, hl, parts[1], null, 0);
+            hl = joinHeight;
+        }
+        split(parts[2], heights[2], toKey, parts, heights);
+        Entry<K,V> right = parts[2];
+        int hr = heights[2];
+        if (parts[1] != null && !toInclusive) {
+            right = join(null, 0, parts[1], right, hr);
+            hr = joinHeight;
+        }
+        root = join(left, right, hr);
+        if (root != null)
+            root.color = BLACK;
+        size = sizeOf(root);
+        modCount++;
+        return oldSize - size;
+    }
+
+    /**
+     * Equivalent to {@code removeRange(fromKey, true, toKey, false)}.
+     */
+    public int removeRange(K fromKey, K toKey) {
+        return removeRange(fromKey, true, toKey, false);
+    }
+
+    /**
+     * Moves all of the mappings whose keys are greater than or equal to
+     * {@code key} into a new map, with the same comparator, in O(log n)
+     * time.  This map keeps the mappings whose keys are less than
+     * {@code key}.
+     *
+     * @param key the key at which to split
+     * @return a new map with the mappings at or above {@code key}
+     * @throws ClassCastException if the key cannot be compared with the
+     *         keys currently in the map
+     * @throws NullPointerException if the key is null and this map uses
+     *         natural ordering, or its comparator does not permit null keys
+     */
+    public TreeMap7<K,V> split(K key) {
+        compare(key, key); // type (and possibly null) check
+        Entry<K,V>[] parts = new Entry[3];
+        split(root, blackHeight(root), key, parts, new int[3]);
+        Entry<K,V> right = (parts[1] == null) ? parts[2] : join(null, parts[1], parts[2]);
+        if (right != null)
+            right.color = BLACK;
+        TreeMap7<K,V> result = new TreeMap7<>(comparator, keyPrefix);
+        result.root = right;
+        result.size = sizeOf(right);
+        root = parts[0];
+        if (root != null)
+            root.color = BLACK;
+        size = sizeOf(root);
+        modCount++;
+        return result;
+    }
+
+    /**
+     * Moves all of the mappings of {@code other} into this map in
+     * O(log n + log m) time, leaving {@code other} empty.  The keys of
+     * the two maps must not interleave: all keys of {@code other} must
+     * be greater than all keys of this map, or all less.
+     *
+     * @param other the map whose mappings are moved into this map
+     * @throws IllegalArgumentException if the maps have different
+     *         comparators, or their key ranges overlap
+     */
+    public void concat(TreeMap7<K,V> other) {
+        if (other == this)
+            throw new IllegalArgumentException("concat with itself");
+        Comparator<? super K> c = other.comparator;
+        if (!(c == comparator || (c != null && c.equals(comparator))))
+            throw new IllegalArgumentException("comparators differ");
+        ToLongFunction<? super K> f = other.keyPrefix;
+        if (!(f == keyPrefix || (f != null && f.equals(keyPrefix))))
+            throw new IllegalArgumentException("key prefix functions differ");
+        if (other.root == null)
+            return;
+        if (root == null) {
+            root = other.root;
+        } else if (compare(getLastEntry().key, other.getFirstEntry().key) < 0) {
+            root = join(root, other.root);
+        } else if (compare(other.getLastEntry().key, getFirstEntry().key) < 0) {
+            root = join(other.root, root);
+        } else {
+            throw new IllegalArgumentException("key ranges overlap");
+        }
+        size = sizeOf(root);
+        modCount++;
+        other.root = null;
+        other.size = 0;
+        other.modCount++;
+    }
+
+    /**
+     * Splits the tree rooted at t, of black height bh, by key: parts[0]
+     * receives the tree of keys less than key, parts[1] the detached
+     * entry equal to key (or null), and parts[2] the tree of keys greater
+     * than key; heights[0] and heights[2] receive the black heights of
+     * parts[0] and parts[2].  Each level of the descent joins the
+     * subtree it leaves behind to the part built so far.  The black
+     * heights are carried down and returned by each join instead of
+     * being measured, and the costs of the joins telescope, so the
+     * whole split runs in O(log n).
+     */
+    private void split(Entry<K,V> t, int bh, Object key,
+                       Entry<K,V>[] parts, int[] heights) {
+        if (t == null) {
+            parts[0] = parts[1] = parts[2] = null;
+            heights[0] = heights[2] = 0;
+            return;
+        }
+        Entry<K,V> l = t.left, r = t.right;
+        int ch = (t.color == BLACK) ? bh - 1 : bh;
+        int cmp = compare(key, t.key);
+        if (cmp == 0) {
+            if (l != null)
+                l.parent = null;
+            if (r != null)
+                r.parent = null;
+            t.left = t.right = t.parent = null;
+            t.size = 1;
+            parts[0] = l;
+            parts[1] = t;
+            parts[2] = r;
+            heights[0] = heights[2] = ch;
+        } else if (cmp < 0) {
+            split(l, ch, key, parts, heights);
+            parts[2] = join(parts[2], heights[2], t, r, ch);
+            heights[2] = joinHeight;
+        } else {
+            split(r, ch, key, parts, heights);
+            parts[0] = join(l, ch, t, parts[0], heights[0]);
+            heights[0] = joinHeight;
+        }
+    }
+
+    /**
+     * Joins two trees, all keys of l being less than all keys of r, by
+     * detaching the greatest entry of l and using it as the middle
+     * entry of a three-way join.
+     */
+    private Entry<K,V> join(Entry<K,V> l, Entry<K,V> r) {
+        return join(l, r, blackHeight(r));
+    }
+
+    /**
+     * Same as {@link #join(Entry, Entry)} for an r whose black height br
+     * is known.  Deleting the greatest entry of l may lower the black
+     * height of l, so that one is measured after the deletion.
+     */
+    private Entry<K,V> join(Entry<K,V> l, Entry<K,V> r, int br) {
+        if (l == null)
+            return r;
+        if (r == null)
+            return l;
+        l.parent = null;
+        root = l;
+        Entry<K,V> last = getLastEntry();
+        Entry<K,V> middle = new Entry<>(last.key, last.value, null);
+        middle.prefix = last.prefix;
+        deleteEntry(last);
+        return join(root, blackHeight(root), middle, r, br);
+    }
+
+    /**
+     * The black height of the tree last returned by the three-way join,
+     * so that split need not measure the parts it builds.
+     */
+    private transient int joinHeight;
+
+    /**
+     * Joins the trees l and r and the detached entry k, all keys of l
+     * being less than k's key and all keys of r greater, into one
+     * red-black tree and returns its root.  If the black heights differ,
+     * k is linked in red where the spine of the taller tree reaches the
+     * black height of the shorter one, and a red-red violation is
+     * repaired as after an insertion; this costs O(difference of the
+     * black heights).  Uses the root field as scratch space.
+     */
+    private Entry<K,V> join(Entry<K,V> l, Entry<K,V> k, Entry<K,V> r) {
+        return join(l, blackHeight(l), k, r, blackHeight(r));
+    }
+
+    /**
+     * Same as {@link #join(Entry, Entry, Entry)} for trees whose black
+     * heights bl and br are known; the black height of the result is
+     * left in joinHeight.
+     */
+    private Entry<K,V> join(Entry<K,V> l, int bl, Entry<K,V> k,
+                            Entry<K,V> r, int br) {
+        if (l != null) {
+            l.parent = null;
+            if (l.color == RED) {
+                l.color = BLACK;
+                bl++;
+            }
+        }
+        if (r != null) {
+            r.parent = null;
+            if (r.color == RED) {
+                r.color = BLACK;
+                br++;
+            }
+        }
+        if (bl == br) {
+            link(k, l, r);
+            k.parent = null;
+            k.color = BLACK;
+            joinHeight = bl + 1;
+            return k;
+        }
+        Entry<K,V> parent = null, c;
+        if (bl > br) {
+            c = l;
+            int h = bl;
+            while (c != null && (h > br || c.color == RED)) {
+                if (c.color == BLACK)
+                    h--;
+                parent = c;
+                c = c.right;
+            }
+            link(k, c, r);
+            parent.right = k;
+            root = l;
+        } else {
+            c = r;
+            int h = br;
+            while (c != null && (h > bl || c.color == RED)) {
+                if (c.color == BLACK)
+                    h--;
+                parent = c;
+                c = c.left;
+            }
+            link(k, l, c);
+            parent.left = k;
+            root = r;
+        }
+        k.parent = parent;
+        int added = k.size - sizeOf(c);
+        for (Entry<K,V> p = parent; p != null; p = p.parent)
+            p.size += added;
+        joinHeight = Math.max(bl, br) + (fixAfterInsertion(k) ? 1 : 0);
+        return root;
+    }
+
+    /**
+     * Makes l and r the children of k and recomputes k's subtree size.
+     */
+    private static <K,V> void link(Entry<K,V> k, Entry<K,V> l, Entry<K,V> r) {
+        k.left = l;
+        k.right = r;
+        if (l != null)
+            l.parent = k;
+        if (r != null)
+            r.parent = k;
+        k.size = sizeOf(l) + sizeOf(r) + 1;
+    }
+
+    /**
+     * Returns the number of black entries on any path from t down to a
+     * leaf, counted along the leftmost path.
+     */
+    private static <K,V> int blackHeight(Entry<K,V> t) {
+        int h = 0;
+        for (; t != null; t = t.left)
+            if (t.color == BLACK)
+                h++;
+        return h;
+    }
+
+    // Set algebra
+
+    /**
+     * Returns a new map, with this map's comparator, containing the
+     * mappings of both this map and {@code other}.  For a key present in
+     * both, the key of this map is kept and the value is
+     * {@code merge.apply(thisValue, otherValue)}.
+     *
+     * <p>Runs in O(n + m) time: both maps are walked once in key order
+     * and the result is built by {@code buildFromSorted}, instead of
+     * O(m log(n + m)) for {@code putAll}.  If {@code other} is not
+     * ordered by an equal comparator it is first copied into a map that
+     * is, in O(m log m).
+     *
+     * @param other the map to merge with
+     * @param merge the function computing the value of a key present in
+     *        both maps
+     * @return the union of the two maps
+     * @throws NullPointerException if other or merge is null
+     */
+    public TreeMap7<K,V> union(SortedMap<K, ? extends V> other,
+                               BiFunction<? super V, ? super V, ? extends V> merge) {
+        if (merge == null)
+            throw new NullPointerException();
+        Map.Entry<?,?>[] out = new Map.Entry<?,?>[size + other.size()];
+        return fromSorted(out, mergeSorted(sortedEntries(other), UNION, merge, out));
+    }
+
+    /**
+     * Returns a new map, with this map's comparator, containing the keys
+     * present in both this map and {@code other}, each with the value
+     * {@code merge.apply(thisValue, otherValue)}.  Runs in O(n + m) time.
+     *
+     * @param other the map to intersect with
+     * @param merge the function computing the value of each common key
+     * @return the intersection of the two maps
+     * @throws NullPointerException if other or merge is null
+     * @see #union
+     */
+    public TreeMap7<K,V> intersect(SortedMap<K, ? extends V> other,
+                                   BiFunction<? super V, ? super V, ? extends V> merge) {
+        if (merge == null)
+            throw new NullPointerException();
+        Map.Entry<?,?>[] out = new Map.Entry<?,?>[size];
+        return fromSorted(out, mergeSorted(sortedEntries(other), INTERSECTION, merge, out));
+    }
+
+    /**
+     * Returns a new map, with this map's comparator, containing the
+     * mappings of this map whose keys are not present in {@code other}.
+     * Runs in O(n + m) time.
+     *
+     * @param other the map whose keys are removed
+     * @return the difference of the two maps
+     * @throws NullPointerException if other is null
+     * @see #union
+     */
+    public TreeMap7<K,V> difference(SortedMap<K, ?> other) {
+        Map.Entry<?,?>[] out = new Map.Entry<?,?>[size];
+        return fromSorted(out, mergeSorted(sortedEntries(other), DIFFERENCE, null, out));
+    }
+
+    private static final int UNION = 0, INTERSECTION = 1, DIFFERENCE = 2;
+
+    /**
+     * Returns the entries of the given map in this map's key order.
+     */
+    private <W> Iterator<? extends Map.Entry<K, ? extends W>> sortedEntries(
+            SortedMap<K, ? extends W> other) {
+        Comparator<? super K> c = other.comparator();
+        if (c == comparator || (c != null && c.equals(comparator)))
+            return other.entrySet().iterator();
+        TreeMap7<K,W> copy = new TreeMap7<>(comparator);
+        copy.putAll(other);
+        return copy.entrySet().iterator();
+    }
+
+    /**
+     * Merges the entries of this map with the given entries, which must
+     * have distinct keys in this map's key order, into out in one linear
+     * pass over both sequences.  Keys only in this map are kept unless
+     * op is INTERSECTION, keys only in the other sequence are kept only
+     * if op is UNION, and common keys are kept, with this map's key and
+     * the value merge(thisValue, otherValue), unless op is DIFFERENCE
+     * (the only op for which merge may be null).
+     *
+     * @return the number of entries written to out
+     */
+    private <W> int mergeSorted(Iterator<? extends Map.Entry<K, ? extends W>> it, int op,
+                                BiFunction<? super V, ? super W, ? extends V> merge,
+                                Map.Entry<?,?>[] out) {
+        int n = 0;
+        Entry<K,V> e = getFirstEntry();
+        Map.Entry<K, ? extends W> o = it.hasNext() ? it.next() : null;
+        while (e != null && o != null) {
+            int cmp = compare(e.key, o.getKey());
+            if (cmp < 0) {
+                if (op != INTERSECTION)
+                    out[n++] = e;
+                e = successor(e);
+            } else if (cmp > 0) {
+                if (op == UNION)
+                    out[n++] = o;
+                o = it.hasNext() ? it.next() : null;
+            } else {
+                if (op != DIFFERENCE) {
+                    V value = merge.apply(e.value, o.getValue());
+                    out[n++] = new AbstractMap7.SimpleImmutableEntry<>(e.key, value);
+                }
+                e = successor(e);
+                o = it.hasNext() ? it.next() : null;
+            }
+        }
+        if (op != INTERSECTION)
+            for (; e != null; e = successor(e))
+                out[n++] = e;
+        if (op == UNION)
+            for (; o != null; o = it.hasNext() ? it.next() : null)
+                out[n++] = o;
+        return n;
+    }
+
+    /**
+     * Returns a new map with this map's comparator built from the first
+     * n entries of the given key-sorted array, whose keys are K's and
+     * values V's.
+     */
+    private TreeMap7<K,V> fromSorted(Map.Entry<?,?>[] a, int n) {
+        TreeMap7<K,V> result = new TreeMap7<>(comparator, keyPrefix);
+        try {
+            result.buildFromSorted(n, Arrays.asList(a).subList(0, n).iterator(), null, null);
+        } catch (java.io.IOException cannotHappen) {
+        } catch (ClassNotFoundException cannotHappen) {
+        }
+        return result;
+    }
+
     /**
      * Returns this map's entry for the given key, or {@code null} if the map
      * does not contain an entry for the key.
@@ -285,7 +1042,9 @@ public class TreeMap7<K,V>
      *         does not permit null keys
      */
     final Entry<K,V> getEntry(Object key) {
-        // Offload comparator-based version for sake of performance
+        // Offload prefix- and comparator-based versions for sake of performance
+        if (keyPrefix != null)
+            return getEntryUsingPrefix(key);
         if (comparator != null)
             return getEntryUsingComparator(key);
         if (key == null)
@@ -328,6 +1087,35 @@ public class TreeMap7<K,V>
         return null;
     }
 
+    /**
+     * Version of getEntry for maps with a key prefix function: the
+     * descent compares the key's prefix with the cached prefix of each
+     * entry, and compares full keys only on equal prefixes.
+     */
+    final Entry<K,V> getEntryUsingPrefix(Object key) {
+        K k = (K) key;
+        long kp = prefixOf(k);
+        Entry<K,V> p = root;
+        while (p != null) {
+            int cmp = (kp != p.prefix) ? (kp < p.prefix ? -1 : 1) : compare(k, p.key);
+            if (cmp < 0)
+                p = p.left;
+            else if (cmp > 0)
+                p = p.right;
+            else
+                return p;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the key prefix of key, offset by Long.MIN_VALUE so that
+     * signed comparison of prefixes orders them as unsigned.
+     */
+    final long prefixOf(K key) {
+        return keyPrefix.applyAsLong(key) ^ Long.MIN_VALUE;
+    }
+
     /**
      * Gets the entry corresponding to the specified key; if no such entry
      * exists, returns the entry for the least key greater than the specified
@@ -481,15 +1269,31 @@ public class TreeMap7<K,V>
             compare(key, key); // type (and possibly null) check
 
             root = new Entry<>(key, value, null);
+            if (keyPrefix != null)
+                root.prefix = prefixOf(key);
             size = 1;
             modCount++;
             return null;
         }
         int cmp;
         Entry<K,V> parent;
-        // split comparator and comparable paths
+        long kp = 0;
+        // split prefix, comparator and comparable paths
         Comparator<? super K> cpr = comparator;
-        if (cpr != null) {
+        if (keyPrefix != null) {
+            kp = prefixOf(key);
+            do {
+                parent = t;
+                cmp = (kp != t.prefix) ? (kp < t.prefix ? -1 : 1) : compare(key, t.key);
+                if (cmp < 0)
+                    t = t.left;
+                else if (cmp > 0)
+                    t = t.right;
+                else
+                    return t.setValue(value);
+            } while (t != null);
+        }
+        else if (cpr != null) {
             do {
                 parent = t;
                 cmp = cpr.compare(key, t.key);
@@ -517,10 +1321,13 @@ public class TreeMap7<K,V>
             } while (t != null);
         }
         Entry<K,V> e = new Entry<>(key, value, parent);
+        e.prefix = kp;
         if (cmp < 0)
             parent.left = e;
         else
             parent.right = e;
+        for (Entry<K,V> p = parent; p != null; p = p.parent)
+            p.size++;
         fixAfterInsertion(e);
         size++;
         modCount++;
@@ -589,6 +1396,36 @@ public class TreeMap7<K,V>
         return clone;
     }
 
+    /**
+     * Returns an unmodifiable copy of this map, with the same comparator
+     * and key prefix function, holding its keys and values in two
+     * arrays in key order.  The copy takes a fraction of the memory of
+     * the red-black entries, and answers lookups and relational queries
+     * by binary search over contiguous arrays, and range views by
+     * moving an index.  When this map has a key prefix function, the
+     * cached prefixes are copied into a {@code long} array as well, and
+     * the binary search compares them before comparing full keys.
+     *
+     * <p>Runs in O(n) time.  Later changes to this map are not
+     * reflected in the copy.
+     *
+     * @return an immutable copy of this map
+     */
+    public ImmutableTreeMap7<K,V> toImmutable() {
+        int n = size;
+        Object[] ks = new Object[n];
+        Object[] vs = new Object[n];
+        long[] ps = (keyPrefix == null) ? null : new long[n];
+        int i = 0;
+        for (Entry<K,V> e = getFirstEntry(); e != null; e = successor(e), i++) {
+            ks[i] = e.key;
+            vs[i] = e.value;
+            if (ps != null)
+                ps[i] = e.prefix;
+        }
+        return new ImmutableTreeMap7<>(comparator, keyPrefix, ks, vs, ps);
+    }
+
     // NavigableMap API methods
 
     /**
@@ -667,52 +1504,330 @@ public class TreeMap7<K,V>
      *         does not permit null keys
      * @since 1.6
      */
-    public K floorKey(K key) {
-        return keyOrNull(getFloorEntry(key));
+    public K floorKey(K key) {
+        return keyOrNull(getFloorEntry(key));
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     * @since 1.6
+     */
+    public Map.Entry<K,V> ceilingEntry(K key) {
+        return exportEntry(getCeilingEntry(key));
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     * @since 1.6
+     */
+    public K ceilingKey(K key) {
+        return keyOrNull(getCeilingEntry(key));
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     * @since 1.6
+     */
+    public Map.Entry<K,V> higherEntry(K key) {
+        return exportEntry(getHigherEntry(key));
+    }
+
+    /**
+     * @throws ClassCastException {@inheritDoc}
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     * @since 1.6
+     */
+    public K higherKey(K key) {
+        return keyOrNull(getHigherEntry(key));
+    }
+
+    // Order statistic operations
+
+    /**
+     * Returns the key that has exactly {@code k} smaller keys in this
+     * map, i.e. the key at position {@code k} of the key-sorted order.
+     * Runs in O(log n) time using the subtree size kept in each entry,
+     * instead of stepping {@code k} times with {@code successor}.
+     *
+     * @param k the position, counting from zero
+     * @return the key at position {@code k}
+     * @throws IndexOutOfBoundsException if {@code k < 0 || k >= size()}
+     */
+    public K select(int k) {
+        return getEntryByRank(k).key;
+    }
+
+    /**
+     * Returns a key-value mapping associated with the key at position
+     * {@code k} of the key-sorted order.
+     *
+     * @param k the position, counting from zero
+     * @return an entry with the key at position {@code k}
+     * @throws IndexOutOfBoundsException if {@code k < 0 || k >= size()}
+     * @see #select(int)
+     */
+    public Map.Entry<K,V> selectEntry(int k) {
+        return exportEntry(getEntryByRank(k));
+    }
+
+    /**
+     * Returns the number of keys in this map strictly less than the
+     * given key.  The key need not be present; if it is, this is its
+     * position in the key-sorted order, so {@code select(rank(key))}
+     * returns {@code key}.  Runs in O(log n) time.
+     *
+     * @param key the key
+     * @return the number of keys less than {@code key}
+     * @throws ClassCastException if the specified key cannot be compared
+     *         with the keys currently in the map
+     * @throws NullPointerException if the specified key is null
+     *         and this map uses natural ordering, or its comparator
+     *         does not permit null keys
+     */
+    public int rank(K key) {
+        return countLess(key, false);
+    }
+
+    /**
+     * Returns the entry at position k, descending from the root and
+     * skipping whole left subtrees by their sizes.
+     */
+    final Entry<K,V> getEntryByRank(int k) {
+        if (k < 0 || k >= size)
+            throw new IndexOutOfBoundsException("Index: " + k + ", Size: " + size);
+        Entry<K,V> p = root;
+        for (;;) {
+            int leftSize = sizeOf(p.left);
+            if (k < leftSize) {
+                p = p.left;
+            } else if (k > leftSize) {
+                k -= leftSize + 1;
+                p = p.right;
+            } else {
+                return p;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of keys less than the given key, or less than
+     * or equal to it if inclusive.
+     */
+    final int countLess(Object key, boolean inclusive) {
+        int count = 0;
+        Entry<K,V> p = root;
+        while (p != null) {
+            int cmp = compare(key, p.key);
+            if (cmp < 0) {
+                p = p.left;
+            } else if (cmp > 0) {
+                count += sizeOf(p.left) + 1;
+                p = p.right;
+            } else {
+                return count + sizeOf(p.left) + (inclusive ? 1 : 0);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of keys within the given bounds, which are
+     * represented as in NavigableSubMap.  Runs in O(log n) time.
+     */
+    final int countInRange(boolean fromStart, Object lo, boolean loInclusive,
+                           boolean toEnd, Object hi, boolean hiInclusive) {
+        int upper = toEnd ? size : countLess(hi, hiInclusive);
+        int lower = fromStart ? 0 : countLess(lo, !loInclusive);
+        return (upper > lower) ? upper - lower : 0;
     }
 
     /**
-     * @throws ClassCastException {@inheritDoc}
-     * @throws NullPointerException if the specified key is null
-     *         and this map uses natural ordering, or its comparator
-     *         does not permit null keys
-     * @since 1.6
+     * Returns the position of the given entry in the key-sorted order,
+     * climbing the parent links and adding up the sizes of the left
+     * subtrees passed on the way.  Needs no key comparisons.
      */
-    public Map.Entry<K,V> ceilingEntry(K key) {
-        return exportEntry(getCeilingEntry(key));
+    static <K,V> int rankOf(Entry<K,V> e) {
+        int r = sizeOf(e.left);
+        for (Entry<K,V> p = e.parent; p != null; e = p, p = p.parent)
+            if (e == p.right)
+                r += sizeOf(p.left) + 1;
+        return r;
     }
 
+    // Cursors
+
     /**
-     * @throws ClassCastException {@inheritDoc}
-     * @throws NullPointerException if the specified key is null
-     *         and this map uses natural ordering, or its comparator
-     *         does not permit null keys
-     * @since 1.6
+     * Returns a cursor positioned at the least entry in this map, or
+     * {@code null} if the map is empty.
+     *
+     * @return a cursor at the first entry, or {@code null}
+     * @see Cursor
      */
-    public K ceilingKey(K key) {
-        return keyOrNull(getCeilingEntry(key));
+    public Cursor<K,V> cursor() {
+        Entry<K,V> e = getFirstEntry();
+        return (e == null) ? null : new Cursor<>(this, e);
     }
 
     /**
-     * @throws ClassCastException {@inheritDoc}
+     * Returns a cursor positioned at the least entry with a key greater
+     * than or equal to the given key, or {@code null} if there is no such
+     * key.
+     *
+     * @param fromKey the key to start at
+     * @return a cursor at the ceiling entry of {@code fromKey}, or {@code null}
+     * @throws ClassCastException if the specified key cannot be compared
+     *         with the keys currently in the map
      * @throws NullPointerException if the specified key is null
      *         and this map uses natural ordering, or its comparator
      *         does not permit null keys
-     * @since 1.6
+     * @see Cursor
      */
-    public Map.Entry<K,V> higherEntry(K key) {
-        return exportEntry(getHigherEntry(key));
+    public Cursor<K,V> cursor(K fromKey) {
+        Entry<K,V> e = getCeilingEntry(fromKey);
+        return (e == null) ? null : new Cursor<>(this, e);
     }
 
     /**
-     * @throws ClassCastException {@inheritDoc}
-     * @throws NullPointerException if the specified key is null
-     *         and this map uses natural ordering, or its comparator
-     *         does not permit null keys
-     * @since 1.6
+     * A movable position on an entry of a TreeMap7, intended for
+     * sorted merge-joins that probe one map with monotonically
+     * increasing keys.
+     *
+     * <p>{@link #seek} is a finger search: rather than descending from
+     * the root as {@code ceilingEntry} does, it climbs from the current
+     * entry only until it reaches a subtree whose key range contains the
+     * target, and descends from there.  Moving a distance of d entries
+     * therefore costs O(log d) instead of O(log n), and a merge-join
+     * that walks the whole map costs close to O(n) in total.
+     *
+     * <p>{@link #next}, {@link #prev}, {@link #seek} and {@link #remove}
+     * move the cursor and return it, or return {@code null} if there is
+     * no such entry, after which the cursor must not be used.
+     *
+     * <p>To keep stepping as cheap as {@code successor}, only
+     * {@code seek} and {@code remove} check for comodification.  If the
+     * map is structurally modified other than through this cursor's
+     * {@code remove}, the result of any further {@code next},
+     * {@code prev}, {@code key} or {@code value} is undefined until the
+     * next {@code seek}, which throws
+     * {@link ConcurrentModificationException}.
      */
-    public K higherKey(K key) {
-        return keyOrNull(getHigherEntry(key));
+    public static final class Cursor<K,V> {
+        private final TreeMap7<K,V> m;
+        private Entry<K,V> e;
+        private int expectedModCount;
+
+        Cursor(TreeMap7<K,V> m, Entry<K,V> e) {
+            this.m = m;
+            this.e = e;
+            this.expectedModCount = m.modCount;
+        }
+
+        public K key() {
+            return e.key;
+        }
+
+        public V value() {
+            return e.value;
+        }
+
+        public V setValue(V value) {
+            return e.setValue(value);
+        }
+
+        public Cursor<K,V> next() {
+            e = successor(e);
+            return (e == null) ? null : this;
+        }
+
+        public Cursor<K,V> prev() {
+            e = predecessor(e);
+            return (e == null) ? null : this;
+        }
+
+        /**
+         * Moves to the least entry with a key greater than or equal to
+         * the given key, in either direction.
+         *
+         * @param key the key to seek to
+         * @return this cursor, or {@code null} if there is no such key
+         * @throws ConcurrentModificationException if the map was
+         *         structurally modified since the cursor was created,
+         *         other than through {@link #remove}
+         */
+        public Cursor<K,V> seek(K key) {
+            if (m.modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            Entry<K,V> p = e;
+            int cmp = m.compare(key, p.key);
+            if (cmp == 0)
+                return this;
+            Entry<K,V> best = null;
+            if (cmp > 0) {
+                // Climb until an ancestor reached from its left child is
+                // not below key; that ancestor bounds p's subtree above.
+                for (Entry<K,V> parent = p.parent; parent != null; parent = p.parent) {
+                    if (p == parent.left && m.compare(key, parent.key) <= 0) {
+                        best = parent;
+                        break;
+                    }
+                    p = parent;
+                }
+            } else {
+                // Climb until an ancestor reached from its right child is
+                // below key; the current entry keeps the answer inside p.
+                for (Entry<K,V> parent = p.parent; parent != null; parent = p.parent) {
+                    if (p == parent.right && m.compare(key, parent.key) > 0)
+                        break;
+                    p = parent;
+                }
+            }
+            while (p != null) {
+                cmp = m.compare(key, p.key);
+                if (cmp < 0) {
+                    best = p;
+                    p = p.left;
+                } else if (cmp > 0) {
+                    p = p.right;
+                } else {
+                    best = p;
+                    break;
+                }
+            }
+            e = best;
+            return (best == null) ? null : this;
+        }
+
+        /**
+         * Removes the current entry from the map and moves to its
+         * successor.
+         *
+         * @return this cursor, or {@code null} if the removed entry was
+         *         the last one
+         * @throws ConcurrentModificationException if the map was
+         *         structurally modified since the cursor was created,
+         *         other than through this method
+         */
+        public Cursor<K,V> remove() {
+            if (m.modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            // deleted entries are replaced by their successors
+            Entry<K,V> next = (e.left != null && e.right != null) ? e : successor(e);
+            m.deleteEntry(e);
+            expectedModCount = m.modCount;
+            e = next;
+            return (next == null) ? null : this;
+        }
     }
 
     // Views
@@ -901,6 +2016,10 @@ public class TreeMap7<K,V>
             return TreeMap7.this.containsValue(o);
         }
 
+        public Spliterator<V> spliterator() {
+            return new ValueSpliterator<>(TreeMap7.this, null, false, null, -1, 0);
+        }
+
         public boolean remove(Object o) {
             for (Entry<K,V> e = getFirstEntry(); e != null; e = successor(e)) {
                 if (valEquals(e.getValue(), o)) {
@@ -921,6 +2040,10 @@ public class TreeMap7<K,V>
             return new EntryIterator(getFirstEntry());
         }
 
+        public Spliterator<Map.Entry<K,V>> spliterator() {
+            return new EntrySpliterator<>(TreeMap7.this, null, false, null, -1, 0);
+        }
+
         public boolean contains(Object o) {
             if (!(o instanceof Map.Entry))
                 return false;
@@ -968,6 +2091,10 @@ public class TreeMap7<K,V>
         return new DescendingKeyIterator(getLastEntry());
     }
 
+    Spliterator<K> keySpliterator() {
+        return new KeySpliterator<>(this, null, false, null, -1, 0);
+    }
+
     static final class KeySet<E> extends AbstractSet<E> implements NavigableSet<E> {
         private final NavigableMap<E, Object> m;
         KeySet(NavigableMap<E,Object> map) { m = map; }
@@ -986,6 +2113,13 @@ public class TreeMap7<K,V>
                 return (Iterator<E>)(((TreeMap7.NavigableSubMap)m).descendingKeyIterator());
         }
 
+        public Spliterator<E> spliterator() {
+            if (m instanceof TreeMap7)
+                return ((TreeMap7<E,Object>)m).keySpliterator();
+            else
+                return (Spliterator<E>)(((TreeMap7.NavigableSubMap)m).keySpliterator());
+        }
+
         public int size() { return m.size(); }
         public boolean isEmpty() { return m.isEmpty(); }
         public boolean contains(Object o) { return m.containsKey(o); }
@@ -1125,6 +2259,198 @@ public class TreeMap7<K,V>
         }
     }
 
+    /**
+     * Base class for TreeMap7 Spliterators.  A spliterator covers
+     * {@code est} consecutive entries starting at {@code current},
+     * in ascending or descending key order.  Because every entry
+     * knows the size of its subtree, a range is split exactly in half
+     * by rank: the entry in the middle is found with {@code rankOf}
+     * and {@code getEntryByRank} in O(log n) time, without comparing
+     * keys.  Sizes are therefore exact and the spliterators report
+     * SIZED and SUBSIZED, so parallel streams can split evenly all
+     * the way down.
+     *
+     * The range is bound late, on the first traversal, split or size
+     * query, to the whole map or to the bounds of {@code range}.
+     * Like the iterators, spliterators are fail-fast; since splitting
+     * relies on ranks, structural modification is also checked there.
+     */
+    abstract static class TreeMapSpliterator<K,V,T> implements Spliterator<T> {
+        final TreeMap7<K,V> tree;
+        final NavigableSubMap<K,V> range; // null for the whole map
+        final boolean descending;
+        Entry<K,V> current; // next entry to visit
+        int est;            // entries left to visit, -1 until bound
+        int expectedModCount;
+
+        TreeMapSpliterator(TreeMap7<K,V> tree, NavigableSubMap<K,V> range,
+                           boolean descending, Entry<K,V> current,
+                           int est, int expectedModCount) {
+            this.tree = tree;
+            this.range = range;
+            this.descending = descending;
+            this.current = current;
+            this.est = est;
+            this.expectedModCount = expectedModCount;
+        }
+
+        final int getEstimate() {
+            int s = est;
+            if (s < 0) {
+                if (range == null) {
+                    current = descending ? tree.getLastEntry() : tree.getFirstEntry();
+                    s = tree.size;
+                } else {
+                    current = descending ? range.absHighest() : range.absLowest();
+                    s = (current == null) ? 0 : range.size();
+                }
+                est = s;
+                expectedModCount = tree.modCount;
+            }
+            return s;
+        }
+
+        /**
+         * Moves this spliterator past the first half of its entries and
+         * returns the entry the first half starts at, or null if there
+         * are fewer than two entries left.  The caller wraps the first
+         * half, {@code getEstimate() >>> 1} entries before the call, in a
+         * new spliterator.
+         */
+        final Entry<K,V> splitFirstHalf() {
+            int s = getEstimate();
+            if (s < 2)
+                return null;
+            if (tree.modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            Entry<K,V> e = current;
+            int half = s >>> 1;
+            current = tree.getEntryByRank(descending ? rankOf(e) - half
+                                                     : rankOf(e) + half);
+            est = s - half;
+            return e;
+        }
+
+        abstract T element(Entry<K,V> e);
+
+        public final boolean tryAdvance(Consumer<? super T> action) {
+            if (action == null)
+                throw new NullPointerException();
+            if (getEstimate() == 0)
+                return false;
+            if (tree.modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            Entry<K,V> e = current;
+            current = descending ? predecessor(e) : successor(e);
+            est--;
+            action.accept(element(e));
+            return true;
+        }
+
+        public final void forEachRemaining(Consumer<? super T> action) {
+            if (action == null)
+                throw new NullPointerException();
+            int n = getEstimate();
+            Entry<K,V> e = current;
+            current = null;
+            est = 0;
+            for (; n > 0 && e != null; n--) {
+                action.accept(element(e));
+                e = descending ? predecessor(e) : successor(e);
+            }
+            if (tree.modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+        }
+
+        public final long estimateSize() {
+            return getEstimate();
+        }
+    }
+
+    static final class KeySpliterator<K,V> extends TreeMapSpliterator<K,V,K> {
+        KeySpliterator(TreeMap7<K,V> tree, NavigableSubMap<K,V> range,
+                       boolean descending, Entry<K,V> current,
+                       int est, int expectedModCount) {
+            super(tree, range, descending, current, est, expectedModCount);
+        }
+
+        public KeySpliterator<K,V> trySplit() {
+            int half = getEstimate() >>> 1;
+            Entry<K,V> e = splitFirstHalf();
+            return (e == null) ? null :
+                new KeySpliterator<>(tree, range, descending, e, half, expectedModCount);
+        }
+
+        K element(Entry<K,V> e) {
+            return e.key;
+        }
+
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.SORTED |
+                Spliterator.SIZED | Spliterator.SUBSIZED;
+        }
+
+        public Comparator<? super K> getComparator() {
+            return descending ? Collections.reverseOrder(tree.comparator) : tree.comparator;
+        }
+    }
+
+    static final class ValueSpliterator<K,V> extends TreeMapSpliterator<K,V,V> {
+        ValueSpliterator(TreeMap7<K,V> tree, NavigableSubMap<K,V> range,
+                         boolean descending, Entry<K,V> current,
+                         int est, int expectedModCount) {
+            super(tree, range, descending, current, est, expectedModCount);
+        }
+
+        public ValueSpliterator<K,V> trySplit() {
+            int half = getEstimate() >>> 1;
+            Entry<K,V> e = splitFirstHalf();
+            return (e == null) ? null :
+                new ValueSpliterator<>(tree, range, descending, e, half, expectedModCount);
+        }
+
+        V element(Entry<K,V> e) {
+            return e.value;
+        }
+
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED;
+        }
+    }
+
+    static final class EntrySpliterator<K,V> extends TreeMapSpliterator<K,V,Map.Entry<K,V>> {
+        EntrySpliterator(TreeMap7<K,V> tree, NavigableSubMap<K,V> range,
+                         boolean descending, Entry<K,V> current,
+                         int est, int expectedModCount) {
+            super(tree, range, descending, current, est, expectedModCount);
+        }
+
+        public EntrySpliterator<K,V> trySplit() {
+            int half = getEstimate() >>> 1;
+            Entry<K,V> e = splitFirstHalf();
+            return (e == null) ? null :
+                new EntrySpliterator<>(tree, range, descending, e, half, expectedModCount);
+        }
+
+        Map.Entry<K,V> element(Entry<K,V> e) {
+            return e;
+        }
+
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.SORTED |
+                Spliterator.SIZED | Spliterator.SUBSIZED;
+        }
+
+        public Comparator<Map.Entry<K,V>> getComparator() {
+            return new Comparator<Map.Entry<K,V>>() {
+                public int compare(Map.Entry<K,V> e1, Map.Entry<K,V> e2) {
+                    return descending ? tree.compare(e2.getKey(), e1.getKey())
+                                      : tree.compare(e1.getKey(), e2.getKey());
+                }
+            };
+        }
+    }
+
     // Little utilities
 
     /**
@@ -1334,14 +2660,22 @@ public class TreeMap7<K,V>
         /** Returns descending iterator from the perspective of this submap */
         abstract Iterator<K> descendingKeyIterator();
 
+        /** Returns spliterator from the perspective of this submap */
+        abstract Spliterator<K> keySpliterator();
+
         // public methods
 
         public boolean isEmpty() {
             return (fromStart && toEnd) ? m.isEmpty() : entrySet().isEmpty();
         }
 
+        /**
+         * Counts the range with two rank lookups in the backing map,
+         * O(log n) regardless of how many entries the range holds.
+         */
         public int size() {
-            return (fromStart && toEnd) ? m.size() : entrySet().size();
+            return (fromStart && toEnd) ? m.size()
+                : m.countInRange(fromStart, lo, loInclusive, toEnd, hi, hiInclusive);
         }
 
         public final boolean containsKey(Object key) {
@@ -1460,21 +2794,8 @@ public class TreeMap7<K,V>
         // View classes
 
         abstract class EntrySetView extends AbstractSet<Map.Entry<K,V>> {
-            private transient int size = -1, sizeModCount;
-
             public int size() {
-                if (fromStart && toEnd)
-                    return m.size();
-                if (size == -1 || sizeModCount != m.modCount) {
-                    sizeModCount = m.modCount;
-                    size = 0;
-                    Iterator i = iterator();
-                    while (i.hasNext()) {
-                        size++;
-                        i.next();
-                    }
-                }
-                return size;
+                return NavigableSubMap.this.size();
             }
 
             public boolean isEmpty() {
@@ -1693,10 +3014,18 @@ public class TreeMap7<K,V>
             return new DescendingSubMapKeyIterator(absHighest(), absLowFence());
         }
 
+        Spliterator<K> keySpliterator() {
+            return new KeySpliterator<>(m, this, false, null, -1, 0);
+        }
+
         final class AscendingEntrySetView extends EntrySetView {
             public Iterator<Map.Entry<K,V>> iterator() {
                 return new SubMapEntryIterator(absLowest(), absHighFence());
             }
+
+            public Spliterator<Map.Entry<K,V>> spliterator() {
+                return new EntrySpliterator<>(m, AscendingSubMap.this, false, null, -1, 0);
+            }
         }
 
         public Set<Map.Entry<K,V>> entrySet() {
@@ -1774,10 +3103,18 @@ public class TreeMap7<K,V>
             return new SubMapKeyIterator(absLowest(), absHighFence());
         }
 
+        Spliterator<K> keySpliterator() {
+            return new KeySpliterator<>(m, this, true, null, -1, 0);
+        }
+
         final class DescendingEntrySetView extends EntrySetView {
             public Iterator<Map.Entry<K,V>> iterator() {
                 return new DescendingSubMapEntryIterator(absHighest(), absLowFence());
             }
+
+            public Spliterator<Map.Entry<K,V>> spliterator() {
+                return new EntrySpliterator<>(m, DescendingSubMap.this, true, null, -1, 0);
+            }
         }
 
         public Set<Map.Entry<K,V>> entrySet() {
@@ -1840,6 +3177,21 @@ public class TreeMap7<K,V>
         Entry<K,V> parent;
         boolean color = BLACK;
 
+        /**
+         * The number of entries in the subtree rooted at this node,
+         * including this node.  Maintained by put, deleteEntry, the
+         * rotations and buildFromSorted, and used by the order
+         * statistic operations ({@link TreeMap7#select}, {@link
+         * TreeMap7#rank}) and by sub map sizes.
+         */
+        int size = 1;
+
+        /**
+         * The cached key prefix, offset as by {@link TreeMap7#prefixOf},
+         * if the map has a key prefix function.
+         */
+        long prefix;
+
         /**
          * Make a new cell with given key, value, and parent, and with
          * {@code null} child links, and BLACK color.
@@ -1999,6 +3351,10 @@ public class TreeMap7<K,V>
         return (p == null) ? null: p.right;
     }
 
+    private static <K,V> int sizeOf(Entry<K,V> p) {
+        return (p == null) ? 0 : p.size;
+    }
+
     /** From CLR */
     private void rotateLeft(Entry<K,V> p) {
         if (p != null) {
@@ -2015,6 +3371,8 @@ public class TreeMap7<K,V>
                 p.parent.right = r;
             r.left = p;
             p.parent = r;
+            r.size = p.size;
+            p.size = sizeOf(p.left) + sizeOf(p.right) + 1;
         }
     }
 
@@ -2032,11 +3390,16 @@ public class TreeMap7<K,V>
             else p.parent.left = l;
             l.right = p;
             p.parent = l;
+            l.size = p.size;
+            p.size = sizeOf(p.left) + sizeOf(p.right) + 1;
         }
     }
 
-    /** From CLR */
-    private void fixAfterInsertion(Entry<K,V> x) {
+    /**
+     * From CLR.  Returns true if the root had to be recolored, which is
+     * the only way an insertion increases the black height of the tree.
+     */
+    private boolean fixAfterInsertion(Entry<K,V> x) {
         x.color = RED;
 
         while (x != null && x != root && x.parent.color == RED) {
@@ -2074,7 +3437,9 @@ public class TreeMap7<K,V>
                 }
             }
         }
+        boolean grew = root.color == RED;
         root.color = BLACK;
+        return grew;
     }
 
     /**
@@ -2090,9 +3455,14 @@ public class TreeMap7<K,V>
             Entry<K,V> s = successor(p);
             p.key = s.key;
             p.value = s.value;
+            p.prefix = s.prefix;
             p = s;
         } // p has 2 children
 
+        // p is the node that is physically unlinked; its ancestors lose one
+        for (Entry<K,V> q = p.parent; q != null; q = q.parent)
+            q.size--;
+
         // Start fixup at replacement node, if it exists.
         Entry<K,V> replacement = (p.left != null ? p.left : p.right);
 
@@ -2115,6 +3485,7 @@ public class TreeMap7<K,V>
         } else if (p.parent == null) { // return if we are the only node.
             root = null;
         } else { //  No children. Use self as phantom replacement and unlink.
+            p.size = 0; // no longer counted while rotations recompute sizes
             if (p.color == BLACK)
                 fixAfterDeletion(p);
 
@@ -2252,6 +3623,340 @@ public class TreeMap7<K,V>
     }
 
 
+    // Binary dump and restore
+
+    /**
+     * The magic number of a dump, "TRM7".
+     */
+    private static final int DUMP_MAGIC = 0x54524d37;
+
+    /**
+     * The number of mappings per block of a dump.  Each block has an
+     * entry in the block index.
+     */
+    private static final int DUMP_BLOCK_SIZE = 1024;
+
+    /**
+     * The size of the trailer of a dump: the offset of the block index
+     * (long), the number of blocks (int) and the magic number (int).
+     */
+    private static final int DUMP_TRAILER_SIZE = 16;
+
+    /**
+     * Writes the mappings of this map to the given file, as by {@link
+     * #dump(WritableByteChannel, Codec7, Codec7)}.  The dump is written
+     * to a temporary file which then replaces {@code file}, so a failed
+     * dump leaves an existing file intact; the temporary file is deleted.
+     *
+     * @return the number of mappings written
+     * @throws IOException if an I/O error occurs
+     * @see #restore(Path, Codec7, Codec7)
+     */
+    public int dump(Path file, Codec7<? super K> keyCodec, Codec7<? super V> valueCodec)
+        throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        boolean moved = false;
+        try {
+            int count;
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                count = dump(ch, keyCodec, valueCodec);
+                ch.force(false);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+            return count;
+        } finally {
+            if (!moved)
+                Records7.deleteQuietly(tmp);
+        }
+    }
+
+    /**
+     * Writes the mappings of this map in key order to the given channel
+     * as length-prefixed binary records, encoding keys and values with
+     * the given codecs instead of Java serialization.
+     *
+     * <p>The dump starts with the magic number (int), the number of
+     * mappings (int) and the block size (int).  Then come the mappings,
+     * each a key record followed by a value record, where a record is
+     * its length (int, -1 for null) followed by its bytes.  The mappings
+     * are grouped into blocks of block size mappings.  After the last
+     * block comes the block index, which gives the offset (long) and
+     * the first key record of each block.  Last is a trailer holding the
+     * offset of the index (long), the number of blocks (int) and the
+     * magic number again.  All integers are big-endian.
+     *
+     * <p>The records are written in a single pass through a fixed-size
+     * buffer, so the dump costs little more than encoding the keys and
+     * values.
+     *
+     * @return the number of mappings written
+     * @throws IOException if an I/O error occurs
+     */
+    public int dump(WritableByteChannel ch, Codec7<? super K> keyCodec,
+                    Codec7<? super V> valueCodec) throws IOException {
+        int blocks = (size + DUMP_BLOCK_SIZE - 1) / DUMP_BLOCK_SIZE;
+        long[] offsets = new long[blocks];
+        byte[][] firstKeys = new byte[blocks][];
+        ByteBuffer buf = ByteBuffer.allocate(Records7.BUFFER_SIZE);
+        buf.putInt(DUMP_MAGIC).putInt(size).putInt(DUMP_BLOCK_SIZE);
+        long pos = 12;
+        int count = 0;
+        for (Entry<K,V> e = getFirstEntry(); e != null; e = successor(e)) {
+            byte[] kb = (e.key == null) ? null : keyCodec.encode(e.key);
+            byte[] vb = (e.value == null) ? null : valueCodec.encode(e.value);
+            if (count % DUMP_BLOCK_SIZE == 0) {
+                offsets[count / DUMP_BLOCK_SIZE] = pos;
+                firstKeys[count / DUMP_BLOCK_SIZE] = kb;
+            }
+            buf = Records7.putRecord(ch, buf, kb);
+            buf = Records7.putRecord(ch, buf, vb);
+            pos += 8 + (kb == null ? 0 : kb.length) + (vb == null ? 0 : vb.length);
+            count++;
+        }
+        for (int i = 0; i < blocks; i++) {
+            if (buf.remaining() < 8)
+                Records7.drain(ch, buf);
+            buf.putLong(offsets[i]);
+            buf = Records7.putRecord(ch, buf, firstKeys[i]);
+        }
+        if (buf.remaining() < DUMP_TRAILER_SIZE)
+            Records7.drain(ch, buf);
+        buf.putLong(pos).putInt(blocks).putInt(DUMP_MAGIC);
+        Records7.drain(ch, buf);
+        return count;
+    }
+
+    /**
+     * Reads the mappings dumped to the given file into this map, as by
+     * {@link #restore(ReadableByteChannel, Codec7, Codec7)}.
+     *
+     * @return the number of mappings read
+     * @throws IOException if an I/O error occurs
+     * @see #dump(Path, Codec7, Codec7)
+     */
+    public int restore(Path file, Codec7<? extends K> keyCodec, Codec7<? extends V> valueCodec)
+        throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return restore(ch, keyCodec, valueCodec);
+        }
+    }
+
+    /**
+     * Reads the mappings written by {@link #dump(WritableByteChannel,
+     * Codec7, Codec7)} from the given channel into this map, in a single
+     * sequential pass that stops before the block index.  If this map is
+     * empty, the tree is built by buildFromSorted in linear time,
+     * decoding each record as its entry is linked in, and if reading or
+     * decoding fails the map is left empty.  Otherwise the mappings are
+     * put one by one, and those read before a failure remain.
+     *
+     * @return the number of mappings read
+     * @throws StreamCorruptedException if the data is not a
+     *         TreeMap7 dump, or its keys are not strictly ascending in
+     *         this map's ordering
+     * @throws EOFException if the data is truncated
+     * @throws IOException if an I/O error occurs
+     */
+    public int restore(ReadableByteChannel ch, Codec7<? extends K> keyCodec,
+                       Codec7<? extends V> valueCodec) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(Records7.BUFFER_SIZE);
+        buf.flip();
+        buf = Records7.fill(ch, buf, 12);
+        if (buf.getInt() != DUMP_MAGIC)
+            throw new StreamCorruptedException("Not a TreeMap7 dump");
+        int count = buf.getInt();
+        if (count < 0)
+            throw new StreamCorruptedException("Illegal entry count: " + count);
+        buf.getInt(); // block size, only needed to use the block index
+        DumpReader r = new DumpReader(ch, buf, count, keyCodec, valueCodec);
+        if (size == 0) {
+            boolean built = false;
+            try {
+                buildFromSorted(count, r, null, null);
+                built = true;
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } catch (ClassNotFoundException cannotHappen) {
+            } finally {
+                if (!built) {
+                    // buildFromSorted sets size before reading anything
+                    root = null;
+                    size = 0;
+                }
+            }
+            modCount++;
+        } else {
+            try {
+                while (r.hasNext()) {
+                    Map.Entry<K,V> e = r.next();
+                    put(e.getKey(), e.getValue());
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads the mappings with keys from {@code fromKey}, inclusive, to
+     * {@code toKey}, exclusive, from a file written by {@link
+     * #dump(Path, Codec7, Codec7)} into this map.  The block index is
+     * searched for the last block starting at or before {@code fromKey},
+     * and reading starts there, so only the blocks overlapping the range
+     * are read and decoded.
+     *
+     * @return the number of mappings read
+     * @throws IllegalArgumentException if {@code fromKey} is greater than
+     *         {@code toKey}
+     * @throws StreamCorruptedException if the file is not a
+     *         TreeMap7 dump
+     * @throws IOException if an I/O error occurs
+     */
+    public int restore(Path file, K fromKey, K toKey, Codec7<? extends K> keyCodec,
+                       Codec7<? extends V> valueCodec) throws IOException {
+        if (compare(fromKey, toKey) > 0)
+            throw new IllegalArgumentException("fromKey > toKey");
+        List<Map.Entry<K,V>> entries = new ArrayList<>();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = ch.size();
+            ByteBuffer buf = ByteBuffer.allocate(DUMP_TRAILER_SIZE);
+            readFully(ch, buf, 0, 12);
+            int magic = buf.getInt(), count = buf.getInt(), blockSize = buf.getInt();
+            readFully(ch, buf, fileSize - DUMP_TRAILER_SIZE, DUMP_TRAILER_SIZE);
+            long indexOffset = buf.getLong();
+            int blocks = buf.getInt();
+            if (magic != DUMP_MAGIC || buf.getInt() != DUMP_MAGIC || count < 0 || blockSize <= 0
+                || blocks != (count + blockSize - 1) / blockSize)
+                throw new StreamCorruptedException("Not a TreeMap7 dump");
+            if (blocks == 0)
+                return 0;
+
+            // binary search the first keys of the blocks
+            ch.position(indexOffset);
+            buf = ByteBuffer.allocate(Records7.BUFFER_SIZE);
+            buf.flip();
+            long[] offsets = new long[blocks];
+            Object[] firstKeys = new Object[blocks];
+            for (int i = 0; i < blocks; i++) {
+                buf = Records7.fill(ch, buf, 12);
+                offsets[i] = buf.getLong();
+                int length = buf.getInt();
+                buf = Records7.fill(ch, buf, Math.max(length, 0));
+                byte[] kb = Records7.getRecord(buf, length);
+                firstKeys[i] = (kb == null) ? null : keyCodec.decode(kb);
+            }
+            int lo = 0, hi = blocks - 1, block = 0;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(firstKeys[mid], fromKey) <= 0) {
+                    block = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            ch.position(offsets[block]);
+            buf.clear();
+            buf.flip();
+            DumpReader r = new DumpReader(ch, buf, count - block * blockSize, keyCodec, valueCodec);
+            while (r.hasNext()) {
+                Map.Entry<K,V> e = r.next();
+                if (compare(e.getKey(), toKey) >= 0)
+                    break;
+                if (compare(e.getKey(), fromKey) >= 0)
+                    entries.add(e);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (size == 0) {
+            try {
+                buildFromSorted(entries.size(), entries.iterator(), null, null);
+            } catch (ClassNotFoundException cannotHappen) {
+            }
+            modCount++;
+        } else {
+            for (Map.Entry<K,V> e : entries)
+                put(e.getKey(), e.getValue());
+        }
+        return entries.size();
+    }
+
+    /**
+     * Reads exactly n bytes at the given position into buf and flips it.
+     */
+    private static void readFully(FileChannel ch, ByteBuffer buf, long position, int n)
+        throws IOException {
+        buf.clear();
+        buf.limit(n);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, position + buf.position()) < 0)
+                throw new EOFException();
+        }
+        buf.flip();
+    }
+
+    /**
+     * Decodes the mappings of a dump one record pair at a time, so that
+     * buildFromSorted can consume them as they are read.  I/O errors are
+     * rethrown as UncheckedIOException, and so is a key that is not
+     * greater than the one before it.
+     */
+    private final class DumpReader implements Iterator<Map.Entry<K,V>> {
+        private final ReadableByteChannel ch;
+        private final Codec7<? extends K> keyCodec;
+        private final Codec7<? extends V> valueCodec;
+        private ByteBuffer buf;
+        private int remaining;
+        private K lastKey;
+        private boolean started;
+
+        DumpReader(ReadableByteChannel ch, ByteBuffer buf, int count,
+                   Codec7<? extends K> keyCodec, Codec7<? extends V> valueCodec) {
+            this.ch = ch;
+            this.buf = buf;
+            this.remaining = count;
+            this.keyCodec = keyCodec;
+            this.valueCodec = valueCodec;
+        }
+
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        public Map.Entry<K,V> next() {
+            if (remaining == 0)
+                throw new NoSuchElementException();
+            try {
+                buf = Records7.fill(ch, buf, 4);
+                int keyLength = buf.getInt();
+                buf = Records7.fill(ch, buf, Math.max(keyLength, 0));
+                byte[] kb = Records7.getRecord(buf, keyLength);
+                buf = Records7.fill(ch, buf, 4);
+                int valueLength = buf.getInt();
+                buf = Records7.fill(ch, buf, Math.max(valueLength, 0));
+                byte[] vb = Records7.getRecord(buf, valueLength);
+                K key = (kb == null) ? null : keyCodec.decode(kb);
+                V value = (vb == null) ? null : valueCodec.decode(vb);
+                if (started ? compare(lastKey, key) >= 0 : compare(key, key) != 0)
+                    throw new StreamCorruptedException("Keys out of order: " + key);
+                lastKey = key;
+                started = true;
+                remaining--;
+                return new AbstractMap7.SimpleImmutableEntry<>(key, value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     /**
      * Linear time tree building algorithm from sorted data.  Can accept keys
      * and/or values from iterator or stream. This leads to too many
@@ -2350,6 +4055,9 @@ public class TreeMap7<K,V>
         }
 
         Entry<K,V> middle =  new Entry<>(key, value, null);
+        middle.size = hi - lo + 1;
+        if (keyPrefix != null)
+            middle.prefix = prefixOf(key);
 
         // color nodes in non-full bottommost level red
         if (level == redLevel)
@@ -3,6 +3,12 @@ package org.lipeng.demo.collectioncomments;
 import org.junit.Test;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 public class ListTest  {
     private Integer id;
@@ -25,6 +31,348 @@ public class ListTest  {
 
     }
 
+    /**
+     * 测试ChunkedCopyOnWriteList7：在任意位置插入和删除后内容同ArrayList，修改之前创建的快照和迭代器不受影响
+     */
+    @Test
+    public void testChunkedCopyOnWriteList() {
+        ChunkedCopyOnWriteList7<Integer> list = new ChunkedCopyOnWriteList7<>();
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            list.add(i);
+            expected.add(i);
+        }
+        List<Integer> snapshot = list.snapshot();
+        Iterator<Integer> it = list.iterator();
+        for (int i = 0; i < 300; i++) {
+            list.add(i * 2, -i);
+            expected.add(i * 2, -i);
+            list.remove(Integer.valueOf(i * 3));
+            expected.remove(Integer.valueOf(i * 3));
+        }
+        list.set(5, 55);
+        expected.set(5, 55);
+        assertEquals(expected, list);
+        assertEquals(expected.indexOf(998), list.indexOf(998));
+        assertEquals(false, list.addIfAbsent(998));
+        assertEquals(1000, snapshot.size());
+        assertEquals(Integer.valueOf(999), snapshot.get(999));
+        int count = 0;
+        while (it.hasNext()) {
+            assertEquals(Integer.valueOf(count++), it.next());
+        }
+        assertEquals(1000, count);
+
+        Random random = new Random(48);
+        while (!expected.isEmpty()) {
+            int index = random.nextInt(expected.size());
+            assertEquals(expected.remove(index), list.remove(index));
+            if (expected.size() % 97 == 0)
+                assertEquals(expected, list);
+        }
+        assertEquals(0, list.size());
+        assertEquals(expected, list);
+        list.add(7);
+        assertEquals(Collections.singletonList(7), list);
+    }
+
+    /**
+     * 测试ChunkedCopyOnWriteList7从头部连续删除到空，以及addAll的下标检查和批量删除
+     */
+    @Test
+    public void testChunkedCopyOnWriteListBulk() {
+        ChunkedCopyOnWriteList7<Integer> list = new ChunkedCopyOnWriteList7<>();
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            list.add(i);
+            expected.add(i);
+        }
+        while (list.size() > 0) {
+            assertEquals(expected.remove(0), list.remove(0));
+            assertEquals(expected.size(), list.size());
+        }
+        assertEquals(expected, list);
+
+        try {
+            list.addAll(-5, Collections.singletonList(9));
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+        }
+        try {
+            list.addAll(1, Collections.singletonList(9));
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+        }
+        assertEquals(0, list.size());
+
+        for (int i = 0; i < 1000; i++)
+            expected.add(i);
+        assertEquals(true, list.addAll(expected));
+        assertEquals(true, list.addAll(500, Arrays.asList(-1, -2)));
+        expected.addAll(500, Arrays.asList(-1, -2));
+        assertEquals(expected, list);
+
+        List<Integer> snapshot = list.snapshot();
+        Set<Integer> odd = new HashSet<>();
+        for (int i = 1; i < 1000; i += 2)
+            odd.add(i);
+        assertEquals(true, list.removeAll(odd));
+        expected.removeAll(odd);
+        assertEquals(expected, list);
+        assertEquals(false, list.removeAll(odd));
+        assertEquals(1002, snapshot.size());
+
+        assertEquals(true, list.retainAll(Arrays.asList(-1, -2, 0, 998)));
+        assertEquals(Arrays.asList(0, -1, -2, 998), list);
+        assertEquals(false, list.retainAll(Arrays.asList(-1, -2, 0, 998)));
+
+        assertEquals(true, list.removeIf(new Predicate<Integer>() {
+            public boolean test(Integer e) {
+                return e < 0;
+            }
+        }));
+        assertEquals(Arrays.asList(0, 998), list);
+        assertEquals(true, list.removeIf(new Predicate<Integer>() {
+            public boolean test(Integer e) {
+                return true;
+            }
+        }));
+        assertEquals(0, list.size());
+        list.add(1);
+        assertEquals(Collections.singletonList(1), list);
+    }
+
+    /**
+     * 测试ChunkedCopyOnWriteList7在中间位置批量插入，以及子列表视图：clear是范围删除，
+     * 通过视图的修改写回list，list被其他操作修改之后视图抛出ConcurrentModificationException
+     */
+    @Test
+    public void testChunkedCopyOnWriteSubList() {
+        ChunkedCopyOnWriteList7<Integer> list = new ChunkedCopyOnWriteList7<>();
+        List<Integer> expected = new ArrayList<>();
+        Random random = new Random(481);
+        for (int i = 0; i < 200; i++) {
+            List<Integer> batch = new ArrayList<>();
+            int count = random.nextInt(100);
+            for (int j = 0; j < count; j++) {
+                batch.add(i * 1000 + j);
+            }
+            int index = random.nextInt(expected.size() + 1);
+            list.addAll(index, batch);
+            expected.addAll(index, batch);
+        }
+        assertEquals(expected, list);
+
+        List<Integer> snapshot = list.snapshot();
+        List<Integer> copy = new ArrayList<>(list);
+        while (expected.size() > 100) {
+            int from = random.nextInt(expected.size());
+            int to = Math.min(expected.size(), from + random.nextInt(500));
+            list.subList(from, to).clear();
+            expected.subList(from, to).clear();
+            assertEquals(expected, list);
+        }
+        assertEquals(copy, snapshot);
+
+        List<Integer> sub = list.subList(10, 20);
+        List<Integer> expectedSub = expected.subList(10, 20);
+        sub.set(0, -1);
+        expectedSub.set(0, -1);
+        sub.add(5, -2);
+        expectedSub.add(5, -2);
+        assertEquals(expectedSub.remove(9), sub.remove(9));
+        assertEquals(expectedSub, sub);
+        assertEquals(expected, list);
+        // 同CopyOnWriteArrayList7，通过子列表的子列表修改之后，原来的子列表也失效了
+        sub.subList(2, 4).clear();
+        expected.subList(12, 14).clear();
+        assertEquals(expected, list);
+        try {
+            sub.size();
+            fail();
+        } catch (ConcurrentModificationException e) {
+        }
+        sub = list.subList(10, 20);
+        list.add(0);
+        try {
+            sub.get(0);
+            fail();
+        } catch (ConcurrentModificationException e) {
+        }
+        list.subList(0, list.size()).clear();
+        assertEquals(0, list.size());
+        list.add(1);
+        assertEquals(Collections.singletonList(1), list);
+    }
+
+    /**
+     * 测试CopyOnWriteArrayList7.mutate：批量修改的结果同在ArrayList上执行相同的修改，
+     * 之前创建的迭代器不受影响，批量修改抛出异常时list不变
+     */
+    @Test
+    public void testCopyOnWriteArrayListMutate() {
+        CopyOnWriteArrayList7<Integer> list = new CopyOnWriteArrayList7<>();
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            list.add(i);
+            expected.add(i);
+        }
+        Iterator<Integer> it = list.iterator();
+        Consumer<List<Integer>> batch = new Consumer<List<Integer>>() {
+            public void accept(List<Integer> copy) {
+                for (int i = 0; i < 50; i++) {
+                    copy.add(i * 2, -i);
+                }
+                copy.remove(Integer.valueOf(7));
+                copy.set(3, 33);
+                copy.subList(10, 20).clear();
+                copy.removeIf(new Predicate<Integer>() {
+                    public boolean test(Integer e) {
+                        return e % 5 == 0;
+                    }
+                });
+                Collections.sort(copy);
+            }
+        };
+        list.mutate(batch);
+        batch.accept(expected);
+        assertEquals(expected, list);
+        int count = 0;
+        while (it.hasNext()) {
+            assertEquals(Integer.valueOf(count++), it.next());
+        }
+        assertEquals(100, count);
+
+        // 长度不变时发布的是批量修改用的数组本身
+        it = list.iterator();
+        list.mutate(new Consumer<List<Integer>>() {
+            public void accept(List<Integer> copy) {
+                for (int i = 0; i < copy.size(); i++) {
+                    copy.set(i, copy.get(i) + 1);
+                }
+            }
+        });
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), it.next());
+            expected.set(i, expected.get(i) + 1);
+        }
+        assertEquals(expected, list);
+
+        try {
+            list.mutate(new Consumer<List<Integer>>() {
+                public void accept(List<Integer> copy) {
+                    copy.clear();
+                    copy.add(1);
+                    throw new IllegalStateException();
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        assertEquals(expected, list);
+        try {
+            list.mutate(null);
+            fail();
+        } catch (NullPointerException e) {
+        }
+    }
+
+    /**
+     * 测试无锁模式的CopyOnWriteArrayList7：多个线程同时add、remove、addIfAbsent和mutate，不丢失任何修改
+     */
+    @Test
+    public void testLockFreeCopyOnWriteArrayList() throws Exception {
+        final CopyOnWriteArrayList7<Integer> list = new CopyOnWriteArrayList7<>(true);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int id = t;
+            Thread thread = new Thread() {
+                public void run() {
+                    for (int i = id * 500; i < (id + 1) * 500; i++) {
+                        list.add(i);
+                    }
+                    for (int i = id * 500; i < (id + 1) * 500; i += 2) {
+                        list.remove(Integer.valueOf(i));
+                    }
+                    for (int i = 0; i < 100; i++) {
+                        list.addIfAbsent(100000 + i);
+                    }
+                    for (int i = 0; i < 200; i++) {
+                        list.mutate(new Consumer<List<Integer>>() {
+                            public void accept(List<Integer> copy) {
+                                copy.add(-1 - id);
+                            }
+                        });
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(1000 + 100 + 4 * 200, list.size());
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(i % 2, Collections.frequency(list, i));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(1, Collections.frequency(list, 100000 + i));
+        }
+        for (int t = 0; t < 4; t++) {
+            assertEquals(200, Collections.frequency(list, -1 - t));
+        }
+    }
+
+    /**
+     * 测试CopyOnWriteArrayList7的子列表：list被其他写操作修改之后，子列表的操作抛出ConcurrentModificationException，
+     * 无锁模式下子列表与无锁的写操作同时修改时，双方的修改都不会丢失
+     */
+    @Test
+    public void testCopyOnWriteSubListComodification() throws Exception {
+        for (boolean lockFree : new boolean[]{false, true}) {
+            CopyOnWriteArrayList7<Integer> list = new CopyOnWriteArrayList7<>(lockFree);
+            list.addAll(Arrays.asList(1, 2, 3));
+            List<Integer> sub = list.subList(0, 2);
+            sub.set(0, 10);
+            assertEquals(Arrays.asList(10, 2, 3), list);
+            list.add(4);
+            try {
+                sub.set(0, 11);
+                fail();
+            } catch (ConcurrentModificationException e) {
+            }
+            assertEquals(Arrays.asList(10, 2, 3, 4), list);
+        }
+
+        final CopyOnWriteArrayList7<Integer> list = new CopyOnWriteArrayList7<>(true);
+        final AtomicInteger subAdds = new AtomicInteger();
+        Thread writer = new Thread() {
+            public void run() {
+                for (int i = 0; i < 5000; i++) {
+                    list.add(i);
+                }
+            }
+        };
+        Thread subWriter = new Thread() {
+            public void run() {
+                for (int i = 0; i < 5000; i++) {
+                    try {
+                        list.subList(0, 0).add(-1);
+                        subAdds.incrementAndGet();
+                    } catch (ConcurrentModificationException e) {
+                    }
+                }
+            }
+        };
+        writer.start();
+        subWriter.start();
+        writer.join();
+        subWriter.join();
+        assertEquals(5000 + subAdds.get(), list.size());
+        assertEquals(subAdds.get(), Collections.frequency(list, -1));
+    }
+
     public void function() {
         String zahngsan = String.format("your name:%s" + "zhangsan");
     }
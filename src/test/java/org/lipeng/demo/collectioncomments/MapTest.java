@@ -2,7 +2,23 @@ package org.lipeng.demo.collectioncomments;
 
 import org.junit.Test;
 
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 /**
  * @author lipeng
@@ -82,6 +98,904 @@ public class MapTest {
 
     }
 
+    /**
+     * 测试LinkedHashMap7作为LRU缓存时的统计信息
+     */
+    @Test
+    public void testCacheStats() {
+        LinkedHashMap7<Integer, Integer> map = new LinkedHashMap7<Integer, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest) {
+                return size() > 2;
+            }
+        };
+        map.recordStats();
+        map.put(1, 1);
+        map.put(2, 2);
+        map.get(1);
+        map.put(3, 3);// 淘汰2
+        map.get(2);
+        map.get(3);
+        CacheStats7 stats = map.stats();
+        assertEquals(2, stats.hitCount());
+        assertEquals(1, stats.missCount());
+        assertEquals(1, stats.evictionCount());
+        assertEquals(2, map.size());
+        assertEquals("[1, 3]", map.keySet().toString());
+        System.out.println(stats);
+    }
+
+    /**
+     * 测试运行时调小LinkedHashMap7的容量后立即批量淘汰
+     */
+    @Test
+    public void testEvictTo() {
+        LinkedHashMap7<Integer, Integer> map = new LinkedHashMap7<>(16, 0.75f, true);
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, i);
+        }
+        map.get(0);
+        int capacity = map.capacity();
+        map.setMaximumSize(10);
+        assertEquals(10, map.size());
+        assertEquals("[991, 992, 993, 994, 995, 996, 997, 998, 999, 0]", map.keySet().toString());
+        assertEquals(true, map.capacity() < capacity);
+        map.put(1000, 1000);// 淘汰991
+        assertEquals(10, map.size());
+        assertEquals(null, map.get(991));
+        assertEquals(Integer.valueOf(999), map.get(999));
+        assertEquals(5, map.evictTo(5));
+        assertEquals("[997, 998, 0, 1000, 999]", map.keySet().toString());
+    }
+
+    /**
+     * 测试LoadingCache7：多个线程同时未命中同一个key，只加载一次
+     */
+    @Test
+    public void testLoadingCache() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        final LoadingCache7<Integer, String> cache = new LoadingCache7<>(new CacheLoader7<Integer, String>() {
+            @Override
+            public String load(Integer key) throws Exception {
+                loads.incrementAndGet();
+                Thread.sleep(100);
+                return "v" + key;
+            }
+        }, 100);
+        // 工作线程中的断言失败不会让测试失败，先记录结果，在测试线程中检查
+        final String[] results = new String[8];
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < results.length; i++) {
+            final int index = i;
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        results[index] = cache.get(1);
+                    } catch (ExecutionException e) {
+                        results[index] = e.toString();
+                    }
+                }
+            };
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (String result : results) {
+            assertEquals("v1", result);
+        }
+        assertEquals(1, loads.get());
+        Map<Integer, String> all = cache.getAll(Arrays.asList(3, 1, 2, 3));
+        assertEquals("{3=v3, 1=v1, 2=v2}", all.toString());
+        assertEquals(3, loads.get());
+        System.out.println(cache.stats());
+    }
+
+    /**
+     * 测试LoadingCache7的expireAfterWrite和refreshAfterWrite：过期之后get重新加载，
+     * 需要刷新时get返回旧值并在executor中刷新，executor拒绝执行时这次刷新失败，之后还会再次刷新，
+     * 没有executor时同步刷新并返回新值
+     */
+    @Test
+    public void testLoadingCacheExpireAndRefresh() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        CacheLoader7<Integer, String> loader = new CacheLoader7<Integer, String>() {
+            @Override
+            public String load(Integer key) {
+                return "v" + key + "." + loads.incrementAndGet();
+            }
+        };
+
+        LoadingCache7<Integer, String> expiring = new LoadingCache7<>(loader, 100, 50, 0, TimeUnit.MILLISECONDS, null);
+        assertEquals("v1.1", expiring.get(1));
+        assertEquals("v1.1", expiring.get(1));
+        Thread.sleep(80);
+        assertEquals(null, expiring.getIfPresent(1));
+        assertEquals("v1.2", expiring.get(1));
+
+        // 刷新任务先排队，由测试线程执行
+        final List<Runnable> tasks = new ArrayList<>();
+        Executor queued = new Executor() {
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+        LoadingCache7<Integer, String> refreshing = new LoadingCache7<>(loader, 100, 10000, 50, TimeUnit.MILLISECONDS, queued);
+        assertEquals("v2.3", refreshing.get(2));
+        Thread.sleep(80);
+        assertEquals("v2.3", refreshing.get(2));
+        assertEquals(1, tasks.size());
+        // 刷新完成之前不会再提交刷新
+        assertEquals("v2.3", refreshing.get(2));
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        assertEquals("v2.4", refreshing.get(2));
+
+        final AtomicInteger rejected = new AtomicInteger();
+        Executor rejecting = new Executor() {
+            public void execute(Runnable command) {
+                rejected.incrementAndGet();
+                throw new RejectedExecutionException();
+            }
+        };
+        LoadingCache7<Integer, String> stuck = new LoadingCache7<>(loader, 100, 200, 30, TimeUnit.MILLISECONDS, rejecting);
+        assertEquals("v3.5", stuck.get(3));
+        Thread.sleep(60);
+        assertEquals("v3.5", stuck.get(3));
+        assertEquals("v3.5", stuck.get(3));
+        assertEquals(2, rejected.get());
+        // 过期之后同步加载，不会等待被拒绝的刷新
+        Thread.sleep(200);
+        assertEquals("v3.6", stuck.get(3));
+
+        // 没有executor时在调用线程中同步刷新，get和getAll返回刷新后的值
+        LoadingCache7<Integer, String> inline = new LoadingCache7<>(loader, 100, 10000, 30, TimeUnit.MILLISECONDS, null);
+        assertEquals("v4.7", inline.get(4));
+        Thread.sleep(60);
+        assertEquals("v4.8", inline.get(4));
+        assertEquals("v4.8", inline.getIfPresent(4));
+        Thread.sleep(60);
+        assertEquals("{4=v4.9}", inline.getAll(Arrays.asList(4)).toString());
+    }
+
+    /**
+     * 测试LinkedHashMap7的倒序迭代以及firstN/lastN视图
+     */
+    @Test
+    public void testDescendingAndBoundedViews() {
+        LinkedHashMap7<Integer, Integer> map = new LinkedHashMap7<>(16, 0.75f, true);
+        for (int i = 0; i < 10; i++) {
+            map.put(i, i);
+        }
+        map.get(3);
+        Iterator<Integer> it = map.descendingKeyIterator();
+        assertEquals(Integer.valueOf(3), it.next());
+        assertEquals(Integer.valueOf(9), it.next());
+        assertEquals("[0=0, 1=1]", map.firstN(2).toString());
+        assertEquals("[8=8, 9=9, 3=3]", map.lastN(3).toString());
+        assertEquals(10, map.lastN(100).size());
+        Iterator<Map.Entry<Integer, Integer>> last = map.lastN(1).iterator();
+        last.next();
+        last.remove();
+        assertEquals("[8=8, 9=9]", map.lastN(2).toString());
+    }
+
+    /**
+     * 测试LinkedHashMap7最热的k个entry的dump和restore，恢复后的访问顺序与dump时相同
+     */
+    @Test
+    public void testDumpAndRestore() throws Exception {
+        LinkedHashMap7<String, Long> map = new LinkedHashMap7<>(16, 0.75f, true);
+        for (long i = 0; i < 1000; i++) {
+            map.put("key" + i, i);
+        }
+        map.put(null, null);
+        map.get("key0");
+        Path file = Files.createTempFile("lru", ".dump");
+        try {
+            assertEquals(3, map.dump(file, 3, Codec7.STRING, Codec7.LONG));
+            LinkedHashMap7<String, Long> restored = new LinkedHashMap7<>(16, 0.75f, true);
+            assertEquals(3, restored.restore(file, Codec7.STRING, Codec7.LONG));
+            assertEquals("[key999=999, null=null, key0=0]", restored.entrySet().toString());
+
+            // dump失败时不留下临时文件，已有的dump文件不变
+            Codec7<Long> failing = new Codec7<Long>() {
+                public byte[] encode(Long value) {
+                    throw new IllegalStateException();
+                }
+
+                public Long decode(byte[] bytes) {
+                    throw new IllegalStateException();
+                }
+            };
+            try {
+                map.dump(file, 3, Codec7.STRING, failing);
+            } catch (IllegalStateException expected) {
+            }
+            assertEquals(false, Files.exists(file.resolveSibling(file.getFileName() + ".tmp")));
+            assertEquals(3, new LinkedHashMap7<String, Long>().restore(file, Codec7.STRING, Codec7.LONG));
+
+            // 损坏的记录长度超出文件的剩余部分，抛出EOFException，而不是按这个长度分配缓冲区
+            byte[] bytes = Files.readAllBytes(file);
+            ByteBuffer.wrap(bytes).putInt(8, Integer.MAX_VALUE - 8);
+            Files.write(file, bytes);
+            LinkedHashMap7<String, Long> corrupt = new LinkedHashMap7<>();
+            try {
+                corrupt.restore(file, Codec7.STRING, Codec7.LONG);
+            } catch (EOFException expected) {
+            }
+            assertEquals(0, corrupt.size());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * 随机put/remove，与java.util.TreeMap比较BPlusTreeMap7的内容、关系查找以及范围视图
+     */
+    @Test
+    public void testBPlusTreeMap() {
+        Random random = new Random(31);
+        BPlusTreeMap7<Integer, Integer> map = new BPlusTreeMap7<>(null, 4);
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        for (int i = 0; i < 20000; i++) {
+            Integer key = random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            }
+        }
+        assertEquals(expected, map);
+        assertEquals(expected.size(), map.size());
+        for (int key = -1; key <= 2000; key += 7) {
+            assertEquals(expected.ceilingKey(key), map.ceilingKey(key));
+            assertEquals(expected.higherKey(key), map.higherKey(key));
+            assertEquals(expected.floorKey(key), map.floorKey(key));
+            assertEquals(expected.lowerKey(key), map.lowerKey(key));
+        }
+        assertEquals(expected.subMap(100, true, 900, false), map.subMap(100, true, 900, false));
+        assertEquals(expected.subMap(100, true, 900, false).size(), map.subMap(100, true, 900, false).size());
+        assertEquals(new ArrayList<>(expected.descendingMap().headMap(1500).keySet()),
+                new ArrayList<>(map.descendingMap().headMap(1500).keySet()));
+        assertEquals(expected.headMap(300, false).lastEntry(), map.headMap(300, false).lastEntry());
+
+        Iterator<Integer> it = map.tailMap(1000).keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next() % 2 == 0) {
+                it.remove();
+            }
+        }
+        expected.tailMap(1000).keySet().removeIf(k -> k % 2 == 0);
+        assertEquals(expected, map);
+        map.headMap(500).clear();
+        expected.headMap(500).clear();
+        assertEquals(expected, map);
+        assertEquals(expected.firstEntry(), map.pollFirstEntry());
+        expected.pollFirstEntry();
+        assertEquals(expected, map);
+
+        // 起点已经越过终点的空范围
+        BPlusTreeMap7<Integer, Integer> small = new BPlusTreeMap7<>(null, 4);
+        for (int i = 0; i < 100; i++) {
+            small.put(i, i);
+        }
+        NavigableMap<Integer, Integer> empty = small.subMap(5, false, 5, false);
+        assertEquals(0, empty.size());
+        assertEquals(false, empty.keySet().iterator().hasNext());
+        assertEquals(false, empty.descendingKeySet().iterator().hasNext());
+        assertEquals(new ArrayList<Integer>(), new ArrayList<>(small.subMap(50, false, 51, false).keySet()));
+        assertEquals(Arrays.asList(52, 51, 50), new ArrayList<>(small.subMap(50, true, 52, true).descendingKeySet()));
+        try {
+            small.subMap(10, 5);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+
+        // 迭代器返回的entry的key被删除之后，setValue不会重新插入这个key
+        Map.Entry<Integer, Integer> entry = small.entrySet().iterator().next();
+        assertEquals(Integer.valueOf(0), entry.setValue(100));
+        assertEquals(Integer.valueOf(100), small.get(0));
+        small.remove(0);
+        try {
+            entry.setValue(200);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        assertEquals(false, small.containsKey(0));
+    }
+
+    /**
+     * 多个线程并发put/remove ConcurrentSkipListMap7，最终结果与单线程的结果相同，范围视图同TreeMap
+     */
+    @Test
+    public void testConcurrentSkipListMap() throws Exception {
+        final ConcurrentSkipListMap7<Integer, Integer> map = new ConcurrentSkipListMap7<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int id = t;
+            Thread thread = new Thread() {
+                public void run() {
+                    for (int i = id; i < 40000; i += 4) {
+                        map.put(i, i);
+                        if (i % 3 == 0) {
+                            map.remove(i);
+                        }
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        for (int i = 0; i < 40000; i++) {
+            if (i % 3 != 0) {
+                expected.put(i, i);
+            }
+        }
+        assertEquals(expected, map);
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected.ceilingKey(300), map.ceilingKey(300));
+        assertEquals(expected.lowerKey(300), map.lowerKey(300));
+        assertEquals(new ArrayList<>(expected.descendingMap().subMap(1000, true, 900, false).keySet()),
+                new ArrayList<>(map.descendingMap().subMap(1000, true, 900, false).keySet()));
+        assertEquals(expected.headMap(100).size(), map.headMap(100).size());
+        assertEquals(expected.pollFirstEntry(), map.tailMap(0, true).pollFirstEntry());
+        assertEquals(null, map.putIfAbsent(0, 0));
+        assertEquals(false, map.replace(0, 1, 2));
+        assertEquals(true, map.remove(0, 0));
+
+        // 迭代器返回的entry的key被删除之后，setValue不会重新插入这个key
+        Map.Entry<Integer, Integer> entry = map.entrySet().iterator().next();
+        Integer key = entry.getKey();
+        assertEquals(entry.getValue(), entry.setValue(-1));
+        assertEquals(Integer.valueOf(-1), map.get(key));
+        map.remove(key);
+        try {
+            entry.setValue(-2);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        assertEquals(false, map.containsKey(key));
+    }
+
+    /**
+     * 测试TreeMap7的select/rank以及subMap视图的size，随机删除后子树大小仍然正确
+     */
+    @Test
+    public void testTreeMapOrderStatistics() {
+        TreeMap7<Integer, Integer> map = new TreeMap7<>();
+        for (int i = 0; i < 1000; i++) {
+            map.put(i * 2, i);
+        }
+        Random random = new Random(33);
+        for (int i = 0; i < 300; i++) {
+            map.remove(random.nextInt(1000) * 2);
+        }
+        List<Integer> keys = new ArrayList<>(map.keySet());
+        for (int k = 0; k < keys.size(); k++) {
+            assertEquals(keys.get(k), map.select(k));
+            assertEquals(k, map.rank(keys.get(k)));
+        }
+        assertEquals(map.headMap(501).keySet().size(), map.rank(501));
+        TreeMap<Integer, Integer> expected = new TreeMap<>(map);
+        assertEquals(expected.subMap(100, false, 900, true).size(), map.subMap(100, false, 900, true).size());
+        assertEquals(expected.descendingMap().tailMap(600).size(), map.descendingMap().tailMap(600).size());
+        assertEquals(0, map.subMap(5, 5).size());
+    }
+
+    /**
+     * 按时间窗口计数：TreeMap7的headMap/tailMap/descendingMap视图的size在修改后仍然正确
+     */
+    @Test
+    public void testSubMapSize() {
+        TreeMap7<Long, Integer> events = new TreeMap7<>();
+        for (int i = 0; i < 10000; i++) {
+            events.put(i * 10L, i);
+        }
+        NavigableMap<Long, Integer> window = events.subMap(50000L, true, 60000L, false);
+        assertEquals(1000, window.size());
+        assertEquals(1000, window.descendingMap().keySet().size());
+        assertEquals(499, window.descendingMap().headMap(55000L, false).size());
+        events.headMap(55000L).clear();
+        assertEquals(500, window.size());
+        assertEquals(0, events.headMap(55000L).size());
+        events.put(59999L, 0);
+        assertEquals(501, window.values().size());
+        assertEquals(4501, events.tailMap(55000L, true).size());
+    }
+
+    /**
+     * 测试LongTreeMap7的关系查找与游标，与java.util.TreeMap比较
+     */
+    @Test
+    public void testLongTreeMap() {
+        LongTreeMap7<String> map = new LongTreeMap7<>();
+        TreeMap<Long, String> expected = new TreeMap<>();
+        Random random = new Random(35);
+        for (int i = 0; i < 5000; i++) {
+            long key = random.nextInt(10000) * 1000L;
+            if (random.nextInt(4) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, "v" + i), map.put(key, "v" + i));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected.toString(), map.toString());
+        assertEquals(expected.ceilingKey(123456L).longValue(), map.ceilingKey(123456L));
+        assertEquals(expected.floorKey(123456L).longValue(), map.floorKey(123456L));
+        int count = 0;
+        for (LongTreeMap7.Cursor<String> c = map.ceiling(2000000L); c != null && c.key() < 3000000L; c = c.next()) {
+            assertEquals(expected.get(c.key()), c.value());
+            count++;
+        }
+        assertEquals(expected.subMap(2000000L, 3000000L).size(), count);
+        assertEquals(null, map.higher(map.lastKey()));
+    }
+
+    /**
+     * 测试TreeMap7.bulkLoad：无序且有重复key的输入，结果与逐个put相同，批量构建后子树大小仍然正确
+     */
+    @Test
+    public void testBulkLoad() {
+        Random random = new Random(36);
+        List<Map.Entry<Integer, Integer>> entries = new ArrayList<>();
+        for (int i = 0; i < 50000; i++) {
+            entries.add(new AbstractMap.SimpleEntry<>(random.nextInt(20000), i));
+        }
+        TreeMap7<Integer, Integer> map = new TreeMap7<>();
+        map.put(-1, -1);
+        map.put(5, -5);
+        TreeMap<Integer, Integer> expected = new TreeMap<>(map);
+        for (Map.Entry<Integer, Integer> e : entries) {
+            expected.put(e.getKey(), e.getValue());
+        }
+        map.bulkLoad(entries);
+        assertEquals(expected, map);
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected.headMap(10000).size(), map.rank(10000));
+        map.put(20001, 0);
+        assertEquals(expected.lastKey(), map.lowerKey(20001));
+    }
+
+    /**
+     * 测试TreeMap7的union/intersect/difference，包括另一个map的顺序不同的情况
+     */
+    @Test
+    public void testSetAlgebra() {
+        TreeMap7<Integer, Integer> a = new TreeMap7<>();
+        TreeMap<Integer, Integer> b = new TreeMap<>();
+        for (int i = 0; i < 1000; i++) {
+            a.put(i * 2, 1);
+            b.put(i * 3, 10);
+        }
+        BiFunction<Integer, Integer, Integer> sum = new BiFunction<Integer, Integer, Integer>() {
+            public Integer apply(Integer x, Integer y) {
+                return x + y;
+            }
+        };
+        TreeMap<Integer, Integer> expected = new TreeMap<>(b);
+        for (Map.Entry<Integer, Integer> e : a.entrySet()) {
+            expected.merge(e.getKey(), e.getValue(), sum);
+        }
+        TreeMap7<Integer, Integer> union = a.union(b, sum);
+        assertEquals(expected, union);
+        assertEquals(expected.headMap(1500).size(), union.rank(1500));
+        assertEquals(334, a.intersect(b, sum).size());
+        assertEquals(Integer.valueOf(11), a.intersect(b, sum).get(6));
+        TreeMap7<Integer, Integer> difference = a.difference(b.descendingMap());
+        assertEquals(666, difference.size());
+        assertEquals(false, difference.containsKey(6));
+        assertEquals(true, difference.containsKey(4));
+    }
+
+    /**
+     * 测试TreeMap7的removeRange/split/concat，操作之后order statistics仍然正确
+     */
+    @Test
+    public void testRemoveRangeSplitConcat() {
+        TreeMap7<Integer, Integer> map = new TreeMap7<>();
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, i);
+        }
+        assertEquals(100, map.removeRange(100, 200));
+        assertEquals(900, map.size());
+        assertEquals(Integer.valueOf(200), map.ceilingKey(100));
+        assertEquals(Integer.valueOf(250), map.select(150));
+
+        TreeMap7<Integer, Integer> high = map.split(500);
+        assertEquals(400, map.size());
+        assertEquals(500, high.size());
+        assertEquals(Integer.valueOf(499), map.lastKey());
+        assertEquals(Integer.valueOf(500), high.firstKey());
+        assertEquals(10, high.rank(510));
+
+        map.concat(high);
+        assertEquals(900, map.size());
+        assertEquals(0, high.size());
+        assertEquals(Integer.valueOf(999), map.lastKey());
+        assertEquals(Integer.valueOf(500), map.select(400));
+        map.put(150, 150);
+        assertEquals(901, map.size());
+        assertEquals(101, map.rank(200));
+
+        // 空的半开区间不删除任何key
+        assertEquals(0, map.removeRange(150, 150));
+        assertEquals(0, map.removeRange(150, false, 150, true));
+        assertEquals(901, map.size());
+        assertEquals(1, map.removeRange(150, true, 150, true));
+        assertEquals(900, map.size());
+    }
+
+    /**
+     * 测试PersistentTreeMap7的快照：快照之后原map的修改不影响快照，迭代器遍历创建时的版本
+     */
+    @Test
+    public void testPersistentTreeMap() {
+        PersistentTreeMap7<Integer, String> map = new PersistentTreeMap7<>();
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, "v" + i);
+        }
+        PersistentTreeMap7<Integer, String> snapshot = map.snapshot();
+        Iterator<Integer> it = map.keySet().iterator();
+        for (int i = 0; i < 1000; i += 2) {
+            map.remove(i);
+        }
+        map.put(1, "one");
+        map.put(5000, "v5000");
+
+        assertEquals(501, map.size());
+        assertEquals("one", map.get(1));
+        assertEquals(null, map.get(2));
+        assertEquals(1000, snapshot.size());
+        assertEquals("v1", snapshot.get(1));
+        assertEquals("v2", snapshot.get(2));
+        assertEquals(Integer.valueOf(999), snapshot.lastKey());
+        assertEquals(Integer.valueOf(5000), map.lastKey());
+        assertEquals(Integer.valueOf(11), map.ceilingKey(10));
+        assertEquals(50, map.subMap(0, true, 100, true).size());
+
+        int count = 0;
+        while (it.hasNext()) {
+            assertEquals(Integer.valueOf(count++), it.next());
+        }
+        assertEquals(1000, count);
+
+        // 迭代器的entry的setValue返回这个entry原来的值，key已经被删除时不会重新插入
+        Iterator<Map.Entry<Integer, String>> entries = map.entrySet().iterator();
+        Map.Entry<Integer, String> first = entries.next();
+        Map.Entry<Integer, String> second = entries.next();
+        map.put(1, "uno");
+        assertEquals("one", first.setValue("1"));
+        assertEquals("1", map.get(1));
+        map.remove(3);
+        try {
+            second.setValue("3");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(false, map.containsKey(3));
+        assertEquals(500, map.size());
+    }
+
+    /**
+     * 测试TreeMap7.Cursor：用递增的key做merge-join，seek向前向后都能正确定位
+     */
+    @Test
+    public void testTreeMapCursor() {
+        TreeMap7<Integer, Integer> map = new TreeMap7<>();
+        for (int i = 0; i < 1000; i++) {
+            map.put(i * 2, i);
+        }
+        int matched = 0;
+        TreeMap7.Cursor<Integer, Integer> c = map.cursor();
+        for (int k = 0; k < 3000 && c != null; k += 3) {
+            c = c.seek(k);
+            if (c != null && c.key() == k) {
+                matched++;
+            }
+        }
+        assertEquals(334, matched);
+
+        c = map.cursor(101);
+        assertEquals(Integer.valueOf(102), c.key());
+        assertEquals(Integer.valueOf(1000), c.seek(999).key());
+        assertEquals(Integer.valueOf(10), c.seek(9).key());
+        assertEquals(Integer.valueOf(8), c.prev().key());
+        assertEquals(Integer.valueOf(10), c.next().key());
+        assertEquals(Integer.valueOf(12), c.remove().key());
+        assertEquals(false, map.containsKey(10));
+        assertEquals(null, c.seek(2000));
+    }
+
+    /**
+     * 测试TreeMap7的key前缀缓存：查找结果不变，前缀不同时不调用comparator
+     */
+    @Test
+    public void testTreeMapKeyPrefix() {
+        final AtomicInteger comparisons = new AtomicInteger();
+        Comparator<String> cpr = new Comparator<String>() {
+            public int compare(String a, String b) {
+                comparisons.incrementAndGet();
+                return a.compareTo(b);
+            }
+        };
+        TreeMap7<String, Integer> map = new TreeMap7<>(cpr, TreeMap7.stringKeyPrefix());
+        TreeMap<String, Integer> expected = new TreeMap<>();
+        for (int i = 0; i < 1000; i++) {
+            String key = Integer.toString(i * 7919 % 1000) + "/suffix";
+            map.put(key, i);
+            expected.put(key, i);
+        }
+        map.put("ab", -1);
+        map.put("ab\u0000", -2);
+        expected.put("ab", -1);
+        expected.put("ab\u0000", -2);
+        assertEquals(expected, map);
+        assertEquals(Integer.valueOf(-2), map.get("ab\u0000"));
+        assertEquals(Integer.valueOf(-1), map.remove("ab"));
+        assertEquals(null, map.get("ab"));
+
+        comparisons.set(0);
+        for (String key : expected.keySet()) {
+            map.get(key);
+        }
+        // 只有前4个字符相同的key才需要完整比较
+        assertEquals(true, comparisons.get() < expected.size() * 3);
+    }
+
+    /**
+     * 测试TreeMap7的二进制dump和restore，以及利用块索引只恢复一个范围
+     */
+    @Test
+    public void testTreeMapDumpAndRestore() throws Exception {
+        TreeMap7<Long, String> map = new TreeMap7<>();
+        for (long i = 0; i < 5000; i++) {
+            map.put(i * 2, i % 10 == 0 ? null : "value" + i);
+        }
+        Path file = Files.createTempFile("sorted", ".dump");
+        try {
+            assertEquals(5000, map.dump(file, Codec7.LONG, Codec7.STRING));
+            TreeMap7<Long, String> restored = new TreeMap7<>();
+            assertEquals(5000, restored.restore(file, Codec7.LONG, Codec7.STRING));
+            assertEquals(map, restored);
+            assertEquals(Long.valueOf(5000), restored.select(2500));
+
+            TreeMap7<Long, String> range = new TreeMap7<>();
+            assertEquals(1500, range.restore(file, 3001L, 6001L, Codec7.LONG, Codec7.STRING));
+            assertEquals(Long.valueOf(3002), range.firstKey());
+            assertEquals(Long.valueOf(6000), range.lastKey());
+            assertEquals("value1501", range.get(3002L));
+
+            // 解码失败时map保持为空
+            TreeMap7<String, String> strings = new TreeMap7<>();
+            for (int i = 0; i < 100; i++) {
+                strings.put("k" + i, "v" + i);
+            }
+            strings.dump(file, Codec7.STRING, Codec7.STRING);
+            TreeMap7<Long, String> wrong = new TreeMap7<>();
+            try {
+                wrong.restore(file, Codec7.LONG, Codec7.STRING);
+            } catch (RuntimeException expected) {
+            }
+            assertEquals(0, wrong.size());
+            assertEquals(null, wrong.firstEntry());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * 测试SpillingTreeMap7：memtable溢出到多个run文件之后，查找和范围迭代合并所有的run，删除的key不再出现，
+     * 后台合并之后run的个数有上限
+     */
+    @Test
+    public void testSpillingTreeMap() throws Exception {
+        Path dir = Files.createTempDirectory("spill");
+        SpillingTreeMap7<Long, String> map = new SpillingTreeMap7<>(dir, null, Codec7.LONG, Codec7.STRING, 100);
+        try {
+            for (long i = 0; i < 2000; i++) {
+                map.put(i, "v" + i);
+            }
+            for (long i = 0; i < 2000; i += 2) {
+                map.remove(i);
+            }
+            map.put(10L, "ten");
+            map.awaitMerges();
+            assertEquals(true, map.runCount() > 0);
+            assertEquals(1001, map.size());
+            assertEquals("ten", map.get(10L));
+            assertEquals(null, map.get(12L));
+            assertEquals("v13", map.get(13L));
+            assertEquals(Long.valueOf(13), map.ceilingKey(12L));
+            assertEquals(Long.valueOf(11), map.lowerKey(12L));
+            assertEquals(Long.valueOf(1999), map.lastKey());
+
+            NavigableMap<Long, String> sub = map.subMap(100L, true, 200L, true);
+            assertEquals(50, sub.size());
+            assertEquals(Long.valueOf(101), sub.firstKey());
+            Iterator<Long> it = sub.descendingKeySet().iterator();
+            assertEquals(Long.valueOf(199), it.next());
+            it.remove();
+            assertEquals(Long.valueOf(197), it.next());
+            assertEquals(false, map.containsKey(199L));
+            assertEquals(1000, map.size());
+        } finally {
+            map.close();
+            Files.delete(dir);
+        }
+
+        // 墓碑和重复的key使各个run的大小悬殊，合并之后run的个数仍然有上限
+        Path dir2 = Files.createTempDirectory("spill");
+        SpillingTreeMap7<Long, String> small = new SpillingTreeMap7<>(dir2, null, Codec7.LONG, Codec7.STRING, 2);
+        try {
+            TreeMap<Long, String> expected = new TreeMap<>();
+            Random random = new Random(43);
+            for (int i = 0; i < 4000; i++) {
+                long key = random.nextInt(600);
+                if (random.nextInt(3) == 0) {
+                    assertEquals(expected.remove(key), small.remove(key));
+                } else {
+                    assertEquals(expected.put(key, "v" + i), small.put(key, "v" + i));
+                }
+            }
+            small.awaitMerges();
+            assertEquals(true, small.runCount() <= SpillingTreeMap7.MAX_RUNS);
+            assertEquals(expected, small);
+        } finally {
+            small.close();
+            Files.delete(dir2);
+        }
+    }
+
+    /**
+     * 测试IntervalTreeMap7：按起点的顺序返回重叠的区间，区间左闭右开，删除和修改终点之后查询结果随之变化
+     */
+    @Test
+    public void testIntervalTreeMap() {
+        IntervalTreeMap7<Integer, String> map = new IntervalTreeMap7<>();
+        map.put(9, 10, "a");
+        map.put(10, 11, "b");
+        map.put(5, 20, "c");
+        map.put(12, 14, "d");
+        map.put(30, 40, "e");
+        assertEquals(5, map.size());
+
+        assertEquals("[[5, 20)=c, [10, 11)=b]", map.overlapping(10, 12).toString());
+        assertEquals("[[5, 20)=c, [9, 10)=a]", map.containing(9).toString());
+        assertEquals(true, map.overlaps(35, 36));
+        assertEquals(false, map.overlaps(20, 30));
+        assertEquals(false, map.overlaps(10, 10));
+
+        assertEquals("c", map.put(5, 6, "c2"));
+        assertEquals("[[10, 11)=b]", map.overlapping(10, 12).toString());
+        assertEquals("b", map.remove(10));
+        assertEquals(false, map.overlaps(10, 12));
+        assertEquals("[12, 14)=d", map.getInterval(12).toString());
+
+        Iterator<IntervalTreeMap7.Interval<Integer, String>> it = map.iterator();
+        assertEquals(Integer.valueOf(5), it.next().start());
+        it.remove();
+        assertEquals("{[9, 10)=a, [12, 14)=d, [30, 40)=e}", map.toString());
+    }
+
+    /**
+     * 测试TreeMap7的spliterator：按排名精确地分成两半，大小是精确的，子视图和降序视图的并行流结果与顺序遍历相同
+     */
+    @Test
+    public void testTreeMapSpliterator() {
+        TreeMap7<Integer, Integer> map = new TreeMap7<>();
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, i * 2);
+        }
+        Spliterator<Integer> s = map.keySet().spliterator();
+        assertEquals(true, s.hasCharacteristics(Spliterator.SORTED | Spliterator.SUBSIZED));
+        Spliterator<Integer> prefix = s.trySplit();
+        assertEquals(500, prefix.estimateSize());
+        assertEquals(500, s.estimateSize());
+        final List<Integer> keys = new ArrayList<>();
+        Consumer<Integer> collect = new Consumer<Integer>() {
+            public void accept(Integer k) {
+                keys.add(k);
+            }
+        };
+        assertEquals(250, prefix.trySplit().estimateSize());
+        prefix.tryAdvance(collect);
+        s.tryAdvance(collect);
+        assertEquals(Arrays.asList(250, 500), keys);
+
+        NavigableMap<Integer, Integer> sub = map.subMap(100, true, 200, false);
+        assertEquals(100, sub.entrySet().spliterator().estimateSize());
+        long sum = 0;
+        for (int v : sub.values()) {
+            sum += v;
+        }
+        assertEquals(sum, sub.keySet().parallelStream().mapToLong(new ToLongFunction<Integer>() {
+            public long applyAsLong(Integer k) {
+                return k * 2;
+            }
+        }).sum());
+        List<Integer> descending = new ArrayList<>(sub.descendingKeySet());
+        assertEquals(descending, sub.descendingKeySet().parallelStream().collect(Collectors.toList()));
+    }
+
+    /**
+     * 测试TreeMap7.toImmutable()：数组实现的不可修改的map，查询和范围视图的结果同原map，之后对原map的修改不影响它
+     */
+    @Test
+    public void testTreeMapToImmutable() {
+        TreeMap7<String, Integer> map = new TreeMap7<>(null, TreeMap7.stringKeyPrefix());
+        for (int i = 0; i < 100; i++) {
+            map.put("k" + (i * 2 + 100), i);
+        }
+        ImmutableTreeMap7<String, Integer> snapshot = map.toImmutable();
+        map.remove("k100");
+        assertEquals(100, snapshot.size());
+        assertEquals(Integer.valueOf(0), snapshot.get("k100"));
+        assertEquals(null, snapshot.get("k101"));
+        assertEquals("k102", snapshot.higherKey("k100"));
+        assertEquals("k102", snapshot.floorKey("k103"));
+        assertEquals("k104", snapshot.ceilingKey("k103"));
+        assertEquals("k102", snapshot.lowerKey("k104"));
+        assertEquals("{k120=10, k122=11}", snapshot.subMap("k120", true, "k124", false).toString());
+        assertEquals("[k298, k296]", snapshot.headMap("k298", true).descendingKeySet().headSet("k294").toString());
+        assertEquals(99, snapshot.tailMap("k100", false).size());
+    }
+
+    /**
+     * 测试TreeMap7.putAllSorted：大于所有key的连续key整体构造后连接到树上，其余的key从上一次插入的位置开始查找，结果同逐个put
+     */
+    @Test
+    public void testTreeMapPutAllSorted() {
+        TreeMap7<Integer, String> map = new TreeMap7<>();
+        for (int i = 0; i < 100; i += 10) {
+            map.put(i, "old" + i);
+        }
+        List<Map.Entry<Integer, String>> batch = new ArrayList<>();
+        for (int i = 5; i < 200; i += 10) {
+            batch.add(new AbstractMap7.SimpleEntry<>(i, "new" + i));
+        }
+        batch.add(new AbstractMap7.SimpleEntry<>(195, "last"));
+        batch.add(new AbstractMap7.SimpleEntry<>(30, "unsorted"));
+        map.putAllSorted(batch.iterator());
+        assertEquals(30, map.size());
+        assertEquals("old0", map.get(0));
+        assertEquals("new5", map.get(5));
+        assertEquals("unsorted", map.get(30));
+        assertEquals("last", map.get(195));
+        assertEquals(Integer.valueOf(105), map.select(20));
+        assertEquals("[95, 105, 115]", map.subMap(95, true, 115, true).keySet().toString());
+
+        TreeMap7<Long, Long> appended = new TreeMap7<>();
+        for (long t = 0; t < 10000; t += 1000) {
+            List<Map.Entry<Long, Long>> timestamps = new ArrayList<>();
+            for (long i = t; i < t + 1000; i++) {
+                timestamps.add(new AbstractMap7.SimpleEntry<>(i, i));
+            }
+            appended.putAllSorted(timestamps.iterator());
+        }
+        assertEquals(10000, appended.size());
+        assertEquals(Long.valueOf(4321), appended.select(4321));
+        assertEquals(Long.valueOf(9999), appended.lastKey());
+
+        // 后面的key抛出异常时，之前的映射同逐个put一样已经放入map
+        TreeMap7<Integer, Integer> partial = new TreeMap7<>();
+        partial.put(0, 0);
+        try {
+            partial.putAllSorted(Arrays.asList(new AbstractMap7.SimpleEntry<>(1, 1),
+                    new AbstractMap7.SimpleEntry<>(2, 2), new AbstractMap7.SimpleEntry<Integer, Integer>(null, 3)).iterator());
+            fail();
+        } catch (NullPointerException e) {
+        }
+        assertEquals("{0=0, 1=1, 2=2}", partial.toString());
+        assertEquals(3, partial.size());
+        assertEquals(Integer.valueOf(2), partial.select(2));
+    }
+
     @Test
     public void test5() {
 